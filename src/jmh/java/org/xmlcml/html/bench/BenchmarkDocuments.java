@@ -0,0 +1,99 @@
+package org.xmlcml.html.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+
+/** documents for the JMH benchmarks.
+ * 
+ * a document is either the name of a fixture in src/test/resources/org/xmlcml/html/ 
+ * (override with -Dhtml.fixtures=dir) or a synthetic size such as "1KB", "100KB", "1MB" or "10MB"
+ * made by repeating a block of scholarly-looking HTML (paragraphs with italics and entities, a table).
+ * 
+ * build and run with:
+ * <pre>
+ * mvn -P bench package -DskipTests
+ * java -jar target/benchmarks.jar                        # all benchmarks
+ * java -jar target/benchmarks.jar HtmlFactoryBenchmark -p document=312.html -prof gc
+ * java -jar target/benchmarks.jar -rf json -rff baseline.json   # save a baseline to compare against
+ * </pre>
+ * run from the project directory so the fixtures are found.
+ * 
+ * @author pm286
+ *
+ */
+public class BenchmarkDocuments {
+
+	public static final String FIXTURES_PROPERTY = "html.fixtures";
+	public static final String DEFAULT_FIXTURES = "src/test/resources/org/xmlcml/html";
+
+	private static final String HEAD = 
+			"<!DOCTYPE html>\n<html><head><title>Synthetic</title><meta name=\"citation_title\" content=\"x\"/></head><body>\n";
+	private static final String TAIL = "</body></html>\n";
+	private static final String BLOCK =
+			"<div class=\"section\"><h2>Results &amp; Discussion</h2>\n"
+			+ "<p>Specimens of <i>Hylobates lar</i> and <i>H. agilis</i> were sampled (<a href=\"#b1\">1</a>); "
+			+ "&#8220;quoted&#8221; values &lt; 0.05 are shown &ndash; see <b>Table 1</b>.<br>"
+			+ "<span class=\"ref\">et al</span> &copy; 2016</p>\n"
+			+ "<table><thead><tr><th>Species</th><th>n</th><th>Mass (kg)</th></tr></thead><tbody>\n"
+			+ "<tr><td><i>H. lar</i></td><td>12</td><td>5.3</td></tr>\n"
+			+ "<tr><td><i>H. moloch</i></td><td>8</td><td>6.1</td></tr>\n"
+			+ "<tr><td colspan=\"2\">Total</td><td>11.4</td></tr>\n"
+			+ "</tbody></table></div>\n";
+
+	/** content of a fixture or synthetic document.
+	 * 
+	 * @param document
+	 * @return
+	 * @throws IOException
+	 */
+	public static String load(String document) throws IOException {
+		long size = parseSize(document);
+		if (size > 0) {
+			return createSynthetic(size);
+		}
+		File dir = new File(System.getProperty(FIXTURES_PROPERTY, DEFAULT_FIXTURES));
+		return FileUtils.readFileToString(new File(dir, document), StandardCharsets.UTF_8);
+	}
+
+	public static byte[] loadBytes(String document) throws IOException {
+		return load(document).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** synthetic document of about size characters.
+	 * 
+	 * @param size
+	 * @return
+	 */
+	public static String createSynthetic(long size) {
+		StringBuilder sb = new StringBuilder((int) size + BLOCK.length());
+		sb.append(HEAD);
+		while (sb.length() + TAIL.length() < size) {
+			sb.append(BLOCK);
+		}
+		sb.append(TAIL);
+		return sb.toString();
+	}
+
+	/** 
+	 * @param document e.g. "100KB"
+	 * @return size in characters or -1 if not a size
+	 */
+	static long parseSize(String document) {
+		long multiplier;
+		if (document.endsWith("KB")) {
+			multiplier = 1024;
+		} else if (document.endsWith("MB")) {
+			multiplier = 1024 * 1024;
+		} else {
+			return -1;
+		}
+		try {
+			return Long.parseLong(document.substring(0, document.length() - 2)) * multiplier;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
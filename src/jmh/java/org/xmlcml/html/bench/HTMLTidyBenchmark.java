@@ -0,0 +1,52 @@
+package org.xmlcml.html.bench;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlcml.html.util.HTMLTidy;
+
+/** HTMLTidy.tidy with the tag deletions used for scholarly pages.
+ * 
+ * @author pm286
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class HTMLTidyBenchmark {
+
+	@Param({"312.html", "badhtml1.html", "multiple-joined-italics.html", "1KB", "100KB", "1MB", "10MB"})
+	public String document;
+
+	private byte[] bytes;
+	private HTMLTidy htmlTidy;
+
+	@Setup
+	public void setup() throws Exception {
+		bytes = BenchmarkDocuments.loadBytes(document);
+		htmlTidy = new HTMLTidy();
+		htmlTidy.deleteTag("script");
+		htmlTidy.deleteTag("button");
+		htmlTidy.deleteTag("noscript");
+		htmlTidy.deleteTag("style");
+	}
+
+	@Benchmark
+	public String tidy() throws Exception {
+		return htmlTidy.tidy(new ByteArrayInputStream(bytes));
+	}
+}
@@ -0,0 +1,52 @@
+package org.xmlcml.html.bench;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+
+/** HtmlFactory.parse with and without Jsoup.
+ * 
+ * @author pm286
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class HtmlFactoryBenchmark {
+
+	@Param({"312.html", "badhtml1.html", "multiple-joined-italics.html", "1KB", "100KB", "1MB", "10MB"})
+	public String document;
+
+	@Param({"true", "false"})
+	public boolean useJsoup;
+
+	private byte[] bytes;
+	private HtmlFactory htmlFactory;
+
+	@Setup
+	public void setup() throws Exception {
+		bytes = BenchmarkDocuments.loadBytes(document);
+		htmlFactory = HtmlFactory.builder().setUseJsoup(useJsoup).build();
+	}
+
+	@Benchmark
+	public HtmlElement parse() throws Exception {
+		return htmlFactory.parse(new ByteArrayInputStream(bytes));
+	}
+}
@@ -0,0 +1,83 @@
+package org.xmlcml.html.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+import org.xmlcml.html.HtmlTable;
+import org.xmlcml.html.util.HtmlUtil;
+
+/** entity unescaping, XPath queries and table rows on already-parsed documents.
+ * 
+ * @author pm286
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class HtmlUtilBenchmark {
+
+	@Param({"312.html", "badhtml1.html", "multiple-joined-italics.html", "1KB", "100KB", "1MB", "10MB"})
+	public String document;
+
+	private String html;
+	private HtmlElement root;
+	private List<HtmlTable> tables;
+	private Map<String, CharSequence> entityMap;
+
+	@Setup
+	public void setup() throws Exception {
+		html = BenchmarkDocuments.load(document);
+		root = HtmlFactory.builder().setUseDirectBuild(true).build().parse(html);
+		tables = new ArrayList<HtmlTable>();
+		for (HtmlElement table : HtmlUtil.getQueryHtmlElements(root, HtmlTable.ALL_TABLE_XPATH)) {
+			tables.add((HtmlTable) table);
+		}
+		entityMap = HtmlFactory.getHtmlEntityMap();
+	}
+
+	@Benchmark
+	public String unescapeHtml3() {
+		return HtmlUtil.unescapeHtml3(html, entityMap);
+	}
+
+	@Benchmark
+	public List<HtmlElement> queryAll() {
+		return HtmlUtil.getQueryHtmlElements(root, ".//*");
+	}
+
+	@Benchmark
+	public List<HtmlElement> queryLocalName() {
+		return HtmlUtil.getQueryHtmlElements(root, ".//*[local-name()='i']");
+	}
+
+	@Benchmark
+	public List<HtmlElement> queryPrefixed() {
+		return HtmlUtil.getQueryHtmlElements(root, ".//h:i");
+	}
+
+	@Benchmark
+	public void getRows(Blackhole blackhole) {
+		for (HtmlTable table : tables) {
+			blackhole.consume(table.getRows());
+		}
+	}
+}
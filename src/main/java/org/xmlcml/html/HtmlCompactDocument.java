@@ -0,0 +1,320 @@
+package org.xmlcml.html;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import nu.xom.Attribute;
+import nu.xom.Element;
+import nu.xom.Node;
+import nu.xom.Text;
+
+/** frozen, read-only HtmlElement tree packed into a few arrays.
+ * 
+ * <pre>
+ * HtmlCompactDocument doc = htmlFactory.parseCompact(file);
+ * for (HtmlCompactElement tr : doc.getRoot().descendants("tr")) {
+ *     List&lt;String&gt; cells = tr.getTdCellValues();
+ * }
+ * </pre>
+ * nodes (elements and text) are numbered in document order. Per node there is a tag id (a byte 
+ * indexing a per-document tag table), the parent, the end of its subtree and an offset into one 
+ * shared UTF-8 byte array holding all text in document order, so the value of any element is a single 
+ * slice of that array. Attributes are parallel arrays of name ids and offsets into a second byte 
+ * array. Comments and processing instructions are dropped and all elements are taken to be XHTML.
+ * 
+ * elements are read through HtmlCompactElement, a small flyweight (document, node) created on 
+ * demand; thaw() rebuilds a full HtmlElement tree when the mutable or XOM APIs are needed.
+ * 
+ * the saving over XOM is in the per-node objects (elements, attribute lists, child lists, 
+ * namespace bookkeeping); text-heavy pages are dominated by their text, which both store as UTF-8,
+ * so the gain is largest for markup-heavy pages such as big tables. Immutable and thread-safe.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlCompactDocument {
+	private static final Logger LOG = Logger.getLogger(HtmlCompactDocument.class);
+
+	/** tag id of text nodes. */
+	static final int TEXT = 0;
+	/** tag id of elements whose name is in overflowTags (more than 254 distinct names). */
+	static final int OVERFLOW = 255;
+
+	private String[] tagNames;
+	private byte[] tags;
+	private int[] parents;
+	private int[] ends;
+	/** text offset at the start of each node, plus a sentinel. */
+	private int[] textStarts;
+	private byte[] text;
+	/** attribute index at the start of each node, plus a sentinel. */
+	private int[] attributeStarts;
+	private String[] attributeNames;
+	private int[] attributeNameIds;
+	/** value offset of each attribute, plus a sentinel. */
+	private int[] attributeValueStarts;
+	private byte[] attributeValues;
+	private Map<Integer, String> overflowTags;
+	private int nodeCount;
+
+	private HtmlCompactDocument() {
+	}
+
+	/** freeze a tree.
+	 * 
+	 * @param root
+	 * @return
+	 */
+	public static HtmlCompactDocument freeze(Element root) {
+		return new Builder().build(root);
+	}
+
+	/** root element (node 0).
+	 * 
+	 * @return
+	 */
+	public HtmlCompactElement getRoot() {
+		return new HtmlCompactElement(this, 0);
+	}
+
+	/** number of element and text nodes.
+	 * 
+	 * @return
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/** approximate retained size of the arrays in bytes.
+	 * 
+	 * @return
+	 */
+	public long getEstimatedBytes() {
+		long bytes = tags.length + 4L * (parents.length + ends.length + textStarts.length + attributeStarts.length 
+				+ attributeNameIds.length + attributeValueStarts.length);
+		bytes += text.length + attributeValues.length;
+		for (String name : tagNames) {
+			bytes += name == null ? 0 : 40 + 2 * name.length();
+		}
+		for (String name : attributeNames) {
+			bytes += 40 + 2 * name.length();
+		}
+		return bytes;
+	}
+
+	/** rebuild a mutable HtmlElement tree.
+	 * 
+	 * @return
+	 */
+	public HtmlElement thaw() {
+		return thaw(0);
+	}
+
+	HtmlElement thaw(int node) {
+		String tag = getTag(node);
+		HtmlElement element = HtmlFactory.createDefaultElementFromTag(tag);
+		if (element == null) {
+			element = new HtmlGeneric(tag);
+		}
+		for (int a = attributeStarts[node]; a < attributeStarts[node + 1]; a++) {
+			element.addAttribute(new Attribute(attributeNames[attributeNameIds[a]], getAttributeValue(a)));
+		}
+		for (int child = node + 1; child < ends[node]; child = ends[child]) {
+			if (isText(child)) {
+				element.appendChild(getValue(child));
+			} else {
+				element.appendChild(thaw(child));
+			}
+		}
+		return element;
+	}
+
+	boolean isText(int node) {
+		return (tags[node] & 0xFF) == TEXT;
+	}
+
+	String getTag(int node) {
+		int id = tags[node] & 0xFF;
+		return id == OVERFLOW ? overflowTags.get(node) : tagNames[id];
+	}
+
+	int getParent(int node) {
+		return parents[node];
+	}
+
+	/** first node after the subtree of node. */
+	int getEnd(int node) {
+		return ends[node];
+	}
+
+	String getValue(int node) {
+		int start = textStarts[node];
+		return new String(text, start, textStarts[ends[node]] - start, StandardCharsets.UTF_8);
+	}
+
+	String getAttributeValue(int node, String name) {
+		for (int a = attributeStarts[node]; a < attributeStarts[node + 1]; a++) {
+			if (attributeNames[attributeNameIds[a]].equals(name)) {
+				return getAttributeValue(a);
+			}
+		}
+		return null;
+	}
+
+	int getAttributeCount(int node) {
+		return attributeStarts[node + 1] - attributeStarts[node];
+	}
+
+	String getAttributeName(int node, int i) {
+		return attributeNames[attributeNameIds[attributeStarts[node] + i]];
+	}
+
+	String getAttributeValue(int node, int i) {
+		return getAttributeValue(attributeStarts[node] + i);
+	}
+
+	private String getAttributeValue(int a) {
+		int start = attributeValueStarts[a];
+		return new String(attributeValues, start, attributeValueStarts[a + 1] - start, StandardCharsets.UTF_8);
+	}
+
+	/** one pass over the XOM tree, growing arrays as needed. */
+	private static class Builder {
+		private HtmlCompactDocument doc = new HtmlCompactDocument();
+		private Map<String, Integer> tagIds = new HashMap<String, Integer>();
+		private List<String> tagNames = new ArrayList<String>();
+		private Map<String, Integer> attributeIds = new HashMap<String, Integer>();
+		private List<String> attributeNames = new ArrayList<String>();
+		private byte[] tags = new byte[256];
+		private int[] parents = new int[256];
+		private int[] ends = new int[256];
+		private int[] textStarts = new int[256];
+		private int[] attributeStarts = new int[256];
+		private ByteArrayOutputStream text = new ByteArrayOutputStream();
+		private int[] attributeNameIds = new int[64];
+		private int[] attributeValueStarts = new int[64];
+		private ByteArrayOutputStream attributeValues = new ByteArrayOutputStream();
+		private int nodeCount;
+		private int attributeCount;
+
+		Builder() {
+			tagNames.add(null);
+			doc.overflowTags = new HashMap<Integer, String>();
+		}
+
+		HtmlCompactDocument build(Element root) {
+			addElement(root, -1);
+			ensureNodeCapacity(nodeCount + 1);
+			textStarts[nodeCount] = text.size();
+			attributeStarts[nodeCount] = attributeCount;
+			ensureAttributeCapacity(attributeCount + 1);
+			attributeValueStarts[attributeCount] = attributeValues.size();
+			doc.nodeCount = nodeCount;
+			doc.tagNames = tagNames.toArray(new String[0]);
+			doc.tags = Arrays.copyOf(tags, nodeCount);
+			doc.parents = Arrays.copyOf(parents, nodeCount);
+			doc.ends = Arrays.copyOf(ends, nodeCount + 1);
+			doc.ends[nodeCount] = nodeCount;
+			doc.textStarts = Arrays.copyOf(textStarts, nodeCount + 1);
+			doc.text = text.toByteArray();
+			doc.attributeStarts = Arrays.copyOf(attributeStarts, nodeCount + 1);
+			doc.attributeNames = attributeNames.toArray(new String[0]);
+			doc.attributeNameIds = Arrays.copyOf(attributeNameIds, attributeCount);
+			doc.attributeValueStarts = Arrays.copyOf(attributeValueStarts, attributeCount + 1);
+			doc.attributeValues = attributeValues.toByteArray();
+			if (doc.overflowTags.isEmpty()) {
+				doc.overflowTags = null;
+			}
+			return doc;
+		}
+
+		private void addElement(Element element, int parent) {
+			int node = startNode(parent);
+			tags[node] = (byte) tagId(element.getLocalName(), node);
+			for (int i = 0; i < element.getAttributeCount(); i++) {
+				Attribute attribute = element.getAttribute(i);
+				ensureAttributeCapacity(attributeCount + 1);
+				attributeNameIds[attributeCount] = attributeId(attribute.getLocalName());
+				attributeValueStarts[attributeCount] = attributeValues.size();
+				append(attributeValues, attribute.getValue());
+				attributeCount++;
+			}
+			for (int i = 0; i < element.getChildCount(); i++) {
+				Node child = element.getChild(i);
+				if (child instanceof Element) {
+					addElement((Element) child, node);
+				} else if (child instanceof Text) {
+					int textNode = startNode(node);
+					tags[textNode] = TEXT;
+					append(text, child.getValue());
+					ends[textNode] = nodeCount;
+				}
+			}
+			ends[node] = nodeCount;
+		}
+
+		private int startNode(int parent) {
+			ensureNodeCapacity(nodeCount + 1);
+			int node = nodeCount++;
+			parents[node] = parent;
+			textStarts[node] = text.size();
+			attributeStarts[node] = attributeCount;
+			return node;
+		}
+
+		private static void append(ByteArrayOutputStream baos, String s) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			baos.write(bytes, 0, bytes.length);
+		}
+
+		private int tagId(String tag, int node) {
+			Integer id = tagIds.get(tag);
+			if (id == null) {
+				if (tagNames.size() == OVERFLOW) {
+					doc.overflowTags.put(node, tag);
+					return OVERFLOW;
+				}
+				id = tagNames.size();
+				tagNames.add(tag);
+				tagIds.put(tag, id);
+			}
+			return id;
+		}
+
+		private int attributeId(String name) {
+			Integer id = attributeIds.get(name);
+			if (id == null) {
+				id = attributeNames.size();
+				attributeNames.add(name);
+				attributeIds.put(name, id);
+			}
+			return id;
+		}
+
+		private void ensureNodeCapacity(int capacity) {
+			if (capacity > parents.length) {
+				int length = Math.max(capacity, 2 * parents.length);
+				tags = Arrays.copyOf(tags, length);
+				parents = Arrays.copyOf(parents, length);
+				ends = Arrays.copyOf(ends, length);
+				textStarts = Arrays.copyOf(textStarts, length);
+				attributeStarts = Arrays.copyOf(attributeStarts, length);
+			}
+		}
+
+		private void ensureAttributeCapacity(int capacity) {
+			if (capacity > attributeNameIds.length) {
+				int length = Math.max(capacity, 2 * attributeNameIds.length);
+				attributeNameIds = Arrays.copyOf(attributeNameIds, length);
+				attributeValueStarts = Arrays.copyOf(attributeValueStarts, length);
+			}
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package org.xmlcml.html;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** read-only view of one element in an HtmlCompactDocument.
+ * 
+ * mirrors the read methods of HtmlElement (and of HtmlTable/HtmlTr for tables) 
+ * so that code reading cached documents changes little. Two views of the same node are equal.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlCompactElement {
+
+	private final HtmlCompactDocument doc;
+	private final int node;
+
+	HtmlCompactElement(HtmlCompactDocument doc, int node) {
+		this.doc = doc;
+		this.node = node;
+	}
+
+	public HtmlCompactDocument getDocument() {
+		return doc;
+	}
+
+	public String getLocalName() {
+		return doc.getTag(node);
+	}
+
+	/** concatenated text of this element (as XOM getValue()).
+	 * 
+	 * @return
+	 */
+	public String getValue() {
+		return doc.getValue(node);
+	}
+
+	public String getAttributeValue(String name) {
+		return doc.getAttributeValue(node, name);
+	}
+
+	public int getAttributeCount() {
+		return doc.getAttributeCount(node);
+	}
+
+	public String getAttributeName(int i) {
+		return doc.getAttributeName(node, i);
+	}
+
+	public String getAttributeValue(int i) {
+		return doc.getAttributeValue(node, i);
+	}
+
+	public String getId() {
+		return getAttributeValue("id");
+	}
+
+	public String getClassAttribute() {
+		return getAttributeValue("class");
+	}
+
+	/** 
+	 * @return null for the root
+	 */
+	public HtmlCompactElement getParent() {
+		int parent = doc.getParent(node);
+		return parent < 0 ? null : new HtmlCompactElement(doc, parent);
+	}
+
+	/** child elements (text is skipped).
+	 * 
+	 * @return
+	 */
+	public List<HtmlCompactElement> getChildElements() {
+		return children(null);
+	}
+
+	/** child elements with tag.
+	 * 
+	 * @param tag null for all
+	 * @return
+	 */
+	public List<HtmlCompactElement> children(String tag) {
+		List<HtmlCompactElement> children = new ArrayList<HtmlCompactElement>();
+		for (int child = node + 1; child < doc.getEnd(node); child = doc.getEnd(child)) {
+			if (matches(child, tag)) {
+				children.add(new HtmlCompactElement(doc, child));
+			}
+		}
+		return children;
+	}
+
+	/** descendant elements with tag in document order (not including this).
+	 * 
+	 * a linear scan of the node arrays.
+	 * 
+	 * @param tag null for all
+	 * @return
+	 */
+	public List<HtmlCompactElement> descendants(String tag) {
+		List<HtmlCompactElement> descendants = new ArrayList<HtmlCompactElement>();
+		int end = doc.getEnd(node);
+		for (int d = node + 1; d < end; d++) {
+			if (matches(d, tag)) {
+				descendants.add(new HtmlCompactElement(doc, d));
+			}
+		}
+		return descendants;
+	}
+
+	private boolean matches(int n, String tag) {
+		return !doc.isText(n) && (tag == null || tag.equals(doc.getTag(n)));
+	}
+
+	/** HtmlTable.getRows(): tr children of the table or of its tbody (thead/tfoot excluded).
+	 * 
+	 * @return
+	 */
+	public List<HtmlCompactElement> getRows() {
+		List<HtmlCompactElement> tbodys = children(HtmlTbody.TAG);
+		return tbodys.size() == 1 ? tbodys.get(0).children(HtmlTr.TAG) : children(HtmlTr.TAG);
+	}
+
+	/** HtmlTr.getTdCellValues().
+	 * 
+	 * @return
+	 */
+	public List<String> getTdCellValues() {
+		return getCellValues(HtmlTd.TAG);
+	}
+
+	/** HtmlTr.getThCellValues().
+	 * 
+	 * @return
+	 */
+	public List<String> getThCellValues() {
+		return getCellValues(HtmlTh.TAG);
+	}
+
+	private List<String> getCellValues(String tag) {
+		List<String> values = new ArrayList<String>();
+		for (int child = node + 1; child < doc.getEnd(node); child = doc.getEnd(child)) {
+			if (matches(child, tag)) {
+				values.add(doc.getValue(child));
+			}
+		}
+		return values;
+	}
+
+	/** HtmlTr.getTd(col).
+	 * 
+	 * @param col
+	 * @return null if none
+	 */
+	public HtmlCompactElement getTd(int col) {
+		return getCell(HtmlTd.TAG, col);
+	}
+
+	/** HtmlTr.getTh(col).
+	 * 
+	 * @param col
+	 * @return null if none
+	 */
+	public HtmlCompactElement getTh(int col) {
+		return getCell(HtmlTh.TAG, col);
+	}
+
+	private HtmlCompactElement getCell(String tag, int col) {
+		if (col >= 0) {
+			for (int child = node + 1; child < doc.getEnd(node); child = doc.getEnd(child)) {
+				if (matches(child, tag) && col-- == 0) {
+					return new HtmlCompactElement(doc, child);
+				}
+			}
+		}
+		return null;
+	}
+
+	/** mutable copy of this subtree.
+	 * 
+	 * e.g. ((HtmlTable) element.thaw()).toGrid()
+	 * 
+	 * @return
+	 */
+	public HtmlElement thaw() {
+		return doc.thaw(node);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof HtmlCompactElement && ((HtmlCompactElement) obj).doc == doc && ((HtmlCompactElement) obj).node == node;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(doc) * 31 + node;
+	}
+
+	@Override
+	public String toString() {
+		return "<"+getLocalName()+"> #"+node;
+	}
+}
@@ -0,0 +1,172 @@
+package org.xmlcml.html;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** opt-in index of an HtmlElement tree by tag, id and class.
+ * 
+ * <pre>
+ * HtmlDocumentIndex index = root.attachIndex();
+ * List&lt;HtmlElement&gt; tds = index.getElementsByTag("td");
+ * HtmlElement fig1 = root.getElementById("fig1");
+ * </pre>
+ * the maps are built in a single traversal on first use and rebuilt lazily after the tree
+ * is changed through the HtmlElement/XOM mutators (insert, append, remove, replace children;
+ * add or remove id/class attributes; rename). Changes made without going through an HtmlElement 
+ * (e.g. Attribute.setValue(), or mutating a plain nu.xom.Element in the tree) are not seen; call 
+ * invalidate() after them.
+ * 
+ * elements know whether they are in an indexed tree (updated on attach, detach, insert and remove):
+ * a mutation there walks up to the root to invalidate indexes, so detach indexes that are no
+ * longer needed. Elements in trees with no index, such as documents being built, pay only a flag
+ * check, however many other documents are indexed.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlDocumentIndex {
+
+	private static final String CLASS = "class";
+	private static final String ID = "id";
+
+	private HtmlElement root;
+	private volatile boolean valid;
+	private Map<String, List<HtmlElement>> elementsByTag;
+	private Map<String, List<HtmlElement>> elementsById;
+	private Map<String, List<HtmlElement>> elementsByClass;
+
+	HtmlDocumentIndex(HtmlElement root) {
+		this.root = root;
+		this.valid = false;
+	}
+
+	/** whether a change to this attribute can affect an index.
+	 * 
+	 * @param attName
+	 * @return
+	 */
+	static boolean isIndexedAttribute(String attName) {
+		return ID.equals(attName) || CLASS.equals(attName);
+	}
+
+	public HtmlElement getRoot() {
+		return root;
+	}
+
+	/** mark as stale; rebuilt on next use.
+	 */
+	public void invalidate() {
+		valid = false;
+	}
+
+	public boolean isValid() {
+		return valid;
+	}
+
+	/** root and descendants with tag, in document order.
+	 * 
+	 * @param tag local name (lowercased)
+	 * @return unmodifiable list (empty if none)
+	 */
+	public List<HtmlElement> getElementsByTag(String tag) {
+		ensureValid();
+		List<HtmlElement> elements = elementsByTag.get(tag.toLowerCase());
+		return elements == null ? Collections.<HtmlElement>emptyList() : elements;
+	}
+
+	/** first element (in document order) with id.
+	 * 
+	 * @param id
+	 * @return null if none
+	 */
+	public HtmlElement getElementById(String id) {
+		List<HtmlElement> elements = getElementsById(id);
+		return elements.isEmpty() ? null : elements.get(0);
+	}
+
+	/** all elements with id (more than one only in invalid documents).
+	 * 
+	 * @param id
+	 * @return unmodifiable list in document order (empty if none)
+	 */
+	public List<HtmlElement> getElementsById(String id) {
+		ensureValid();
+		List<HtmlElement> elements = elementsById.get(id);
+		return elements == null ? Collections.<HtmlElement>emptyList() : elements;
+	}
+
+	/** elements whose class attribute contains the token.
+	 * 
+	 * @param classToken single class name
+	 * @return unmodifiable list in document order (empty if none)
+	 */
+	public List<HtmlElement> getElementsByClass(String classToken) {
+		ensureValid();
+		List<HtmlElement> elements = elementsByClass.get(classToken);
+		return elements == null ? Collections.<HtmlElement>emptyList() : elements;
+	}
+
+	private void ensureValid() {
+		if (!valid) {
+			synchronized (this) {
+				if (!valid) {
+					build();
+					valid = true;
+				}
+			}
+		}
+	}
+
+	private void build() {
+		Map<String, List<HtmlElement>> byTag = new HashMap<String, List<HtmlElement>>();
+		Map<String, List<HtmlElement>> byId = new HashMap<String, List<HtmlElement>>();
+		Map<String, List<HtmlElement>> byClass = new HashMap<String, List<HtmlElement>>();
+		add(root, byTag, byId, byClass);
+		for (HtmlElement element : root.descendants(HtmlElement.class)) {
+			add(element, byTag, byId, byClass);
+		}
+		elementsByTag = freeze(byTag);
+		elementsById = freeze(byId);
+		elementsByClass = freeze(byClass);
+	}
+
+	private static void add(HtmlElement element, Map<String, List<HtmlElement>> byTag,
+			Map<String, List<HtmlElement>> byId, Map<String, List<HtmlElement>> byClass) {
+		addToList(byTag, element.getLocalName(), element);
+		String id = element.getAttributeValue(ID);
+		if (id != null) {
+			addToList(byId, id, element);
+		}
+		String classValue = element.getAttributeValue(CLASS);
+		if (classValue != null) {
+			for (String token : classValue.trim().split("\\s+")) {
+				if (token.length() > 0) {
+					List<HtmlElement> list = byClass.get(token);
+					// class="a a" lists the element once
+					if (list == null || list.get(list.size() - 1) != element) {
+						addToList(byClass, token, element);
+					}
+				}
+			}
+		}
+	}
+
+	private static void addToList(Map<String, List<HtmlElement>> map, String key, HtmlElement element) {
+		List<HtmlElement> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<HtmlElement>();
+			map.put(key, list);
+		}
+		list.add(element);
+	}
+
+	private static Map<String, List<HtmlElement>> freeze(Map<String, List<HtmlElement>> map) {
+		for (Map.Entry<String, List<HtmlElement>> entry : map.entrySet()) {
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+		return map;
+	}
+}
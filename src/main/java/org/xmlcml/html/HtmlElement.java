@@ -20,12 +20,17 @@ import java.io.IOException;
 
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import org.apache.log4j.Logger;
 import org.xmlcml.graphics.svg.StyleBundle;
+import org.xmlcml.html.util.HtmlSelector;
 import org.xmlcml.xml.XMLConstants;
 import org.xmlcml.xml.XMLUtil;
 
@@ -141,6 +146,10 @@ public abstract class HtmlElement extends Element implements XMLConstants {
 
 	private final static Logger LOG = Logger.getLogger(HtmlElement.class);
 
+	private HtmlDocumentIndex documentIndex;
+	/** this element or an ancestor has an index; only such elements invalidate on change */
+	private boolean inIndexedTree;
+
 	private static final String CLASS = "class";
 	private static final String ID = "id";
 	private static final String NAME = "name";
@@ -255,6 +264,57 @@ public abstract class HtmlElement extends Element implements XMLConstants {
 			TAGSET.add(tag);
 		}
 	};
+
+	/** tag (lowercase) to constructor for create(); a subset of the HtmlFactory table, plus script.
+	 */
+	private static final Map<String, Supplier<HtmlElement>> CREATE_SUPPLIER_MAP;
+	static {
+		CREATE_SUPPLIER_MAP = new HashMap<String, Supplier<HtmlElement>>();
+		addCreateSupplier(HtmlA.TAG, HtmlA::new);
+		addCreateSupplier(HtmlB.TAG, HtmlB::new);
+		addCreateSupplier(HtmlBig.TAG, HtmlBig::new);
+		addCreateSupplier(HtmlBody.TAG, HtmlBody::new);
+		addCreateSupplier(HtmlBr.TAG, HtmlBr::new);
+		addCreateSupplier(HtmlCaption.TAG, HtmlCaption::new);
+		addCreateSupplier(HtmlDiv.TAG, HtmlDiv::new);
+		addCreateSupplier(HtmlEm.TAG, HtmlEm::new);
+		addCreateSupplier(HtmlFrame.TAG, HtmlFrame::new);
+		addCreateSupplier(HtmlFrameset.TAG, HtmlFrameset::new);
+		addCreateSupplier(HtmlH1.TAG, HtmlH1::new);
+		addCreateSupplier(HtmlH2.TAG, HtmlH2::new);
+		addCreateSupplier(HtmlH3.TAG, HtmlH3::new);
+		addCreateSupplier(HtmlHead.TAG, HtmlHead::new);
+		addCreateSupplier(HtmlHr.TAG, HtmlHr::new);
+		addCreateSupplier(HtmlHtml.TAG, HtmlHtml::new);
+		addCreateSupplier(HtmlI.TAG, HtmlI::new);
+		addCreateSupplier(HtmlImg.TAG, HtmlImg::new);
+		addCreateSupplier(HtmlLi.TAG, HtmlLi::new);
+		addCreateSupplier(HtmlLink.TAG, HtmlLink::new);
+		addCreateSupplier(HtmlMeta.TAG, HtmlMeta::new);
+		addCreateSupplier(HtmlOl.TAG, HtmlOl::new);
+		addCreateSupplier(HtmlP.TAG, HtmlP::new);
+		addCreateSupplier(HtmlS.TAG, HtmlS::new);
+		addCreateSupplier(HtmlScript.TAG, HtmlScript::new);
+		addCreateSupplier(HtmlSmall.TAG, HtmlSmall::new);
+		addCreateSupplier(HtmlSpan.TAG, HtmlSpan::new);
+		addCreateSupplier(HtmlStrong.TAG, HtmlStrong::new);
+		addCreateSupplier(HtmlStyle.TAG, HtmlStyle::new);
+		addCreateSupplier(HtmlSub.TAG, HtmlSub::new);
+		addCreateSupplier(HtmlSup.TAG, HtmlSup::new);
+		addCreateSupplier(HtmlTable.TAG, HtmlTable::new);
+		addCreateSupplier(HtmlTbody.TAG, HtmlTbody::new);
+		addCreateSupplier(HtmlTd.TAG, HtmlTd::new);
+		addCreateSupplier(HtmlTfoot.TAG, HtmlTfoot::new);
+		addCreateSupplier(HtmlTh.TAG, HtmlTh::new);
+		addCreateSupplier(HtmlThead.TAG, HtmlThead::new);
+		addCreateSupplier(HtmlTr.TAG, HtmlTr::new);
+		addCreateSupplier(HtmlTt.TAG, HtmlTt::new);
+		addCreateSupplier(HtmlUl.TAG, HtmlUl::new);
+	}
+
+	private static void addCreateSupplier(String tag, Supplier<HtmlElement> supplier) {
+		CREATE_SUPPLIER_MAP.put(tag.toLowerCase(), supplier);
+	}
 	
 	public enum Target {
 		bottom,
@@ -271,6 +331,224 @@ public abstract class HtmlElement extends Element implements XMLConstants {
 		super(name, XHTML_NS);
 	}
 
+	/** index this element and its descendants by tag, id and class (see HtmlDocumentIndex).
+	 * 
+	 * @return the (new or existing) index
+	 */
+	public HtmlDocumentIndex attachIndex() {
+		if (documentIndex == null) {
+			documentIndex = new HtmlDocumentIndex(this);
+			markIndexedTree(this);
+		}
+		return documentIndex;
+	}
+
+	/** remove index so that mutations no longer need to maintain it.
+	 */
+	public void detachIndex() {
+		if (documentIndex != null) {
+			documentIndex = null;
+			markIndexedTree(this);
+		}
+	}
+
+	/** 
+	 * @return null if attachIndex() has not been called
+	 */
+	public HtmlDocumentIndex getDocumentIndex() {
+		return documentIndex;
+	}
+
+	/** first element in this subtree (including this) with id.
+	 * 
+	 * uses the index if attached here, else walks the tree.
+	 * 
+	 * @param id
+	 * @return null if none
+	 */
+	public HtmlElement getElementById(String id) {
+		if (documentIndex != null) {
+			return documentIndex.getElementById(id);
+		}
+		if (id.equals(getId())) {
+			return this;
+		}
+		for (HtmlElement element : descendants(HtmlElement.class)) {
+			if (id.equals(element.getId())) {
+				return element;
+			}
+		}
+		return null;
+	}
+
+	/** elements in this subtree (including this) whose class attribute contains classToken.
+	 * 
+	 * uses the index if attached here, else walks the tree.
+	 * 
+	 * @param classToken
+	 * @return elements in document order
+	 */
+	public List<HtmlElement> getElementsByClass(String classToken) {
+		if (documentIndex != null) {
+			return documentIndex.getElementsByClass(classToken);
+		}
+		List<HtmlElement> elements = new ArrayList<HtmlElement>();
+		if (hasClass(this, classToken)) {
+			elements.add(this);
+		}
+		for (HtmlElement element : descendants(HtmlElement.class)) {
+			if (hasClass(element, classToken)) {
+				elements.add(element);
+			}
+		}
+		return elements;
+	}
+
+	/** elements in this subtree (including this) matching a CSS selector.
+	 * 
+	 * e.g. "table > tbody tr:has(th)"; see HtmlSelector for the supported subset.
+	 * the selector is compiled once and cached.
+	 * 
+	 * @param cssSelector
+	 * @return elements in document order
+	 */
+	public List<HtmlElement> select(String cssSelector) {
+		return HtmlSelector.compile(cssSelector).select(this);
+	}
+
+	/** first element in this subtree (including this) matching a CSS selector.
+	 * 
+	 * @param cssSelector
+	 * @return null if none
+	 */
+	public HtmlElement selectFirst(String cssSelector) {
+		return HtmlSelector.compile(cssSelector).first(this);
+	}
+
+	private static boolean hasClass(HtmlElement element, String classToken) {
+		String classValue = element.getClassAttribute();
+		if (classValue == null) {
+			return false;
+		}
+		for (String token : classValue.trim().split("\\s+")) {
+			if (token.equals(classToken)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** recompute inIndexedTree for top and its descendants (parents come before children).
+	 */
+	private static void markIndexedTree(HtmlElement top) {
+		top.inIndexedTree = top.documentIndex != null || isInIndexedTree(top.getParent());
+		for (HtmlElement element : top.descendants(HtmlElement.class)) {
+			element.inIndexedTree = element.documentIndex != null || isInIndexedTree(element.getParent());
+		}
+	}
+
+	/** whether the nearest HtmlElement at or above node is in an indexed tree. */
+	private static boolean isInIndexedTree(Node node) {
+		while (node != null && !(node instanceof HtmlElement)) {
+			node = node.getParent();
+		}
+		return node != null && ((HtmlElement) node).inIndexedTree;
+	}
+
+	/** after child is added to or removed from this element. */
+	private static void childMoved(Node child) {
+		if (child instanceof HtmlElement) {
+			HtmlElement element = (HtmlElement) child;
+			// trees being built are not indexed, so this is only a flag check
+			if (element.inIndexedTree || isInIndexedTree(element.getParent())) {
+				markIndexedTree(element);
+			}
+		}
+	}
+
+	/** invalidate indexes on this element and its ancestors after a structural change.
+	 * 
+	 * only elements in an indexed tree need to walk up; others (e.g. documents being built)
+	 * return at once.
+	 */
+	private void indexChanged() {
+		if (!inIndexedTree) {
+			return;
+		}
+		for (Node node = this; node != null; node = node.getParent()) {
+			if (node instanceof HtmlElement) {
+				HtmlDocumentIndex index = ((HtmlElement) node).documentIndex;
+				if (index != null) {
+					index.invalidate();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void insertChild(Node child, int position) {
+		super.insertChild(child, position);
+		childMoved(child);
+		indexChanged();
+	}
+
+	@Override
+	public Node removeChild(int position) {
+		Node node = super.removeChild(position);
+		childMoved(node);
+		indexChanged();
+		return node;
+	}
+
+	@Override
+	public Node removeChild(Node child) {
+		Node node = super.removeChild(child);
+		childMoved(node);
+		indexChanged();
+		return node;
+	}
+
+	@Override
+	public void replaceChild(Node oldChild, Node newChild) {
+		super.replaceChild(oldChild, newChild);
+		childMoved(oldChild);
+		childMoved(newChild);
+		indexChanged();
+	}
+
+	@Override
+	public Nodes removeChildren() {
+		Nodes nodes = super.removeChildren();
+		for (int i = 0; i < nodes.size(); i++) {
+			childMoved(nodes.get(i));
+		}
+		indexChanged();
+		return nodes;
+	}
+
+	@Override
+	public void addAttribute(Attribute attribute) {
+		super.addAttribute(attribute);
+		if (HtmlDocumentIndex.isIndexedAttribute(attribute.getLocalName())) {
+			indexChanged();
+		}
+	}
+
+	@Override
+	public Attribute removeAttribute(Attribute attribute) {
+		Attribute removed = super.removeAttribute(attribute);
+		if (HtmlDocumentIndex.isIndexedAttribute(attribute.getLocalName())) {
+			indexChanged();
+		}
+		return removed;
+	}
+
+	@Override
+	public void setLocalName(String localName) {
+		super.setLocalName(localName);
+		indexChanged();
+	}
+
 	/** creates subclassed elements.
 	 * 
 	 * fails on error.
@@ -304,86 +582,8 @@ public abstract class HtmlElement extends Element implements XMLConstants {
 			}
 			LOG.trace("Unknown namespace: "+namespaceURI);
 			htmlElement = addUnknownTag(namespaceURI,tag);
-		} else if(HtmlA.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlA();
-		} else if(HtmlB.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlB();
-		} else if(HtmlBig.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlBig();
-		} else if(HtmlBody.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlBody();
-		} else if(HtmlBr.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlBr();
-		} else if(HtmlCaption.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlCaption();
-		} else if(HtmlDiv.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlDiv();
-		} else if(HtmlEm.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlEm();
-		} else if(HtmlFrame.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlFrame();
-		} else if(HtmlFrameset.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlFrameset();
-		} else if(HtmlH1.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlH1();
-		} else if(HtmlH2.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlH2();
-		} else if(HtmlH3.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlH3();
-		} else if(HtmlHead.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlHead();
-		} else if(HtmlHr.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlHr();
-		} else if(HtmlHtml.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlHtml();
-		} else if(HtmlI.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlI();
-		} else if(HtmlImg.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlImg();
-		} else if(HtmlLi.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlLi();
-		} else if(HtmlLink.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlLink();
-		} else if(HtmlMeta.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlMeta();
-		} else if(HtmlOl.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlOl();
-		} else if(HtmlP.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlP();
-		} else if(HtmlS.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlS();
-		} else if(HtmlScript.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlScript();
-		} else if(HtmlSmall.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlSmall();
-		} else if(HtmlSpan.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlSpan();
-		} else if(HtmlStrong.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlStrong();
-		} else if(HtmlStyle.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlStyle();
-		} else if(HtmlSub.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlSub();
-		} else if(HtmlSup.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlSup();
-		} else if(HtmlTable.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTable();
-		} else if(HtmlTbody.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTbody();
-		} else if(HtmlTfoot.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTfoot();
-		} else if(HtmlThead.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlThead();
-		} else if(HtmlTd.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTd();
-		} else if(HtmlTh.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTh();
-		} else if(HtmlTr.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTr();
-		} else if(HtmlTt.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTt();
-		} else if(HtmlUl.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlUl();
+		} else if (CREATE_SUPPLIER_MAP.containsKey(tag.toLowerCase())) {
+			htmlElement = CREATE_SUPPLIER_MAP.get(tag.toLowerCase()).get();
 		} else if (TAGSET.contains(tag.toUpperCase())) {
 			htmlElement = new HtmlGeneric(tag.toLowerCase());
 		} else {
@@ -490,35 +690,75 @@ public abstract class HtmlElement extends Element implements XMLConstants {
 		this.addAttribute(new Attribute(TITLE, title));
 	}
 
+	/** descendants of a given class, lazily and in document order (not including this).
+	 * 
+	 * walks the tree directly; no XPath.
+	 * 
+	 * @param clazz e.g. HtmlTd.class
+	 * @return
+	 */
+	public <T extends HtmlElement> HtmlElementIterable<T> descendants(Class<T> clazz) {
+		return new HtmlElementIterable<T>(this, true, clazz, null);
+	}
+
+	/** descendants with a given tag, lazily and in document order (not including this).
+	 * 
+	 * @param tag local name (lowercased)
+	 * @return
+	 */
+	public HtmlElementIterable<HtmlElement> descendants(String tag) {
+		return new HtmlElementIterable<HtmlElement>(this, true, HtmlElement.class, tagPredicate(tag));
+	}
+
+	/** child elements of a given class, lazily.
+	 * 
+	 * @param clazz
+	 * @return
+	 */
+	public <T extends HtmlElement> HtmlElementIterable<T> children(Class<T> clazz) {
+		return new HtmlElementIterable<T>(this, false, clazz, null);
+	}
+
+	/** child elements with a given tag, lazily.
+	 * 
+	 * @param tag local name (lowercased)
+	 * @return
+	 */
+	public HtmlElementIterable<HtmlElement> children(String tag) {
+		return new HtmlElementIterable<HtmlElement>(this, false, HtmlElement.class, tagPredicate(tag));
+	}
+
+	private static Predicate<HtmlElement> tagPredicate(String tag) {
+		final String localName = tag.toLowerCase();
+		return element -> localName.equals(element.getLocalName());
+	}
+
+	/** descendants with tag (despite the name, does not include root).
+	 * 
+	 * @param root
+	 * @param tag
+	 * @return
+	 */
 	public static List<HtmlElement> getSelfOrDescendants(HtmlElement root, String tag) {
-		tag = tag.toLowerCase();
-		String xpath = ".//*[local-name()='"+tag+"']";
-		Nodes nodes = root.query(xpath);
-		List<HtmlElement> elements = new ArrayList<HtmlElement>();
-		for (int i = 0; i < nodes.size(); i++) {
-			elements.add((HtmlElement)nodes.get(i));
+		if (root.documentIndex != null) {
+			List<HtmlElement> elements = root.documentIndex.getElementsByTag(tag);
+			// index includes root
+			return elements.size() > 0 && elements.get(0) == root ?
+					new ArrayList<HtmlElement>(elements.subList(1, elements.size())) : new ArrayList<HtmlElement>(elements);
 		}
-		return elements;
+		return root.descendants(tag).toList();
 	}
 
 	public static HtmlElement getSingleSelfOrDescendant(HtmlElement root, String tag) {
-		List<HtmlElement> elements = getSelfOrDescendants(root, tag);
-		return (elements.size() != 1) ? null : elements.get(0);
+		return root.descendants(tag).single();
 	}
 
 	public static List<HtmlElement> getChildElements(HtmlElement root, String tag) {
-		tag = tag.toLowerCase();
-		Nodes nodes = root.query("./*[local-name()='"+tag+"']");
-		List<HtmlElement> elements = new ArrayList<HtmlElement>();
-		for (int i = 0; i < nodes.size(); i++) {
-			elements.add((HtmlElement)nodes.get(i));
-		}
-		return elements;
+		return root.children(tag).toList();
 	}
 
 	public static HtmlElement getSingleChildElement(HtmlElement root, String tag) {
-		List<HtmlElement> elements = getChildElements(root, tag);
-		return (elements.size() != 1) ? null : elements.get(0);
+		return root.children(tag).single();
 	}
 
 	private void setAttributeOrRemoveIfNull(String attName, String attVal) {
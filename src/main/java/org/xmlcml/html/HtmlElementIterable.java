@@ -0,0 +1,133 @@
+package org.xmlcml.html;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import nu.xom.Node;
+
+/** lazy walk over the children or descendants of an element, selecting HtmlElements.
+ * 
+ * created by HtmlElement.children() and descendants(). Elements are visited in document order
+ * without XPath; nothing is computed until iteration. Each call to iterator() starts a new walk. 
+ * The tree must not be changed while iterating (use toList() first).
+ * 
+ * @author pm286
+ *
+ * @param <T> type of selected elements
+ */
+public class HtmlElementIterable<T extends HtmlElement> implements Iterable<T> {
+
+	private HtmlElement root;
+	private boolean descendants;
+	private Class<T> clazz;
+	private Predicate<HtmlElement> predicate;
+
+	HtmlElementIterable(HtmlElement root, boolean descendants, Class<T> clazz, Predicate<HtmlElement> predicate) {
+		this.root = root;
+		this.descendants = descendants;
+		this.clazz = clazz;
+		this.predicate = predicate;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new WalkIterator();
+	}
+
+	public Stream<T> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	public List<T> toList() {
+		List<T> list = new ArrayList<T>();
+		for (T t : this) {
+			list.add(t);
+		}
+		return list;
+	}
+
+	/** first selected element.
+	 * 
+	 * @return null if none
+	 */
+	public T first() {
+		Iterator<T> iterator = iterator();
+		return iterator.hasNext() ? iterator.next() : null;
+	}
+
+	/** the only selected element.
+	 * 
+	 * @return null if none or more than one
+	 */
+	public T single() {
+		Iterator<T> iterator = iterator();
+		if (!iterator.hasNext()) {
+			return null;
+		}
+		T t = iterator.next();
+		return iterator.hasNext() ? null : t;
+	}
+
+	private boolean accept(Node node) {
+		return clazz.isInstance(node) && (predicate == null || predicate.test((HtmlElement) node));
+	}
+
+	/** preorder walk with an explicit stack (deep documents do not recurse).
+	 */
+	private class WalkIterator implements Iterator<T> {
+
+		private List<Node> parents = new ArrayList<Node>();
+		private List<Integer> indexes = new ArrayList<Integer>();
+		private Node parent = root;
+		private int index = 0;
+		private T next;
+
+		@Override
+		public boolean hasNext() {
+			if (next == null) {
+				next = advance();
+			}
+			return next != null;
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T t = next;
+			next = null;
+			return t;
+		}
+
+		private T advance() {
+			while (parent != null) {
+				if (index < parent.getChildCount()) {
+					Node child = parent.getChild(index++);
+					T selected = accept(child) ? clazz.cast(child) : null;
+					if (descendants && child.getChildCount() > 0) {
+						parents.add(parent);
+						indexes.add(index);
+						parent = child;
+						index = 0;
+					}
+					if (selected != null) {
+						return selected;
+					}
+				} else if (parents.isEmpty()) {
+					parent = null;
+				} else {
+					int last = parents.size() - 1;
+					parent = parents.remove(last);
+					index = indexes.remove(last);
+				}
+			}
+			return null;
+		}
+	}
+}
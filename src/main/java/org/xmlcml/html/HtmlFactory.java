@@ -5,23 +5,32 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.Supplier;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.jsoup.Jsoup;
+import org.jsoup.nodes.DataNode;
 import org.jsoup.nodes.Document;
+import org.jsoup.nodes.TextNode;
 import org.xmlcml.graphics.svg.SVGConstants;
 import org.xmlcml.graphics.svg.SVGElement;
+import org.xmlcml.html.util.DiagnosticSink;
+import org.xmlcml.html.util.HtmlCharacterMapper;
+import org.xmlcml.html.util.HtmlEntityDecoder;
+import org.xmlcml.html.util.HtmlInputDecoder;
+import org.xmlcml.html.util.HtmlPreprocessor;
 import org.xmlcml.html.util.HtmlUtil;
 import org.xmlcml.xml.XMLUtil;
 
@@ -34,6 +43,10 @@ import nu.xom.Node;
  * 
  * Allows for customisation of treatment such as substituing unusual or incorrect elements.
  * 
+ * A factory created with new HtmlFactory() and configured with setters is for use by a single 
+ * thread and accumulates diagnostics such as getUnknownTags(). A factory created with
+ * HtmlFactory.builder()...build() has immutable configuration and can be shared between threads;
+ * diagnostics for each parse are collected in an HtmlParseContext.
  * 
  * @author pm286
  *
@@ -189,15 +202,109 @@ public class HtmlFactory {
         for (final CharSequence[] seq : ESCAPES_HTML) 
             lookupMapHTML.put(seq[1].toString(), seq[0]);
     }
+
+	private static final HtmlEntityDecoder XML_ENTITY_DECODER = new HtmlEntityDecoder(lookupMapXML);
+	private static final HtmlEntityDecoder HTML_ENTITY_DECODER = new HtmlEntityDecoder(lookupMapHTML);
+	private static final Map<String, CharSequence> HTML_ENTITY_MAP = Collections.unmodifiableMap(lookupMapHTML);
+	static {
+		HtmlEntityDecoder.registerFixedMap(HTML_ENTITY_MAP, HTML_ENTITY_DECODER);
+	}
+
+	/** named HTML 3.x entities (name to character), not including the XML ones, as decoded after Jsoup serialization.
+	 * 
+	 * @return the same unmodifiable map on every call; HtmlUtil.unescapeHtml3() uses its precompiled decoder
+	 */
+	public static Map<String, CharSequence> getHtmlEntityMap() {
+		return HTML_ENTITY_MAP;
+	}
     
+	/** tag (lowercase) to constructor; built once and shared by all factories
+	 * unless they add their own suppliers.
+	 */
+	private static final Map<String, Supplier<HtmlElement>> DEFAULT_ELEMENT_SUPPLIER_MAP;
+	static {
+		DEFAULT_ELEMENT_SUPPLIER_MAP = new HashMap<String, Supplier<HtmlElement>>();
+		addDefaultElementSupplier(HtmlA.TAG, HtmlA::new);
+		addDefaultElementSupplier(HtmlAbbr.TAG, HtmlAbbr::new);
+		addDefaultElementSupplier(HtmlArticle.TAG, HtmlArticle::new);
+		addDefaultElementSupplier(HtmlB.TAG, HtmlB::new);
+		addDefaultElementSupplier(HtmlBig.TAG, HtmlBig::new);
+		addDefaultElementSupplier(HtmlBlockquote.TAG, HtmlBlockquote::new);
+		addDefaultElementSupplier(HtmlBody.TAG, HtmlBody::new);
+		addDefaultElementSupplier(HtmlBr.TAG, HtmlBr::new);
+		addDefaultElementSupplier(HtmlCaption.TAG, HtmlCaption::new);
+		addDefaultElementSupplier(HtmlCode.TAG, HtmlCode::new);
+		addDefaultElementSupplier(HtmlDd.TAG, HtmlDd::new);
+		addDefaultElementSupplier(HtmlDiv.TAG, HtmlDiv::new);
+		addDefaultElementSupplier(HtmlDl.TAG, HtmlDl::new);
+		addDefaultElementSupplier(HtmlDt.TAG, HtmlDt::new);
+		addDefaultElementSupplier(HtmlEm.TAG, HtmlEm::new);
+		addDefaultElementSupplier(HtmlFigure.TAG, HtmlFigure::new);
+		addDefaultElementSupplier(HtmlFigcaption.TAG, HtmlFigcaption::new);
+		addDefaultElementSupplier(HtmlFooter.TAG, HtmlFooter::new);
+		addDefaultElementSupplier(HtmlFrame.TAG, HtmlFrame::new);
+		addDefaultElementSupplier(HtmlFrameset.TAG, HtmlFrameset::new);
+		addDefaultElementSupplier(HtmlH1.TAG, HtmlH1::new);
+		addDefaultElementSupplier(HtmlH2.TAG, HtmlH2::new);
+		addDefaultElementSupplier(HtmlH3.TAG, HtmlH3::new);
+		addDefaultElementSupplier(HtmlH4.TAG, HtmlH4::new);
+		addDefaultElementSupplier(HtmlH5.TAG, HtmlH5::new);
+		addDefaultElementSupplier(HtmlH6.TAG, HtmlH6::new);
+		addDefaultElementSupplier(HtmlHead.TAG, HtmlHead::new);
+		addDefaultElementSupplier(HtmlHeader.TAG, HtmlHeader::new);
+		addDefaultElementSupplier(HtmlHr.TAG, HtmlHr::new);
+		addDefaultElementSupplier(HtmlHtml.TAG, HtmlHtml::new);
+		addDefaultElementSupplier(HtmlI.TAG, HtmlI::new);
+		addDefaultElementSupplier(HtmlImg.TAG, HtmlImg::new);
+		addDefaultElementSupplier(HtmlLabel.TAG, HtmlLabel::new);
+		addDefaultElementSupplier(HtmlLi.TAG, HtmlLi::new);
+		addDefaultElementSupplier(HtmlLink.TAG, HtmlLink::new);
+		addDefaultElementSupplier(HtmlMeta.TAG, HtmlMeta::new);
+		addDefaultElementSupplier(HtmlNav.TAG, HtmlNav::new);
+		addDefaultElementSupplier(HtmlOl.TAG, HtmlOl::new);
+		addDefaultElementSupplier(HtmlP.TAG, HtmlP::new);
+		addDefaultElementSupplier(HtmlS.TAG, HtmlS::new);
+		addDefaultElementSupplier(HtmlSection.TAG, HtmlSection::new);
+		addDefaultElementSupplier(HtmlSmall.TAG, HtmlSmall::new);
+		addDefaultElementSupplier(HtmlSpan.TAG, HtmlSpan::new);
+		addDefaultElementSupplier(HtmlStrong.TAG, HtmlStrong::new);
+		addDefaultElementSupplier(HtmlStyle.TAG, HtmlStyle::new);
+		addDefaultElementSupplier(HtmlSub.TAG, HtmlSub::new);
+		addDefaultElementSupplier(HtmlSup.TAG, HtmlSup::new);
+		addDefaultElementSupplier(HtmlTable.TAG, HtmlTable::new);
+		addDefaultElementSupplier(HtmlTbody.TAG, HtmlTbody::new);
+		addDefaultElementSupplier(HtmlTfoot.TAG, HtmlTfoot::new);
+		addDefaultElementSupplier(HtmlThead.TAG, HtmlThead::new);
+		addDefaultElementSupplier(HtmlTitle.TAG, HtmlTitle::new);
+		addDefaultElementSupplier(HtmlTd.TAG, HtmlTd::new);
+		addDefaultElementSupplier(HtmlTh.TAG, HtmlTh::new);
+		addDefaultElementSupplier(HtmlTime.TAG, HtmlTime::new);
+		addDefaultElementSupplier(HtmlTr.TAG, HtmlTr::new);
+		addDefaultElementSupplier(HtmlTt.TAG, HtmlTt::new);
+		addDefaultElementSupplier(HtmlUl.TAG, HtmlUl::new);
+	}
+
+	private static final String[] SINGLE_KEYWORDS = {"itemscope"};
+
 	static {
 		DEFAULT_REPLACEMENT_MAP = new HashMap<String, String>();
 		DEFAULT_REPLACEMENT_MAP.put("it", "i"); // italic
 	}
 	
 	private Map<String, String> replacementMap;
+	private Map<String, Supplier<HtmlElement>> elementSupplierMap = DEFAULT_ELEMENT_SUPPLIER_MAP;
 	private boolean stripDoctype = true;
 	private boolean useJsoup = true;
+	private boolean useDirectBuild = false;
+	private boolean usePreprocessor = false;
+	private HtmlPreprocessor preprocessor;
+	/** compiled from this factory's settings on first use; cleared when they change */
+	private HtmlPreprocessor compiledPreprocessor;
+	private DiagnosticSink diagnosticSink;
+	private HtmlParseListener parseListener;
+	private HtmlSymbolTable symbolTable = HtmlSymbolTable.getDefault();
+	private HtmlCharacterMapper characterMapper = HtmlCharacterMapper.getDefault();
+	private Charset defaultCharset = HtmlInputDecoder.DEFAULT_CHARSET;
 	private List<String> contentList;
 	private List<String> noContentList;
 	private List<String> balanceList;
@@ -207,12 +314,24 @@ public class HtmlFactory {
 	private List<String> attributeToDeleteList;
 	private List<String> missingNamespacePrefixes;
 	private Set<String> unknownTags;
-	private Set<String> attNameSet;
+	private boolean frozen = false;
 	
 
 	public HtmlFactory() {
 		setDefaults();
 	}
+
+	/** builder for a factory with immutable configuration that can be shared between threads.
+	 * 
+	 * <pre>
+	 * HtmlFactory htmlFactory = HtmlFactory.builder().setUseDirectBuild(true).addTagToDelete("script").build();
+	 * </pre>
+	 * 
+	 * @return
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
 	
 	private void setDefaults() {
 		abortOnError = false;
@@ -238,6 +357,8 @@ public class HtmlFactory {
 	 * @param missingNamespacePrefixes the missingNamespacePrefixes to set
 	 */
 	public void addMissingNamespacePrefix(String p) {
+		checkNotFrozen();
+		clearCompiledPreprocessor();
 		ensureMissingNamespacePrefixes();
 		if (!missingNamespacePrefixes.contains(p)) {
 			missingNamespacePrefixes.add(p);
@@ -249,6 +370,7 @@ public class HtmlFactory {
 	}
 
 	public void setAbortOnError(boolean abortOnError) {
+		checkNotFrozen();
 		this.abortOnError = abortOnError;
 	}
 
@@ -263,10 +385,12 @@ public class HtmlFactory {
 	 * @param ignoreNamespaces the ignoreNamespaces to set
 	 */
 	public void setIgnoreNamespaces(boolean ignoreNamespaces) {
+		checkNotFrozen();
 		this.ignoreNamespaces = ignoreNamespaces;
 	}
 
 	public void addReplacement(String old, String replacement) {
+		checkNotFrozen();
 		ensureReplacementMap();
 		replacementMap.put(old, replacement);
 	}
@@ -276,6 +400,8 @@ public class HtmlFactory {
 	}
 
 	public void setContentList(List<String> removeList) {
+		checkNotFrozen();
+		clearCompiledPreprocessor();
 		this.contentList = removeList;
 	}
 
@@ -285,6 +411,8 @@ public class HtmlFactory {
 	}
 
 	public void setNoContentList(List<String> noContentList) {
+		checkNotFrozen();
+		clearCompiledPreprocessor();
 		this.noContentList = noContentList;
 	}
 
@@ -293,6 +421,7 @@ public class HtmlFactory {
 	}
 
 	public void setBalanceList(List<String> balanceList) {
+		checkNotFrozen();
 		this.balanceList = balanceList;
 	}
 
@@ -307,9 +436,34 @@ public class HtmlFactory {
 	 * @param useJsoup the useJsoup to set
 	 */
 	public void setUseJsoup(boolean useJsoup) {
+		checkNotFrozen();
 		this.useJsoup = useJsoup;
 	}
 
+	/**
+	 * @return the useDirectBuild
+	 */
+	public boolean isUseDirectBuild() {
+		return useDirectBuild;
+	}
+
+	/** build the HtmlElement tree directly from the Jsoup tree.
+	 * 
+	 * the default pipeline serializes the Jsoup-derived tree to XML, unescapes it,
+	 * reparses it with XOM and copies it again. In direct mode the tree created from
+	 * the Jsoup nodes is returned as is, so the document is only parsed once.
+	 * Text is taken from Jsoup unescaped (e.g. "a &amp; b" gives "a & b") rather than
+	 * in the re-escaped form of the default pipeline.
+	 * 
+	 * only has an effect if useJsoup is true.
+	 * 
+	 * @param useDirectBuild the useDirectBuild to set
+	 */
+	public void setUseDirectBuild(boolean useDirectBuild) {
+		checkNotFrozen();
+		this.useDirectBuild = useDirectBuild;
+	}
+
 	
 	/**
 	 * @return the stripDoctype
@@ -322,6 +476,8 @@ public class HtmlFactory {
 	 * @param stripDoctype the stripDoctype to set
 	 */
 	public void setStripDoctype(boolean stripDoctype) {
+		checkNotFrozen();
+		clearCompiledPreprocessor();
 		this.stripDoctype = stripDoctype;
 	}
 
@@ -336,6 +492,7 @@ public class HtmlFactory {
 	 * @param replacementMap the replacementMap to set
 	 */
 	public void setReplacementMap(Map<String, String> replacementMap) {
+		checkNotFrozen();
 		this.replacementMap = replacementMap;
 	}
 	
@@ -346,10 +503,19 @@ public class HtmlFactory {
 	 * @param tag
 	 */
 	public void addTagToDelete(String tag) {
+		checkNotFrozen();
 		ensureTagToDeleteList();
 		this.tagToDeleteList.add(tag);
 	}
 
+	/** tags removed with their content (see addTagToDelete()).
+	 * 
+	 * @return null if none added
+	 */
+	public List<String> getTagToDeleteList() {
+		return tagToDeleteList;
+	}
+
 	/** remove any attributes causing problems.
 	 * 
 	 * typical examples are those that contain Javascript (e.g. onclick)
@@ -357,6 +523,8 @@ public class HtmlFactory {
 	 * @param attribute
 	 */
 	public void addAttributeToDelete(String attribute) {
+		checkNotFrozen();
+		clearCompiledPreprocessor();
 		ensureAttributeToDeleteList();
 		this.attributeToDeleteList.add(attribute);
 	}
@@ -371,7 +539,19 @@ public class HtmlFactory {
 	 * @return
 	 */
 	public HtmlElement parse(Element element) {
-		return (HtmlElement) parse0(element);
+		return parse(element, newParseContext());
+	}
+
+	/** creates subclassed elements.
+	 * 
+	 * @param element
+	 * @param context collects diagnostics for this parse
+	 * @return
+	 */
+	public HtmlElement parse(Element element, HtmlParseContext context) {
+		HtmlElement htmlElement = (HtmlElement) parse0(element, context);
+		mergeDiagnostics(context);
+		return htmlElement;
 	}
 
 	/** creates subclassed elements.
@@ -383,6 +563,13 @@ public class HtmlFactory {
 	 * @return
 	 */
 	public Element parse0(Element element) {
+		HtmlParseContext context = newParseContext();
+		Element xmlElement = parse0(element, context);
+		mergeDiagnostics(context);
+		return xmlElement;
+	}
+
+	private Element parse0(Element element, HtmlParseContext context) {
 		Element xmlElement = null;
 		String tag = element.getLocalName();
 		String namespaceURI = element.getNamespaceURI();
@@ -397,29 +584,15 @@ public class HtmlFactory {
 				((HtmlElement)xmlElement).setClassAttribute(tag);
 			}
 		} else {
-			xmlElement = createElementFromTag(tag);
-			if (xmlElement == null) {
-				String msg = "Unknown html tag "+tag;
-				if (HtmlElement.TAGSET.contains(tag.toUpperCase())) {
-					xmlElement = new HtmlGeneric(tag.toLowerCase());
-				} else {
-					if (abortOnError) {
-						throw new RuntimeException(msg);
-					}
-					xmlElement = createElementFromReplacement(tag);
-					if (xmlElement == null) {
-						LOG.trace(msg);
-						xmlElement = new HtmlGeneric(tag);
-					}
-				}
-			}
+			// never null; replacements and unknown tags are handled by the factory
+			xmlElement = createElementFromTag(tag, context);
 		}
-		XMLUtil.copyAttributes(element, xmlElement);
+		copyAttributes(element, xmlElement);
 		for (int i = 0; i < element.getChildCount(); i++) {
 			Node child = element.getChild(i);
 			if (child instanceof Element) {
 				Element childElement = (Element) child;
-				Element htmlChild = this.parse0(childElement);
+				Element htmlChild = this.parse0(childElement, context);
 				if (htmlChild == null) {
 					LOG.error("NULL child "+childElement.toXML());
 				} else {
@@ -433,170 +606,182 @@ public class HtmlFactory {
 		
 	}
 
-	private HtmlElement createElementFromReplacement(String tag) {
-		HtmlElement htmlElement = null;
-		String replacement = replacementMap.get(tag);
-		if (replacement != null) {
-			htmlElement = createElementFromTag(replacement);
-		}
+	/** creates subclassed element for tag.
+	 * 
+	 * looks up (case-insensitively) the registered constructors, then any replacement
+	 * for the tag, then HTML5 tags (as div with class) and finally unknown tags
+	 * (as div with class tag_UNKNOWN).
+	 * 
+	 * @param tag
+	 * @return element (never null)
+	 */
+	public HtmlElement createElementFromTag(String tag) {
+		HtmlParseContext context = newParseContext();
+		HtmlElement htmlElement = createElementFromTag(tag, context);
+		mergeDiagnostics(context);
 		return htmlElement;
 	}
 
-	public HtmlElement createElementFromTag(String tag) {
-		HtmlElement htmlElement = null;
-		if(HtmlA.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlA();
-		} else if(HtmlAbbr.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlAbbr();
-		} else if(HtmlArticle.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlArticle();
-		} else if(HtmlB.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlB();
-		} else if(HtmlBig.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlBig();
-		} else if(HtmlBlockquote.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlBlockquote();
-		} else if(HtmlBody.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlBody();
-		} else if(HtmlBr.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlBr();
-		} else if(HtmlCaption.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlCaption();
-		} else if(HtmlCode.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlCode();
-		} else if(HtmlDd.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlDd();
-		} else if(HtmlDiv.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlDiv();
-		} else if(HtmlDl.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlDl();
-		} else if(HtmlDt.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlDt();
-		} else if(HtmlEm.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlEm();
-		} else if(HtmlFigure.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlFigure();
-		} else if(HtmlFigcaption.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlFigcaption();
-		} else if(HtmlFooter.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlFooter();
-		} else if(HtmlFrame.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlFrame();
-		} else if(HtmlFrameset.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlFrameset();
-		} else if(HtmlH1.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlH1();
-		} else if(HtmlH2.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlH2();
-		} else if(HtmlH3.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlH3();
-		} else if(HtmlH4.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlH4();
-		} else if(HtmlH5.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlH5();
-		} else if(HtmlH6.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlH6();
-		} else if(HtmlHead.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlHead();
-		} else if(HtmlHeader.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlHeader();
-		} else if(HtmlHr.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlHr();
-		} else if(HtmlHtml.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlHtml();
-		} else if(HtmlI.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlI();
-		} else if(HtmlImg.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlImg();
-		} else if(HtmlLabel.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlLabel();
-		} else if(HtmlLi.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlLi();
-		} else if(HtmlLink.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlLink();
-		} else if(HtmlMeta.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlMeta();
-		} else if(HtmlNav.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlNav();
-		} else if(HtmlOl.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlOl();
-		} else if(HtmlP.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlP();
-		} else if(HtmlS.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlS();
-		} else if(HtmlSection.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlSection();
-		} else if(HtmlSmall.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlSmall();
-		} else if(HtmlSpan.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlSpan();
-		} else if(HtmlStrong.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlStrong();
-		} else if(HtmlStyle.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlStyle();
-		} else if(HtmlSub.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlSub();
-		} else if(HtmlSup.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlSup();
-		} else if(HtmlTable.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTable();
-		} else if(HtmlTbody.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTbody();
-		} else if(HtmlTfoot.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTfoot();
-		} else if(HtmlThead.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlThead();
-		} else if(HtmlTitle.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTitle();
-		} else if(HtmlTd.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTd();
-		} else if(HtmlTh.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTh();
-		} else if(HtmlTime.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTime();
-		} else if(HtmlTr.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTr();
-		} else if(HtmlTt.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlTt();
-		} else if(HtmlUl.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlUl();
-		} else if(HtmlUl.TAG.equalsIgnoreCase(tag)) {
-			htmlElement = new HtmlUl();
-			
-		} else if(HTML_SET.contains(tag)) {
-			LOG.warn("unsupported HTML5 tag "+tag);
-			htmlElement = new HtmlDiv();
-			htmlElement.setClassAttribute(tag);
-	/** HTML5
- * article, aside, audio, bdi, canvas, command, data, datalist, details, embed, figcaption, 
- * figure, footer, header, keygen, mark, meter, nav, output, progress, rp, rt, ruby, section,
- * source, summary, time, track, video, wbr
- */
-			
-/**
- * HTML5
- * dates and times, email, url, search, number, range, tel, color
- */
-			
-/** HTML5 deprecations
-  * acronym, applet, basefont, big, center, dir, font, frame, frameset, isindex, noframes, strike, tt
-  */
-		} else {
-			if (unknownTags == null) unknownTags = new HashSet<String>();
-			if (!unknownTags.contains(tag)) {
-//				LOG.error("unknown tag "+tag);
-				unknownTags.add(tag);
+	/** creates subclassed element for tag.
+	 * 
+	 * @param tag
+	 * @param context records unknown tags
+	 * @return element (never null)
+	 */
+	public HtmlElement createElementFromTag(String tag, HtmlParseContext context) {
+		HtmlElement htmlElement = createElementFromSupplier(tag);
+		if (htmlElement == null) {
+			String replacement = replacementMap == null ? null : replacementMap.get(tag);
+			if (replacement != null) {
+				htmlElement = createElementFromSupplier(replacement);
+			}
+		}
+		if (htmlElement == null) {
+			if (HTML_SET.contains(tag)) {
+				LOG.warn("unsupported HTML5 tag "+tag);
+				htmlElement = new HtmlDiv();
+				htmlElement.setClassAttribute(tag);
+			} else {
+				context.addUnknownTag(tag);
+				htmlElement = new HtmlDiv();
+				htmlElement.setClassAttribute(canonicalizeValue(tag+"_UNKNOWN"));
 			}
-			htmlElement = new HtmlDiv();
-			htmlElement.setClassAttribute(tag+"_UNKNOWN");
 		}
 		return htmlElement;
 	}
 	
+	private HtmlElement createElementFromSupplier(String tag) {
+		Supplier<HtmlElement> supplier = elementSupplierMap.get(tag);
+		if (supplier == null) {
+			// toLowerCase() returns the same string if already lowercase
+			String lowerTag = tag.toLowerCase();
+			if (lowerTag != tag) {
+				supplier = elementSupplierMap.get(lowerTag);
+			}
+		}
+		return supplier == null ? null : supplier.get();
+	}
+
+	/** creates element from the default (built-in) tags only.
+	 * 
+	 * @param tag case-insensitive
+	 * @return null if not a built-in tag
+	 */
+	static HtmlElement createDefaultElementFromTag(String tag) {
+		Supplier<HtmlElement> supplier = DEFAULT_ELEMENT_SUPPLIER_MAP.get(tag.toLowerCase());
+		return supplier == null ? null : supplier.get();
+	}
+
+	private static void addDefaultElementSupplier(String tag, Supplier<HtmlElement> supplier) {
+		DEFAULT_ELEMENT_SUPPLIER_MAP.put(tag.toLowerCase(), supplier);
+	}
+
+	/** register a constructor for a tag.
+	 * 
+	 * allows custom subclasses of HtmlElement or overriding of built-in ones, e.g.
+	 * <pre>
+	 * htmlFactory.addElementSupplier("mark", HtmlMark::new);
+	 * </pre>
+	 * lookup is case-insensitive. Affects only this factory.
+	 * 
+	 * @param tag
+	 * @param supplier
+	 */
+	public void addElementSupplier(String tag, Supplier<HtmlElement> supplier) {
+		checkNotFrozen();
+		if (elementSupplierMap == DEFAULT_ELEMENT_SUPPLIER_MAP) {
+			elementSupplierMap = new HashMap<String, Supplier<HtmlElement>>(DEFAULT_ELEMENT_SUPPLIER_MAP);
+		}
+		elementSupplierMap.put(tag.toLowerCase(), supplier);
+	}
+
+	/** unknown tags found by all parses with this factory.
+	 * 
+	 * only recorded for factories created with new HtmlFactory(); for shared factories
+	 * (from builder()) use parse(..., HtmlParseContext).
+	 * 
+	 * @return null if none
+	 */
 	public Set<String> getUnknownTags() {
 		return unknownTags;
 	}
 
+	/** true if created by Builder; configuration cannot then be changed.
+	 * 
+	 * @return
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/** an immutable copy of this factory's configuration that can be shared between threads.
+	 * 
+	 * all lists and maps are copied and unmodifiable; the preprocessor (if used) is
+	 * created now so that parsing does not change the factory.
+	 * 
+	 * @return this if already frozen, else a copy whose setters throw IllegalStateException
+	 */
+	public HtmlFactory getFrozenCopy() {
+		if (frozen) {
+			return this;
+		}
+		HtmlFactory built = new HtmlFactory();
+		built.abortOnError = abortOnError;
+		built.ignoreNamespaces = ignoreNamespaces;
+		built.useJsoup = useJsoup;
+		built.useDirectBuild = useDirectBuild;
+		built.usePreprocessor = usePreprocessor;
+		built.stripDoctype = stripDoctype;
+		built.contentList = copyList(contentList);
+		built.noContentList = copyList(noContentList);
+		built.balanceList = copyList(balanceList);
+		built.tagToDeleteList = copyList(tagToDeleteList);
+		built.attributeToDeleteList = copyList(attributeToDeleteList);
+		built.missingNamespacePrefixes = copyList(missingNamespacePrefixes);
+		built.replacementMap = Collections.unmodifiableMap(replacementMap == null ?
+				new HashMap<String, String>() : new HashMap<String, String>(replacementMap));
+		built.elementSupplierMap = elementSupplierMap == DEFAULT_ELEMENT_SUPPLIER_MAP ?
+				DEFAULT_ELEMENT_SUPPLIER_MAP :
+				Collections.unmodifiableMap(new HashMap<String, Supplier<HtmlElement>>(elementSupplierMap));
+		built.preprocessor = preprocessor;
+		built.diagnosticSink = diagnosticSink;
+		built.parseListener = parseListener;
+		built.symbolTable = symbolTable;
+		built.characterMapper = characterMapper;
+		built.defaultCharset = defaultCharset;
+		if (built.usePreprocessor && built.preprocessor == null) {
+			built.preprocessor = built.createPreprocessor();
+		}
+		built.frozen = true;
+		return built;
+	}
+
+	private static List<String> copyList(List<String> list) {
+		return list == null ? Collections.<String>emptyList() :
+			Collections.unmodifiableList(new ArrayList<String>(list));
+	}
+
+	private void checkNotFrozen() {
+		if (frozen) {
+			throw new IllegalStateException("HtmlFactory was built by HtmlFactory.Builder and cannot be changed");
+		}
+	}
+
+	private HtmlParseContext newParseContext() {
+		return new HtmlParseContext();
+	}
+
+	/** copies per-parse diagnostics into single-thread factories (legacy behaviour).
+	 * 
+	 * @param context
+	 */
+	private void mergeDiagnostics(HtmlParseContext context) {
+		if (!frozen && context.getUnknownTags().size() > 0) {
+			if (unknownTags == null) unknownTags = new HashSet<String>();
+			unknownTags.addAll(context.getUnknownTags());
+		}
+	}
+
 
 	private void ensureReplacementMap() {
 		if (replacementMap == null) {
@@ -605,6 +790,7 @@ public class HtmlFactory {
 	}
 
 	public void addReplacement(Map<String, String> replacementMap) {
+		checkNotFrozen();
 		ensureReplacementMap();
 		if (replacementMap != null) {
 			for (Entry<String, String> entry : replacementMap.entrySet()) {
@@ -613,21 +799,123 @@ public class HtmlFactory {
 		}
 	}
 
+	/** parses HTML already decoded to chars (no charset sniffing).
+	 * 
+	 * @param xmlString
+	 * @return null if no content or the result could not be parsed
+	 * @throws Exception
+	 */
 	public HtmlElement parse(String xmlString) throws Exception {
-		InputStream is = IOUtils.toInputStream(xmlString);
-		return parse(is);
+		HtmlParseContext context = newParseContext();
+		startParse(context);
+		context.endStage(HtmlParseStage.READ, -1, xmlString.length());
+		HtmlElement htmlElement = parse0(xmlString, context);
+		mergeDiagnostics(context);
+		return htmlElement;
 	}
 	
 	public HtmlElement parse(File file) throws Exception {
-		return parse(new FileInputStream(file));
+		try (InputStream is = new FileInputStream(file)) {
+			return parse(is);
+		}
 	}
 
 	public HtmlElement parse(URL url) throws Exception {
-		return url == null ? null : parse(url.openStream());
+		if (url == null) {
+			return null;
+		}
+		try (InputStream is = url.openStream()) {
+			return parse(is);
+		}
 	}
 
 	public HtmlElement parse(InputStream is) throws Exception {
-		String ss = IOUtils.toString(is, "UTF-8");
+		return parse(is, newParseContext());
+	}
+
+	/** parses HTML into a frozen, compact read-only document.
+	 * 
+	 * the full tree exists only during the call; see HtmlCompactDocument.
+	 * 
+	 * @param file
+	 * @return null if no content
+	 * @throws Exception
+	 */
+	public HtmlCompactDocument parseCompact(File file) throws Exception {
+		HtmlElement root = parse(file);
+		return root == null ? null : HtmlCompactDocument.freeze(root);
+	}
+
+	/** parses HTML into a frozen, compact read-only document.
+	 * 
+	 * @param is
+	 * @return null if no content
+	 * @throws Exception
+	 */
+	public HtmlCompactDocument parseCompact(InputStream is) throws Exception {
+		HtmlElement root = parse(is);
+		return root == null ? null : HtmlCompactDocument.freeze(root);
+	}
+
+	/** parses HTML.
+	 * 
+	 * the bytes are decoded once, in the charset sniffed from a BOM or &lt;meta charset&gt;
+	 * (else getDefaultCharset()), into a buffer that the cleaning stages read directly.
+	 * thread-safe if this factory was built with builder().
+	 * 
+	 * @param is
+	 * @param context collects diagnostics for this parse (one context per parse)
+	 * @return null if no content or the result could not be parsed
+	 * @throws Exception
+	 */
+	public HtmlElement parse(InputStream is, HtmlParseContext context) throws Exception {
+		HtmlElement htmlElement = parse0(is, context);
+		mergeDiagnostics(context);
+		return htmlElement;
+	}
+
+	private HtmlElement parse0(InputStream is, HtmlParseContext context) throws Exception {
+		startParse(context);
+		// pooled per thread; not used after parse0(CharSequence...) returns
+		CharBuffer text = HtmlInputDecoder.decode(is, defaultCharset);
+		context.endStage(HtmlParseStage.READ, -1, text.length());
+		return parse0(text, context);
+	}
+
+	private void startParse(HtmlParseContext context) {
+		if (parseListener != null) {
+			context.setStageTimer(new HtmlStageTimer(parseListener));
+		}
+	}
+
+	private HtmlElement parse0(CharSequence text, HtmlParseContext context) throws Exception {
+		int inputLength = text.length();
+		String ss = usePreprocessor ? getPreprocessor().preprocess(text) : preprocessWithRegexChain(text.toString());
+		context.endStage(HtmlParseStage.PREPROCESS, inputLength, ss.length());
+		HtmlElement htmlElement = null;
+		if (ss.length() == 0) {
+			// no content
+		} else if (useJsoup && useDirectBuild) {
+			htmlElement = parseDirectFromJsoup(ss, context);
+		} else {
+			ss = parseLegacyHtmlToWellFormedXML(ss, context);
+			if (ss.trim().length() > 0) {
+				int length = ss.length();
+				ss = tidyTidyingErrors(ss);
+				context.endStage(HtmlParseStage.TIDY_ERRORS, length, ss.length());
+				htmlElement = parseToXHTML(ss, context);
+			}
+		}
+		context.endParse(inputLength, -1);
+		return htmlElement;
+	}
+
+	/** original cleaning; each rewrite makes a new copy of the document.
+	 * 
+	 * @param ss
+	 * @return cleaned string or "" if no content
+	 */
+	private String preprocessWithRegexChain(String ss) {
 		ensureContentLists();
 		for (String remove : contentList) {
 			ss = XMLUtil.removeTags(remove, ss);
@@ -640,17 +928,163 @@ public class HtmlFactory {
 		}
 		ss = removeNamespacePrefixes(ss);
 		ss = removeSingleKeywords(ss);
-		ss = parseLegacyHtmlToWellFormedXML(ss);
-		HtmlElement htmlElement = null;
-		if (ss.trim().length() > 0) {
-			ss = tidyTidyingErrors(ss);
-			htmlElement = parseToXHTML(ss);
+		return preprocessLegacyHtml(ss);
+	}
+
+	/** single-pass equivalent of the cleaning in parse(InputStream), compiled from this factory's settings.
+	 * 
+	 * @return new compiled preprocessor
+	 */
+	public HtmlPreprocessor createPreprocessor() {
+		ensureContentLists();
+		ensureMissingNamespacePrefixes();
+		ensureAttributeToDeleteList();
+		HtmlPreprocessor htmlPreprocessor = new HtmlPreprocessor();
+		htmlPreprocessor.setContentTags(contentList);
+		htmlPreprocessor.setNoContentTags(noContentList);
+		htmlPreprocessor.setKeywords(Arrays.asList(SINGLE_KEYWORDS));
+		htmlPreprocessor.setStripDoctype(stripDoctype);
+		htmlPreprocessor.setMissingNamespacePrefixes(missingNamespacePrefixes);
+		htmlPreprocessor.setAttributesToDelete(attributeToDeleteList);
+		htmlPreprocessor.setEntityMap(lookupMapXML);
+		htmlPreprocessor.setCharacterMapper(characterMapper);
+		return htmlPreprocessor.compile();
+	}
+
+	/** preprocessor used if usePreprocessor is set.
+	 * 
+	 * the one from createPreprocessor() is compiled once and reused until a setting it depends on
+	 * is changed through this factory (lists changed in place through the getters are not seen).
+	 * 
+	 * @return the one set by setPreprocessor() else one from createPreprocessor()
+	 */
+	public HtmlPreprocessor getPreprocessor() {
+		if (preprocessor != null) {
+			return preprocessor;
 		}
-		return htmlElement;
+		if (compiledPreprocessor == null) {
+			compiledPreprocessor = createPreprocessor();
+		}
+		return compiledPreprocessor;
+	}
+
+	private void clearCompiledPreprocessor() {
+		compiledPreprocessor = null;
+	}
+
+	/** plug in a custom (compiled) preprocessor.
+	 * 
+	 * @param preprocessor if null use createPreprocessor()
+	 */
+	public void setPreprocessor(HtmlPreprocessor preprocessor) {
+		checkNotFrozen();
+		this.preprocessor = preprocessor;
+	}
+
+	/** sink for XML that could not be parsed.
+	 * 
+	 * @param diagnosticSink if null (default) uses DiagnosticSink.getDefault()
+	 */
+	public void setDiagnosticSink(DiagnosticSink diagnosticSink) {
+		checkNotFrozen();
+		this.diagnosticSink = diagnosticSink;
+	}
+
+	public DiagnosticSink getDiagnosticSink() {
+		return DiagnosticSink.getSink(diagnosticSink);
+	}
+
+	/** receives per-stage timings of parse(InputStream) (e.g. an HtmlParseMetrics).
+	 * 
+	 * @param parseListener if null (default) no timing is done
+	 */
+	public void setParseListener(HtmlParseListener parseListener) {
+		checkNotFrozen();
+		this.parseListener = parseListener;
+	}
+
+	public HtmlParseListener getParseListener() {
+		return parseListener;
+	}
+
+	/** canonicalizes attribute names, namespace URIs and short attribute values of parsed elements.
+	 * 
+	 * @param symbolTable default HtmlSymbolTable.getDefault() (shared by all factories); null to disable
+	 */
+	public void setSymbolTable(HtmlSymbolTable symbolTable) {
+		checkNotFrozen();
+		this.symbolTable = symbolTable;
+	}
+
+	public HtmlSymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+
+	/** replaces problem characters (nbsp, smart quotes...) before parsing.
+	 * 
+	 * @param characterMapper default HtmlCharacterMapper.getDefault(); null for no replacement
+	 */
+	public void setCharacterMapper(HtmlCharacterMapper characterMapper) {
+		checkNotFrozen();
+		clearCompiledPreprocessor();
+		this.characterMapper = characterMapper;
+	}
+
+	public HtmlCharacterMapper getCharacterMapper() {
+		return characterMapper;
+	}
+
+	/** charset for input streams that declare none (no BOM or &lt;meta charset&gt;).
+	 * 
+	 * @param defaultCharset default UTF-8
+	 */
+	public void setDefaultCharset(Charset defaultCharset) {
+		checkNotFrozen();
+		this.defaultCharset = defaultCharset;
+	}
+
+	public Charset getDefaultCharset() {
+		return defaultCharset;
+	}
+
+	private String canonicalizeName(String name) {
+		return symbolTable == null ? name : symbolTable.canonicalizeName(name);
+	}
+
+	private String canonicalizeValue(String value) {
+		return symbolTable == null ? value : symbolTable.canonicalizeValue(value);
+	}
+
+	/** as XMLUtil.copyAttributes() but with canonical strings. */
+	private void copyAttributes(Element from, Element to) {
+		for (int i = 0; i < from.getAttributeCount(); i++) {
+			Attribute attribute = from.getAttribute(i);
+			if (symbolTable == null) {
+				to.addAttribute(new Attribute(attribute));
+			} else {
+				to.addAttribute(new Attribute(canonicalizeName(attribute.getQualifiedName()), 
+						canonicalizeName(attribute.getNamespaceURI()), canonicalizeValue(attribute.getValue()), attribute.getType()));
+			}
+		}
+	}
+
+	public boolean isUsePreprocessor() {
+		return usePreprocessor;
+	}
+
+	/** clean the raw HTML in a single pass rather than with the chain of regexes.
+	 * 
+	 * @param usePreprocessor
+	 */
+	public void setUsePreprocessor(boolean usePreprocessor) {
+		checkNotFrozen();
+		this.usePreprocessor = usePreprocessor;
 	}
 
 	private String removeSingleKeywords(String ss) {
-		ss = ss.replaceAll(" itemscope ",  " ");
+		for (String keyword : SINGLE_KEYWORDS) {
+			ss = ss.replaceAll(" "+keyword+" ",  " ");
+		}
 		return ss;
 	}
 
@@ -695,22 +1129,53 @@ public class HtmlFactory {
 		return ss;
 	}
 
-	private HtmlElement parseToXHTML(String ss) throws IOException {
+	private HtmlElement parseToXHTML(String ss, HtmlParseContext context) throws IOException {
 		Element element;
 		HtmlElement htmlElement = null;
 		try {
 			element = XMLUtil.parseXML(ss);
-			htmlElement = this.parse(element);
+			context.endStage(HtmlParseStage.XOM_PARSE, ss.length(), -1);
+			htmlElement = (HtmlElement) this.parse0(element, context);
+			context.endStage(HtmlParseStage.BUILD, -1, -1);
 		} catch (Exception e) {
-//			e.printStackTrace();
-			File file = new File("target/debug/htmlFactory"+System.currentTimeMillis()+".xml");
-			FileUtils.write(file, ss);
-			LOG.error("wrote BAD XML to "+file);
+			LOG.error("BAD XML: "+e.getMessage());
+			DiagnosticSink sink = getDiagnosticSink();
+			if (sink.isEnabled()) {
+				sink.write("htmlFactory.xml", ss);
+			}
 		}
 		return htmlElement;
 	}
 
-	private String parseLegacyHtmlToWellFormedXML(String ss) {
+	private String parseLegacyHtmlToWellFormedXML(String ss, HtmlParseContext context) {
+		if (useJsoup) {
+			int length = ss.length();
+			org.jsoup.nodes.Document doc = Jsoup.parse(ss);
+			doc = doc.normalise();
+			context.endStage(HtmlParseStage.JSOUP_PARSE, length, -1);
+			HtmlElement jsoupElement = createHtmlElementFromJsoup(doc, false, context);
+			context.endStage(HtmlParseStage.JSOUP_TO_HTML, -1, -1);
+			ss = jsoupElement.toXML();
+			context.endStage(HtmlParseStage.SERIALIZE, -1, ss.length());
+			// ARGH Jsoup re-escapes characters - have to turn them back again, but NOT &amp; 
+			length = ss.length();
+			ss = HTML_ENTITY_DECODER.decode(ss);
+			context.endStage(HtmlParseStage.UNESCAPE, length, ss.length());
+		} else {
+			// XML only knows &amp; &lt; &gt; &quot; &apos;; &alpha; &ndash; ... must become characters
+			int length = ss.length();
+			ss = HtmlEntityDecoder.getHtml5MarkupDecoder().decode(ss);
+			context.endStage(HtmlParseStage.UNESCAPE, length, ss.length());
+		}
+		return ss;
+	}
+
+	/** string-level cleaning applied before any parsing.
+	 * 
+	 * @param ss
+	 * @return cleaned string or "" if no content
+	 */
+	private String preprocessLegacyHtml(String ss) {
 		if (ss == null || ss.trim().length() == 0) {
 			LOG.error("legacy HTML has no content");
 			return "";
@@ -721,20 +1186,30 @@ public class HtmlFactory {
 		ss = insertMissingNamespacesIntoRoot(ss);
 		// do this before any unescaping as some attributes have escaped characters
 		ss = stripAttributesToDelete(ss); 
-		ss = HtmlUtil.unescapeHtml3(ss, lookupMapXML);
-		ss = HtmlUtil.replaceProblemCharacters(ss);
-		if (useJsoup) {
-			org.jsoup.nodes.Document doc = Jsoup.parse(ss);
-			doc = doc.normalise();
-			HtmlElement jsoupElement = createHtmlElementFromJsoup(doc);
-			ss = jsoupElement.toXML();
-			// ARGH Jsoup re-escapes characters - have to turn them back again, but NOT &amp; 
-			ss = HtmlUtil.unescapeHtml3(ss, lookupMapHTML);
+		ss = XML_ENTITY_DECODER.decode(ss);
+		if (characterMapper != null) {
+			ss = characterMapper.map(ss);
 		}
 		return ss;
 	}
 
-	private HtmlElement createHtmlElementFromJsoup(Document doc) {
+	/** single pass from Jsoup nodes to HtmlElements.
+	 * 
+	 * avoids the toXML(), unescape, XOM reparse and copy of the default pipeline.
+	 * 
+	 * @param ss cleaned HTML
+	 * @return
+	 */
+	private HtmlElement parseDirectFromJsoup(String ss, HtmlParseContext context) {
+		org.jsoup.nodes.Document doc = Jsoup.parse(ss);
+		doc = doc.normalise();
+		context.endStage(HtmlParseStage.JSOUP_PARSE, ss.length(), -1);
+		HtmlElement htmlElement = createHtmlElementFromJsoup(doc, true, context);
+		context.endStage(HtmlParseStage.JSOUP_TO_HTML, -1, -1);
+		return htmlElement;
+	}
+
+	private HtmlElement createHtmlElementFromJsoup(Document doc, boolean direct, HtmlParseContext context) {
 		// because the document may have comments?
 		List<org.jsoup.nodes.Element> elementList = new ArrayList<org.jsoup.nodes.Element>();
 		for (org.jsoup.nodes.Node childNode : doc.childNodes()) {
@@ -745,37 +1220,44 @@ public class HtmlFactory {
 		if (elementList.size() != 1) {
 			throw new RuntimeException("Document must have exactly 1 element child");
 		}
-		return createHtmlElementFromJsoupNode(elementList.get(0));
+		return createHtmlElementFromJsoupNode(elementList.get(0), direct, context);
 	}
 
-	private HtmlElement createHtmlElementFromJsoupNode(org.jsoup.nodes.Element element) {
-		HtmlElement htmlElement = createElementFromTag(element.nodeName());
+	/** converts Jsoup element and descendants.
+	 * 
+	 * @param element
+	 * @param direct if true take unescaped text and data from Jsoup (the final tree);
+	 *     else keep Jsoup's escaped form for the XML round trip
+	 * @param context
+	 * @return
+	 */
+	private HtmlElement createHtmlElementFromJsoupNode(org.jsoup.nodes.Element element, boolean direct, HtmlParseContext context) {
+		HtmlElement htmlElement = createElementFromTag(element.nodeName(), context);
 		for (org.jsoup.nodes.Attribute attribute : element.attributes()) {
-			String attString = attribute.toString();
-			int equals = attString.indexOf("=");
-			if (equals == -1) {
-				// non-wellformed attribute
-				LOG.trace(attString);
-				continue;
+			String value = attribute.getValue();
+			String attName = attribute.getKey();
+			if (value.length() == 0 || value.equalsIgnoreCase(attName)) {
+				// may be a collapsed boolean attribute, which Jsoup writes without "="
+				String attString = attribute.toString();
+				if (attString.indexOf("=") == -1) {
+					// non-wellformed attribute
+					LOG.trace(attString);
+					continue;
+				}
 			}
-			String attName = attString.substring(0, equals);
 			try {
 				if (!attName.startsWith("xmlns") && !attName.startsWith("xml:")) {
 					try {
-						Attribute att1 = new Attribute(attName, attribute.getValue());
+						Attribute att1 = new Attribute(canonicalizeName(attName), canonicalizeValue(value));
 						htmlElement.addAttribute(att1);
 					} catch (nu.xom.NamespaceConflictException ee) {
 						// kludge this
-						LOG.trace("bad attribute ignored: "+attString + ee.getMessage());
+						LOG.trace("bad attribute ignored: "+attName + ee.getMessage());
 					}
 				}
 			} catch (nu.xom.IllegalNameException e) {
-				if (attNameSet == null) {
-					attNameSet = new HashSet<String>();
-				}
-				if (!attNameSet.contains(attName)) {
-					LOG.trace("skipped attribute ["+attString+"]");
-					attNameSet.add(attName);
+				if (context.addSkippedAttributeName(attName)) {
+					LOG.trace("skipped attribute ["+attName+"]");
 				}
 			}
 		}
@@ -789,8 +1271,10 @@ public class HtmlFactory {
 			String name = childNode.nodeName();
 			LOG.trace("> "+name);
 			if ("#text".equals(name)) {
-				htmlElement.appendChild(childNode.toString());
+				htmlElement.appendChild(direct ? normalizeLineEnds(((TextNode) childNode).getWholeText()) : childNode.toString());
 			} else if ("#document".equals(name)) {
+			} else if ("#comment".equals(name) && direct) {
+				appendComment(htmlElement, normalizeLineEnds(((org.jsoup.nodes.Comment) childNode).getData()));
 			} else if ("#comment".equals(name)) {
 				String comment = childNode.toString();
 				// AAARGH nested "--" are illegal in well formed comments
@@ -807,10 +1291,10 @@ public class HtmlFactory {
 					LOG.error("Bad comment "+e.getMessage()+"; "+comment);
 				}
 			} else if ("#data".equals(name)) {
-				String data = childNode.toString();
+				String data = direct ? normalizeLineEnds(((DataNode) childNode).getWholeData()) : childNode.toString();
 				htmlElement.appendChild(data);
 			} else if (childNode instanceof org.jsoup.nodes.Element) {
-				htmlElement.appendChild(createHtmlElementFromJsoupNode((org.jsoup.nodes.Element)childNode));
+				htmlElement.appendChild(createHtmlElementFromJsoupNode((org.jsoup.nodes.Element)childNode, direct, context));
 			} else {
 				LOG.error("cannot parse ("+name+") in: "+childNode.toString());
 			}
@@ -818,6 +1302,56 @@ public class HtmlFactory {
 		return htmlElement;
 	}
 
+	/** CRLF and lone CR as LF, as an XML parser reads them.
+	 * 
+	 * the default build gets this from the XOM re-parse; the direct build must do it itself.
+	 * 
+	 * @param s
+	 * @return s itself if it has no CR
+	 */
+	private static String normalizeLineEnds(String s) {
+		int cr = s.indexOf('\r');
+		if (cr == -1) {
+			return s;
+		}
+		StringBuilder sb = new StringBuilder(s.length());
+		sb.append(s, 0, cr);
+		for (int i = cr; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\r') {
+				sb.append('\n');
+				if (i + 1 < s.length() && s.charAt(i + 1) == '\n') {
+					i++;
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/** appends comment from raw comment data.
+	 * 
+	 * "--" and a trailing "-" are illegal in XML comments so are spaced out.
+	 * 
+	 * @param htmlElement
+	 * @param data
+	 */
+	private void appendComment(HtmlElement htmlElement, String data) {
+		String comment = data;
+		while (comment.contains("--")) {
+			comment = comment.replace("--", "- -");
+		}
+		if (comment.endsWith("-")) {
+			comment += " ";
+		}
+		try {
+			htmlElement.appendChild(new Comment(comment));
+		} catch (nu.xom.IllegalDataException e) {
+			LOG.error("Bad comment "+e.getMessage()+"; "+comment);
+		}
+	}
+
 	/** this is awful, but so is the HTML we have to process.
 	 * 
 	 * inserts a dummy namespace which prevents parsers failing
@@ -862,4 +1396,131 @@ public class HtmlFactory {
 	}
 
 	
+	/** configures an HtmlFactory and freezes it.
+	 * 
+	 * setters mirror those on HtmlFactory. build() copies the configuration, so
+	 * the builder can be reused or changed afterwards without affecting built factories.
+	 * 
+	 * @author pm286
+	 *
+	 */
+	public static class Builder {
+
+		private HtmlFactory factory;
+
+		private Builder() {
+			factory = new HtmlFactory();
+		}
+
+		public Builder setAbortOnError(boolean abortOnError) {
+			factory.setAbortOnError(abortOnError);
+			return this;
+		}
+
+		public Builder setIgnoreNamespaces(boolean ignoreNamespaces) {
+			factory.setIgnoreNamespaces(ignoreNamespaces);
+			return this;
+		}
+
+		public Builder setUseJsoup(boolean useJsoup) {
+			factory.setUseJsoup(useJsoup);
+			return this;
+		}
+
+		public Builder setUseDirectBuild(boolean useDirectBuild) {
+			factory.setUseDirectBuild(useDirectBuild);
+			return this;
+		}
+
+		public Builder setUsePreprocessor(boolean usePreprocessor) {
+			factory.setUsePreprocessor(usePreprocessor);
+			return this;
+		}
+
+		public Builder setPreprocessor(HtmlPreprocessor preprocessor) {
+			factory.setPreprocessor(preprocessor);
+			return this;
+		}
+
+		public Builder setDiagnosticSink(DiagnosticSink diagnosticSink) {
+			factory.setDiagnosticSink(diagnosticSink);
+			return this;
+		}
+
+		public Builder setParseListener(HtmlParseListener parseListener) {
+			factory.setParseListener(parseListener);
+			return this;
+		}
+
+		public Builder setSymbolTable(HtmlSymbolTable symbolTable) {
+			factory.setSymbolTable(symbolTable);
+			return this;
+		}
+
+		public Builder setCharacterMapper(HtmlCharacterMapper characterMapper) {
+			factory.setCharacterMapper(characterMapper);
+			return this;
+		}
+
+		public Builder setDefaultCharset(Charset defaultCharset) {
+			factory.setDefaultCharset(defaultCharset);
+			return this;
+		}
+
+		public Builder setStripDoctype(boolean stripDoctype) {
+			factory.setStripDoctype(stripDoctype);
+			return this;
+		}
+
+		public Builder setContentList(List<String> contentList) {
+			factory.setContentList(contentList == null ? null : new ArrayList<String>(contentList));
+			return this;
+		}
+
+		public Builder setNoContentList(List<String> noContentList) {
+			factory.setNoContentList(noContentList == null ? null : new ArrayList<String>(noContentList));
+			return this;
+		}
+
+		public Builder setBalanceList(List<String> balanceList) {
+			factory.setBalanceList(balanceList == null ? null : new ArrayList<String>(balanceList));
+			return this;
+		}
+
+		public Builder addMissingNamespacePrefix(String prefix) {
+			factory.addMissingNamespacePrefix(prefix);
+			return this;
+		}
+
+		public Builder addReplacement(String old, String replacement) {
+			factory.addReplacement(old, replacement);
+			return this;
+		}
+
+		public Builder addTagToDelete(String tag) {
+			factory.addTagToDelete(tag);
+			return this;
+		}
+
+		public Builder addAttributeToDelete(String attribute) {
+			factory.addAttributeToDelete(attribute);
+			return this;
+		}
+
+		public Builder addElementSupplier(String tag, Supplier<HtmlElement> supplier) {
+			factory.addElementSupplier(tag, supplier);
+			return this;
+		}
+
+		/** creates a frozen copy of the current configuration.
+		 * 
+		 * all lists and maps are copied and unmodifiable; the preprocessor (if used) is
+		 * created now so that parsing does not change the factory.
+		 * 
+		 * @return factory whose setters throw IllegalStateException
+		 */
+		public HtmlFactory build() {
+			return factory.getFrozenCopy();
+		}
+	}
 }
@@ -0,0 +1,88 @@
+package org.xmlcml.html;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/** diagnostics collected during a single parse by HtmlFactory.
+ * 
+ * a new context is used for each parse so that a shared (built) HtmlFactory
+ * holds no mutable state. Not thread-safe; do not share a context between parses running at the same time.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlParseContext {
+
+	private Set<String> unknownTags;
+	private Set<String> skippedAttributeNames;
+	private HtmlStageTimer stageTimer;
+
+	public HtmlParseContext() {
+	}
+
+	/** record a tag with no HtmlElement subclass.
+	 * 
+	 * @param tag
+	 * @return true if not previously recorded
+	 */
+	public boolean addUnknownTag(String tag) {
+		if (unknownTags == null) {
+			unknownTags = new LinkedHashSet<String>();
+		}
+		return unknownTags.add(tag);
+	}
+
+	/** tags with no HtmlElement subclass, in order of first occurrence.
+	 * 
+	 * @return unmodifiable set (empty if none)
+	 */
+	public Set<String> getUnknownTags() {
+		return unknownTags == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(unknownTags);
+	}
+
+	/** record an attribute name that is not a legal XML name and was skipped.
+	 * 
+	 * @param attName
+	 * @return true if not previously recorded
+	 */
+	public boolean addSkippedAttributeName(String attName) {
+		if (skippedAttributeNames == null) {
+			skippedAttributeNames = new LinkedHashSet<String>();
+		}
+		return skippedAttributeNames.add(attName);
+	}
+
+	/** attribute names that could not be converted to XML.
+	 * 
+	 * @return unmodifiable set (empty if none)
+	 */
+	public Set<String> getSkippedAttributeNames() {
+		return skippedAttributeNames == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(skippedAttributeNames);
+	}
+
+	void setStageTimer(HtmlStageTimer stageTimer) {
+		this.stageTimer = stageTimer;
+	}
+
+	/** restart the stage clock (e.g. after work that is not a stage). No-op without a listener. */
+	void startStage() {
+		if (stageTimer != null) {
+			stageTimer.startStage();
+		}
+	}
+
+	/** report the stage since the last start/end. No-op without a listener. */
+	void endStage(HtmlParseStage stage, long sizeIn, long sizeOut) {
+		if (stageTimer != null) {
+			stageTimer.endStage(stage, sizeIn, sizeOut);
+		}
+	}
+
+	void endParse(long sizeIn, long sizeOut) {
+		if (stageTimer != null) {
+			stageTimer.endParse(sizeIn, sizeOut);
+			stageTimer = null;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package org.xmlcml.html;
+
+/** receives timings for each stage of HtmlFactory.parse(InputStream).
+ * 
+ * set with HtmlFactory.setParseListener(). Called on the parsing thread, so implementations
+ * shared by several threads (or by a shared factory) must be thread-safe. HtmlParseMetrics aggregates 
+ * the stages across a corpus.
+ * 
+ * @author pm286
+ *
+ */
+public interface HtmlParseListener {
+
+	/** a stage has finished.
+	 * 
+	 * @param stage
+	 * @param nanos wall time
+	 * @param sizeIn characters going into the stage (-1 if not known)
+	 * @param sizeOut characters (or elements for tree stages) coming out (-1 if not known)
+	 * @param allocatedBytes bytes allocated by this thread during the stage (-1 if the JVM cannot measure it)
+	 */
+	void stageCompleted(HtmlParseStage stage, long nanos, long sizeIn, long sizeOut, long allocatedBytes);
+}
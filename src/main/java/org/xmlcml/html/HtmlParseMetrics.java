@@ -0,0 +1,187 @@
+package org.xmlcml.html;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** thread-safe aggregation of HtmlParseListener timings across many parses.
+ * 
+ * for each HtmlParseStage keeps counts, totals and power-of-two histograms of time, 
+ * output size and allocated bytes.
+ * <pre>
+ * HtmlParseMetrics metrics = new HtmlParseMetrics();
+ * HtmlFactory htmlFactory = HtmlFactory.builder().setParseListener(metrics).build();
+ * ... parse corpus ...
+ * LOG.debug(metrics);
+ * metrics.writeHistograms(writer);
+ * </pre>
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlParseMetrics implements HtmlParseListener {
+
+	/** bucket i holds values v with 2^(i-1) <= v < 2^i (bucket 0 holds 0). */
+	public static final int BUCKETS = 64;
+
+	/** totals and histograms for one stage.
+	 */
+	public static class StageMetrics {
+		private AtomicLong count = new AtomicLong();
+		private AtomicLong totalNanos = new AtomicLong();
+		private AtomicLong totalSizeIn = new AtomicLong();
+		private AtomicLong totalSizeOut = new AtomicLong();
+		private AtomicLong totalAllocatedBytes = new AtomicLong();
+		private AtomicLongArray nanosHistogram = new AtomicLongArray(BUCKETS);
+		private AtomicLongArray sizeOutHistogram = new AtomicLongArray(BUCKETS);
+		private AtomicLongArray allocatedBytesHistogram = new AtomicLongArray(BUCKETS);
+
+		void add(long nanos, long sizeIn, long sizeOut, long allocatedBytes) {
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			nanosHistogram.incrementAndGet(bucket(nanos));
+			if (sizeIn >= 0) {
+				totalSizeIn.addAndGet(sizeIn);
+			}
+			if (sizeOut >= 0) {
+				totalSizeOut.addAndGet(sizeOut);
+				sizeOutHistogram.incrementAndGet(bucket(sizeOut));
+			}
+			if (allocatedBytes >= 0) {
+				totalAllocatedBytes.addAndGet(allocatedBytes);
+				allocatedBytesHistogram.incrementAndGet(bucket(allocatedBytes));
+			}
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getTotalNanos() {
+			return totalNanos.get();
+		}
+
+		public long getTotalSizeIn() {
+			return totalSizeIn.get();
+		}
+
+		public long getTotalSizeOut() {
+			return totalSizeOut.get();
+		}
+
+		public long getTotalAllocatedBytes() {
+			return totalAllocatedBytes.get();
+		}
+
+		public long[] getNanosHistogram() {
+			return toArray(nanosHistogram);
+		}
+
+		public long[] getSizeOutHistogram() {
+			return toArray(sizeOutHistogram);
+		}
+
+		public long[] getAllocatedBytesHistogram() {
+			return toArray(allocatedBytesHistogram);
+		}
+	}
+
+	private Map<HtmlParseStage, StageMetrics> metricsByStage;
+
+	public HtmlParseMetrics() {
+		reset();
+	}
+
+	@Override
+	public void stageCompleted(HtmlParseStage stage, long nanos, long sizeIn, long sizeOut, long allocatedBytes) {
+		metricsByStage.get(stage).add(nanos, sizeIn, sizeOut, allocatedBytes);
+	}
+
+	public StageMetrics getStageMetrics(HtmlParseStage stage) {
+		return metricsByStage.get(stage);
+	}
+
+	/** clear all counts.
+	 * 
+	 * not atomic with respect to parses running at the same time.
+	 */
+	public void reset() {
+		Map<HtmlParseStage, StageMetrics> map = new EnumMap<HtmlParseStage, StageMetrics>(HtmlParseStage.class);
+		for (HtmlParseStage stage : HtmlParseStage.values()) {
+			map.put(stage, new StageMetrics());
+		}
+		metricsByStage = map;
+	}
+
+	/** bucket for a value.
+	 * 
+	 * @param value
+	 * @return 0 for 0, else 1 + floor(log2(value))
+	 */
+	public static int bucket(long value) {
+		return value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+	}
+
+	/** smallest value in a bucket.
+	 * 
+	 * @param bucket
+	 * @return
+	 */
+	public static long bucketLowerBound(int bucket) {
+		return bucket == 0 ? 0 : 1L << (bucket - 1);
+	}
+
+	/** writes non-empty histogram buckets as tab-separated lines.
+	 * 
+	 * columns: stage, measure (nanos, sizeOut, allocatedBytes), bucket lower bound, count.
+	 * 
+	 * @param appendable
+	 * @throws IOException
+	 */
+	public void writeHistograms(Appendable appendable) throws IOException {
+		appendable.append("stage\tmeasure\tlowerBound\tcount\n");
+		for (HtmlParseStage stage : HtmlParseStage.values()) {
+			StageMetrics stageMetrics = metricsByStage.get(stage);
+			writeHistogram(appendable, stage, "nanos", stageMetrics.getNanosHistogram());
+			writeHistogram(appendable, stage, "sizeOut", stageMetrics.getSizeOutHistogram());
+			writeHistogram(appendable, stage, "allocatedBytes", stageMetrics.getAllocatedBytesHistogram());
+		}
+	}
+
+	private static void writeHistogram(Appendable appendable, HtmlParseStage stage, String measure, long[] histogram) throws IOException {
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] > 0) {
+				appendable.append(stage+"\t"+measure+"\t"+bucketLowerBound(i)+"\t"+histogram[i]+"\n");
+			}
+		}
+	}
+
+	private static long[] toArray(AtomicLongArray array) {
+		long[] values = new long[array.length()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = array.get(i);
+		}
+		return values;
+	}
+
+	/** summary table: stage, count, total ms, mean us, total size in/out, total allocated MB.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-14s %8s %10s %10s %12s %12s %10s%n", "stage", "count", "ms", "mean_us", "sizeIn", "sizeOut", "allocMB"));
+		for (HtmlParseStage stage : HtmlParseStage.values()) {
+			StageMetrics m = metricsByStage.get(stage);
+			long count = m.getCount();
+			if (count == 0) {
+				continue;
+			}
+			sb.append(String.format("%-14s %8d %10.1f %10.1f %12d %12d %10.1f%n", stage, count,
+					m.getTotalNanos() / 1.0e6, m.getTotalNanos() / 1.0e3 / count,
+					m.getTotalSizeIn(), m.getTotalSizeOut(), m.getTotalAllocatedBytes() / (1024.0 * 1024.0)));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,29 @@
+package org.xmlcml.html;
+
+/** stages of HtmlFactory.parse(InputStream) reported to an HtmlParseListener.
+ * 
+ * @author pm286
+ *
+ */
+public enum HtmlParseStage {
+	/** reading the input into a string. */
+	READ,
+	/** string-level cleaning (regex chain or HtmlPreprocessor). */
+	PREPROCESS,
+	/** Jsoup.parse and normalise. */
+	JSOUP_PARSE,
+	/** converting the Jsoup tree to HtmlElements. */
+	JSOUP_TO_HTML,
+	/** toXML of the Jsoup-derived tree (legacy pipeline). */
+	SERIALIZE,
+	/** unescaping entities re-escaped by Jsoup (legacy pipeline). */
+	UNESCAPE,
+	/** removing attribute debris left by tidying. */
+	TIDY_ERRORS,
+	/** XOM parse of the well-formed XML. */
+	XOM_PARSE,
+	/** parse0: building HtmlElements from the XOM tree. */
+	BUILD,
+	/** the whole parse. */
+	TOTAL,
+}
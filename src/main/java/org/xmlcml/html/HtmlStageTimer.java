@@ -0,0 +1,73 @@
+package org.xmlcml.html;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/** times the stages of one parse for an HtmlParseListener.
+ * 
+ * created only if a listener is set, so parses without one pay nothing.
+ * 
+ * @author pm286
+ *
+ */
+class HtmlStageTimer {
+
+	private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = createAllocationBean();
+
+	private HtmlParseListener listener;
+	private long parseStartNanos;
+	private long parseStartAllocated;
+	private long stageStartNanos;
+	private long stageStartAllocated;
+
+	HtmlStageTimer(HtmlParseListener listener) {
+		this.listener = listener;
+		parseStartNanos = System.nanoTime();
+		parseStartAllocated = allocatedBytes();
+		stageStartNanos = parseStartNanos;
+		stageStartAllocated = parseStartAllocated;
+	}
+
+	void startStage() {
+		stageStartNanos = System.nanoTime();
+		stageStartAllocated = allocatedBytes();
+	}
+
+	void endStage(HtmlParseStage stage, long sizeIn, long sizeOut) {
+		long nanos = System.nanoTime() - stageStartNanos;
+		long allocated = allocatedSince(stageStartAllocated);
+		listener.stageCompleted(stage, nanos, sizeIn, sizeOut, allocated);
+		startStage();
+	}
+
+	void endParse(long sizeIn, long sizeOut) {
+		long nanos = System.nanoTime() - parseStartNanos;
+		listener.stageCompleted(HtmlParseStage.TOTAL, nanos, sizeIn, sizeOut, allocatedSince(parseStartAllocated));
+	}
+
+	private static long allocatedSince(long start) {
+		return start < 0 ? -1 : allocatedBytes() - start;
+	}
+
+	private static long allocatedBytes() {
+		return ALLOCATION_BEAN == null ? -1 : ALLOCATION_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static com.sun.management.ThreadMXBean createAllocationBean() {
+		try {
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+				if (sunBean.isThreadAllocatedMemorySupported()) {
+					if (!sunBean.isThreadAllocatedMemoryEnabled()) {
+						sunBean.setThreadAllocatedMemoryEnabled(true);
+					}
+					return sunBean;
+				}
+			}
+		} catch (LinkageError | RuntimeException e) {
+			// not a HotSpot-compatible JVM
+		}
+		return null;
+	}
+}
@@ -0,0 +1,130 @@
+package org.xmlcml.html;
+
+/** bounded table of canonical strings for names and short attribute values.
+ * 
+ * <pre>
+ * String name = symbolTable.canonicalizeName(jsoupAttribute.getKey());
+ * </pre>
+ * HtmlFactory passes attribute names, namespace URIs and short attribute values (class, align, 
+ * type...) through a table while building elements, so that documents kept in memory share one 
+ * copy of each instead of a fresh String per attribute. The fresh strings become garbage at once.
+ * 
+ * the table is a fixed-size open-addressed cache: a string is looked up in a short run of slots
+ * and replaced by an equal string found there; otherwise it takes the first empty slot, or evicts 
+ * the first slot of the run when all are full. Memory is therefore bounded by the capacity, and 
+ * once the table is full rare strings simply evict each other. Values longer than the maximum length (e.g. most href and 
+ * title values) are never stored. Lookups are lock-free; concurrent writers may evict each other,
+ * which only costs sharing, never correctness.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlSymbolTable {
+
+	public static final int DEFAULT_CAPACITY = 4096;
+	public static final int DEFAULT_MAX_VALUE_LENGTH = 32;
+	private static final int PROBES = 8;
+
+	private static final String[] PRESET = {
+		"class", "id", "href", "style", "src", "alt", "title", "name", "type", "rel", "lang", "dir",
+		"colspan", "rowspan", "width", "height", "align", "valign", "border", "cellpadding", "cellspacing",
+		"content", "http-equiv", "charset", "target", "scope", "headers", "role", "tabindex", "value",
+		"data-type", "xml:lang", "left", "right", "center", "top", "middle", "bottom", "text/css", 
+		"text/javascript", "stylesheet", "_blank", "1", "2", "0",
+		HtmlElement.XHTML_NS, "http://www.w3.org/XML/1998/namespace", "",
+	};
+
+	private static final HtmlSymbolTable DEFAULT = new HtmlSymbolTable();
+
+	private final String[] table;
+	private final int mask;
+	private final int maxValueLength;
+
+	/** default capacity and maximum value length.
+	 */
+	public HtmlSymbolTable() {
+		this(DEFAULT_CAPACITY, DEFAULT_MAX_VALUE_LENGTH);
+	}
+
+	/** 
+	 * @param capacity rounded up to a power of 2
+	 * @param maxValueLength longer values are not canonicalized
+	 */
+	public HtmlSymbolTable(int capacity, int maxValueLength) {
+		int size = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+		this.table = new String[size];
+		this.mask = size - 1;
+		this.maxValueLength = maxValueLength;
+		for (String s : PRESET) {
+			canonicalizeName(s);
+		}
+	}
+
+	/** shared table used by HtmlFactory unless set otherwise.
+	 * 
+	 * @return
+	 */
+	public static HtmlSymbolTable getDefault() {
+		return DEFAULT;
+	}
+
+	/** canonical copy of a name (attribute name, tag, namespace URI).
+	 * 
+	 * @param s
+	 * @return equal string (s itself if not seen before or evicted); null for null
+	 */
+	public String canonicalizeName(String s) {
+		if (s == null) {
+			return null;
+		}
+		int h = hash(s);
+		for (int i = 0; i < PROBES; i++) {
+			int slot = (h + i) & mask;
+			String canonical = table[slot];
+			if (canonical == null) {
+				table[slot] = s;
+				return s;
+			} else if (canonical == s || canonical.equals(s)) {
+				return canonical;
+			}
+		}
+		table[h & mask] = s;
+		return s;
+	}
+
+	/** canonical copy of a short attribute value.
+	 * 
+	 * @param s
+	 * @return s unchanged if longer than the maximum value length
+	 */
+	public String canonicalizeValue(String s) {
+		return s == null || s.length() > maxValueLength ? s : canonicalizeName(s);
+	}
+
+	public int getCapacity() {
+		return table.length;
+	}
+
+	public int getMaxValueLength() {
+		return maxValueLength;
+	}
+
+	/** number of occupied slots (approximate under concurrent use).
+	 * 
+	 * @return
+	 */
+	public int size() {
+		int size = 0;
+		for (String s : table) {
+			if (s != null) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	private static int hash(String s) {
+		int h = s.hashCode();
+		return h ^ (h >>> 16);
+	}
+}
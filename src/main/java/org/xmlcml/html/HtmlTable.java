@@ -23,7 +23,6 @@ import org.apache.log4j.Logger;
 import org.xmlcml.html.util.HtmlUtil;
 
 import nu.xom.Attribute;
-import nu.xom.Nodes;
 
 
 /** 
@@ -93,14 +92,13 @@ public class HtmlTable extends HtmlElement {
 		HtmlTr tr = null;
 		if (rows.size() > 0) {
 			// might be a <tbody>
-			Nodes trthNodes = this.query(".//*[local-name()='tr' and *[local-name()='th']]");
 			// some tables have more than one th row
-			if (trthNodes.size() >= 1) {
-//				Element elem = (Element) this.getChildElements().get(0);
-//				if (elem.equals(trthNodes.get(0))) {
-					tr = (HtmlTr) trthNodes.get(0);
-//				}
-			}	
+			for (HtmlTr trth : this.descendants(HtmlTr.class)) {
+				if (trth.children(HtmlTh.TAG).first() != null) {
+					tr = trth;
+					break;
+				}
+			}
 		}
 		return tr;
 	}
@@ -108,13 +106,33 @@ public class HtmlTable extends HtmlElement {
 	public List<HtmlTr> getTrTdRows() {
 		List<HtmlTr> rows = new ArrayList<HtmlTr>();
 		// might be a <tbody>
-		Nodes trthNodes = this.query(".//*[local-name()='tr' and *[local-name()='td']]");
-		for (int i = 0; i < trthNodes.size(); i++) {
-			rows.add((HtmlTr)trthNodes.get(i));
+		for (HtmlTr tr : this.descendants(HtmlTr.class)) {
+			if (tr.children(HtmlTd.TAG).first() != null) {
+				rows.add(tr);
+			}
 		}
 		return rows;
 	}
 
+	/** immutable rows x columns model with colspan/rowspan expanded.
+	 * 
+	 * builds the model in one pass; use it instead of getRows()/HtmlTr.getTd() 
+	 * when accessing many cells.
+	 * 
+	 * @return
+	 */
+	public HtmlTableGrid toGrid() {
+		return new HtmlTableGrid(this);
+	}
+
+	/** body columns with inferred types (integer, decimal, percentage, value &plusmn; error, string).
+	 * 
+	 * @return see HtmlTableColumn
+	 */
+	public List<HtmlTableColumn> getTypedColumns() {
+		return toGrid().getTypedColumns();
+	}
+
 	public void setBorder(int i) {
 		this.addAttribute(new Attribute("border", ""+i));
 	}
@@ -0,0 +1,281 @@
+package org.xmlcml.html;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/** one table column with an inferred type, held as primitive arrays plus a null bitmap.
+ * 
+ * <pre>
+ * for (HtmlTableColumn column : table.getTypedColumns()) {
+ *     if (column.getType() == HtmlTableColumn.Type.DECIMAL) {
+ *         double[] values = column.getDoubles();
+ *         ...column.isNull(row)...
+ *     }
+ * }
+ * </pre>
+ * recognized cell forms (after trimming and mapping the unicode minus):
+ * <ul>
+ * <li>INTEGER: -12, 1,024 (fits in a long); commas must be thousands separators, so "1,5" is not a number</li>
+ * <li>DECIMAL: 1.5, .5, 1.2e-3, 1.2 x 10-3, 1.2×10^-3</li>
+ * <li>PERCENTAGE: 12.5% (stored as written, i.e. 12.5, not 0.125)</li>
+ * <li>VALUE_ERROR: 1.5 ± 0.2, 1.5 +/- 0.2 (value and error in separate arrays)</li>
+ * </ul>
+ * any of these may carry a unit suffix starting with a letter, µ or ° (e.g. "12 mg", "3.5kDa", "2 mg/L"),
+ * so fractions such as "1/2" are not numbers; a column is numeric only if all
+ * its non-null cells share the same unit, which is then available from getUnit(). Empty cells and 
+ * the usual placeholders ("-", "NA", "n/a", "nd", "ND") are null. Any other cell makes the column STRING.
+ * A column with no non-null cells is EMPTY.
+ * 
+ * numeric columns never hold a String per cell; only STRING columns keep the cell text.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlTableColumn {
+	private static final Logger LOG = Logger.getLogger(HtmlTableColumn.class);
+
+	/** ordered by widening: a numeric column takes the widest type of its cells. */
+	public enum Type {EMPTY, INTEGER, DECIMAL, PERCENTAGE, VALUE_ERROR, STRING}
+
+	private static final String NUMBER = "[+-]?(?:(?:\\d{1,3}(?:,\\d{3})+|\\d+)(?:\\.\\d*)?|\\.\\d+)";
+	private static final Pattern CELL = Pattern.compile(
+			"("+NUMBER+")"
+			// longer exponents are out of double range (and of Integer.parseInt)
+			+ "(?:[eE]([+-]?\\d{1,4})|\\s*[x\u00d7]\\s*10\\^?([+-]?\\d{1,4}))?"
+			+ "(?:\\s*(?:\u00b1|\\+/-|\\+-)\\s*("+NUMBER+"))?"
+			+ "\\s*(%|[A-Za-z\u00b5\u03bc\u00b0][A-Za-z0-9\u00b5\u03bc\u00b0/\\^\\-]*)?");
+	private static final String[] NULL_VALUES = {"", "-", "\u2013", "\u2014", "NA", "N/A", "n/a", "na", "nd", "ND", "n.d."};
+
+	private String name;
+	private String unit;
+	private Type type;
+	private int rowCount;
+	private BitSet nulls;
+	private long[] longs;
+	private double[] doubles;
+	private double[] errors;
+	private String[] strings;
+
+	HtmlTableColumn(String name, String unit, Type type, int rowCount, BitSet nulls,
+			long[] longs, double[] doubles, double[] errors, String[] strings) {
+		this.name = name;
+		this.unit = unit;
+		this.type = type;
+		this.rowCount = rowCount;
+		this.nulls = nulls;
+		this.longs = longs;
+		this.doubles = doubles;
+		this.errors = errors;
+		this.strings = strings;
+	}
+
+	/** infer type and parse values.
+	 * 
+	 * @param name column name (may be null)
+	 * @param values cell values (null or placeholders are null cells)
+	 * @return
+	 */
+	public static HtmlTableColumn createColumn(String name, List<String> values) {
+		int rowCount = values.size();
+		BitSet nulls = new BitSet(rowCount);
+		Matcher matcher = CELL.matcher("");
+		Type type = Type.EMPTY;
+		String unit = null;
+		// pass 1: type and unit only
+		for (int row = 0; row < rowCount; row++) {
+			String value = clean(values.get(row));
+			if (value == null) {
+				nulls.set(row);
+				continue;
+			}
+			if (!matcher.reset(value).matches()) {
+				type = Type.STRING;
+				break;
+			}
+			String cellUnit = matcher.group(5);
+			if (type != Type.EMPTY && !equal(unit, cellUnit)) {
+				type = Type.STRING;
+				break;
+			}
+			unit = cellUnit;
+			Type cellType = cellType(matcher);
+			if (cellType.compareTo(type) > 0) {
+				type = cellType;
+			}
+		}
+		if (type == Type.STRING) {
+			String[] strings = values.toArray(new String[rowCount]);
+			nulls.clear();
+			for (int row = 0; row < rowCount; row++) {
+				if (clean(strings[row]) == null) {
+					nulls.set(row);
+				}
+			}
+			return new HtmlTableColumn(name, null, Type.STRING, rowCount, nulls, null, null, null, strings);
+		}
+		// pass 2: values
+		long[] longs = type == Type.INTEGER ? new long[rowCount] : null;
+		double[] doubles = type == Type.INTEGER || type == Type.EMPTY ? null : new double[rowCount];
+		double[] errors = type == Type.VALUE_ERROR ? new double[rowCount] : null;
+		for (int row = 0; row < rowCount; row++) {
+			if (nulls.get(row)) {
+				if (doubles != null) {
+					doubles[row] = Double.NaN;
+				}
+				if (errors != null) {
+					errors[row] = Double.NaN;
+				}
+				continue;
+			}
+			matcher.reset(clean(values.get(row))).matches();
+			if (longs != null) {
+				longs[row] = Long.parseLong(stripPlus(number(matcher.group(1))));
+			} else {
+				doubles[row] = parseValue(matcher);
+				if (errors != null) {
+					errors[row] = matcher.group(4) == null ? Double.NaN : Double.parseDouble(number(matcher.group(4)));
+				}
+			}
+		}
+		return new HtmlTableColumn(name, type == Type.PERCENTAGE ? null : unit, type, rowCount, nulls, longs, doubles, errors, null);
+	}
+
+	private static Type cellType(Matcher matcher) {
+		if (matcher.group(4) != null) {
+			return Type.VALUE_ERROR;
+		} else if ("%".equals(matcher.group(5))) {
+			return Type.PERCENTAGE;
+		}
+		String number = number(matcher.group(1));
+		if (matcher.group(2) != null || matcher.group(3) != null || number.indexOf('.') != -1) {
+			return Type.DECIMAL;
+		}
+		// too long for a long
+		return number.length() > 18 ? Type.DECIMAL : Type.INTEGER;
+	}
+
+	private static double parseValue(Matcher matcher) {
+		double value = Double.parseDouble(number(matcher.group(1)));
+		String exponent = matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+		if (exponent != null) {
+			value *= Math.pow(10, Integer.parseInt(stripPlus(exponent)));
+		}
+		return value;
+	}
+
+	/** number without thousands separators. */
+	private static String number(String s) {
+		return s.indexOf(',') == -1 ? s : s.replace(",", "");
+	}
+
+	private static String stripPlus(String s) {
+		return s.startsWith("+") ? s.substring(1) : s;
+	}
+
+	/** trimmed value or null for null cells. */
+	private static String clean(String value) {
+		if (value == null) {
+			return null;
+		}
+		value = value.trim();
+		for (String nullValue : NULL_VALUES) {
+			if (nullValue.equals(value)) {
+				return null;
+			}
+		}
+		if (value.indexOf('\u2212') != -1) {
+			value = value.replace('\u2212', '-');
+		}
+		return value;
+	}
+
+	private static boolean equal(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** common unit suffix of numeric cells ("%" only for VALUE_ERROR; PERCENTAGE implies it).
+	 * 
+	 * @return null if none
+	 */
+	public String getUnit() {
+		return unit;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/** 
+	 * @param row
+	 * @return true if cell is empty or a placeholder
+	 */
+	public boolean isNull(int row) {
+		return nulls.get(row);
+	}
+
+	/** bit set for each null row (live; do not modify).
+	 * 
+	 * @return
+	 */
+	public BitSet getNulls() {
+		return nulls;
+	}
+
+	/** values of an INTEGER column (0 in null rows).
+	 * 
+	 * @return null for other types
+	 */
+	public long[] getLongs() {
+		return longs;
+	}
+
+	/** values of a DECIMAL, PERCENTAGE or VALUE_ERROR column, or of an INTEGER column as doubles.
+	 * 
+	 * NaN in null rows.
+	 * 
+	 * @return null for STRING and EMPTY columns
+	 */
+	public double[] getDoubles() {
+		if (doubles == null && longs != null) {
+			double[] d = new double[rowCount];
+			for (int row = 0; row < rowCount; row++) {
+				d[row] = nulls.get(row) ? Double.NaN : longs[row];
+			}
+			return d;
+		}
+		return doubles;
+	}
+
+	/** errors of a VALUE_ERROR column (NaN where absent).
+	 * 
+	 * @return null for other types
+	 */
+	public double[] getErrors() {
+		return errors;
+	}
+
+	/** cell text of a STRING column.
+	 * 
+	 * @return null for other types
+	 */
+	public String[] getStrings() {
+		return strings;
+	}
+
+	@Override
+	public String toString() {
+		return name+" ("+type+(unit == null ? "" : " "+unit)+", "+rowCount+" rows, "+nulls.cardinality()+" null)";
+	}
+}
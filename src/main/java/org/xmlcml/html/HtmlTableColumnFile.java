@@ -0,0 +1,218 @@
+package org.xmlcml.html;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/** compact binary columnar file for HtmlTableColumns.
+ * 
+ * layout (big-endian, DataOutputStream):
+ * <pre>
+ * int magic "HTC1", int columnCount
+ * per column:
+ *   string name, string unit, byte type, int rowCount
+ *   int nullWordCount, long[nullWordCount] null bitmap (BitSet.toLongArray())
+ *   INTEGER: long[rowCount]
+ *   DECIMAL, PERCENTAGE: double[rowCount]
+ *   VALUE_ERROR: double[rowCount] values, double[rowCount] errors
+ *   STRING: string[rowCount]
+ *   EMPTY: nothing
+ * string: int byteLength (-1 for null), UTF-8 bytes
+ * </pre>
+ * each column is written as contiguous primitives, so readers in other languages can 
+ * map it directly to arrays.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlTableColumnFile {
+
+	public static final int MAGIC = 0x48544331;
+
+	/** write columns to file.
+	 * 
+	 * @param columns
+	 * @param file
+	 */
+	public static void write(List<HtmlTableColumn> columns, File file) {
+		try (OutputStream os = new FileOutputStream(file)) {
+			write(columns, os);
+		} catch (IOException e) {
+			throw new RuntimeException("cannot write "+file, e);
+		}
+	}
+
+	/** write columns.
+	 * 
+	 * @param columns
+	 * @param os flushed, not closed
+	 */
+	public static void write(List<HtmlTableColumn> columns, OutputStream os) {
+		try {
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os));
+			dos.writeInt(MAGIC);
+			dos.writeInt(columns.size());
+			for (HtmlTableColumn column : columns) {
+				writeColumn(column, dos);
+			}
+			dos.flush();
+		} catch (IOException e) {
+			throw new RuntimeException("cannot write columns", e);
+		}
+	}
+
+	private static void writeColumn(HtmlTableColumn column, DataOutputStream dos) throws IOException {
+		int rowCount = column.getRowCount();
+		writeString(column.getName(), dos);
+		writeString(column.getUnit(), dos);
+		dos.writeByte(column.getType().ordinal());
+		dos.writeInt(rowCount);
+		long[] words = column.getNulls().toLongArray();
+		dos.writeInt(words.length);
+		for (long word : words) {
+			dos.writeLong(word);
+		}
+		switch (column.getType()) {
+		case INTEGER:
+			for (long l : column.getLongs()) {
+				dos.writeLong(l);
+			}
+			break;
+		case DECIMAL:
+		case PERCENTAGE:
+			writeDoubles(column.getDoubles(), dos);
+			break;
+		case VALUE_ERROR:
+			writeDoubles(column.getDoubles(), dos);
+			writeDoubles(column.getErrors(), dos);
+			break;
+		case STRING:
+			for (String s : column.getStrings()) {
+				writeString(s, dos);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static void writeDoubles(double[] doubles, DataOutputStream dos) throws IOException {
+		for (double d : doubles) {
+			dos.writeDouble(d);
+		}
+	}
+
+	private static void writeString(String s, DataOutputStream dos) throws IOException {
+		if (s == null) {
+			dos.writeInt(-1);
+		} else {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			dos.writeInt(bytes.length);
+			dos.write(bytes);
+		}
+	}
+
+	/** read columns from file.
+	 * 
+	 * @param file
+	 * @return
+	 */
+	public static List<HtmlTableColumn> read(File file) {
+		try (InputStream is = new FileInputStream(file)) {
+			return read(is);
+		} catch (IOException e) {
+			throw new RuntimeException("cannot read "+file, e);
+		}
+	}
+
+	/** read columns.
+	 * 
+	 * @param is not closed
+	 * @return
+	 */
+	public static List<HtmlTableColumn> read(InputStream is) {
+		try {
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(is));
+			if (dis.readInt() != MAGIC) {
+				throw new RuntimeException("not a column file");
+			}
+			int columnCount = dis.readInt();
+			List<HtmlTableColumn> columns = new ArrayList<HtmlTableColumn>(columnCount);
+			for (int i = 0; i < columnCount; i++) {
+				columns.add(readColumn(dis));
+			}
+			return columns;
+		} catch (IOException e) {
+			throw new RuntimeException("cannot read columns", e);
+		}
+	}
+
+	private static HtmlTableColumn readColumn(DataInputStream dis) throws IOException {
+		String name = readString(dis);
+		String unit = readString(dis);
+		HtmlTableColumn.Type type = HtmlTableColumn.Type.values()[dis.readByte()];
+		int rowCount = dis.readInt();
+		long[] words = new long[dis.readInt()];
+		for (int i = 0; i < words.length; i++) {
+			words[i] = dis.readLong();
+		}
+		long[] longs = null;
+		double[] doubles = null;
+		double[] errors = null;
+		String[] strings = null;
+		switch (type) {
+		case INTEGER:
+			longs = new long[rowCount];
+			for (int row = 0; row < rowCount; row++) {
+				longs[row] = dis.readLong();
+			}
+			break;
+		case DECIMAL:
+		case PERCENTAGE:
+			doubles = readDoubles(rowCount, dis);
+			break;
+		case VALUE_ERROR:
+			doubles = readDoubles(rowCount, dis);
+			errors = readDoubles(rowCount, dis);
+			break;
+		case STRING:
+			strings = new String[rowCount];
+			for (int row = 0; row < rowCount; row++) {
+				strings[row] = readString(dis);
+			}
+			break;
+		default:
+			break;
+		}
+		return new HtmlTableColumn(name, unit, type, rowCount, BitSet.valueOf(words), longs, doubles, errors, strings);
+	}
+
+	private static double[] readDoubles(int rowCount, DataInputStream dis) throws IOException {
+		double[] doubles = new double[rowCount];
+		for (int row = 0; row < rowCount; row++) {
+			doubles[row] = dis.readDouble();
+		}
+		return doubles;
+	}
+
+	private static String readString(DataInputStream dis) throws IOException {
+		int length = dis.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		dis.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,432 @@
+package org.xmlcml.html;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.xmlcml.html.util.HtmlUtil;
+
+/** immutable rows x columns model of an HtmlTable with colspan/rowspan expanded.
+ * 
+ * <pre>
+ * HtmlTableGrid grid = table.toGrid();
+ * String value = grid.getValue(row, col);
+ * double[] savings = grid.getDoubleColumn(1);
+ * </pre>
+ * built in one pass over the table (HtmlTable.toGrid()); afterwards every cell is an array
+ * lookup. A spanning cell occupies every slot it covers (as in colspan.html), so getCell() returns the
+ * same HtmlTh/HtmlTd for each; isSpanOrigin() is true only at its top-left slot. Slots not covered
+ * by any cell (ragged rows) are null.
+ * 
+ * header rows are those in thead plus any leading rows (before the first td) consisting only 
+ * of th; footer rows come from tfoot. Body rows are numbered from 0 independently of the header.
+ * 
+ * the grid is a snapshot: later changes to the table are not reflected.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlTableGrid {
+	private static final Logger LOG = Logger.getLogger(HtmlTableGrid.class);
+
+	private static final String COLSPAN = "colspan";
+	private static final String ROWSPAN = "rowspan";
+	/** guard against absurd spans in bad HTML. */
+	private static final int MAX_SPAN = 1000;
+
+	private int columnCount;
+	private int headerRowCount;
+	private int bodyRowCount;
+	private int footerRowCount;
+	/** all rows (header, body, footer) flattened row-major. */
+	private HtmlElement[] cells;
+	private String[] values;
+	private boolean[] origins;
+
+	HtmlTableGrid(HtmlTable table) {
+		List<HtmlTr> headerRows = new ArrayList<HtmlTr>();
+		List<HtmlTr> bodyRows = new ArrayList<HtmlTr>();
+		List<HtmlTr> footerRows = new ArrayList<HtmlTr>();
+		for (HtmlElement child : table.children(HtmlElement.class)) {
+			if (child instanceof HtmlThead) {
+				addRows(child, headerRows);
+			} else if (child instanceof HtmlTfoot) {
+				addRows(child, footerRows);
+			} else if (child instanceof HtmlTbody) {
+				addRows(child, bodyRows);
+			} else if (child instanceof HtmlTr) {
+				bodyRows.add((HtmlTr) child);
+			}
+		}
+		while (bodyRows.size() > 0 && isThRow(bodyRows.get(0))) {
+			headerRows.add(bodyRows.remove(0));
+		}
+		List<HtmlElement[]> header = layout(headerRows);
+		List<HtmlElement[]> body = layout(bodyRows);
+		List<HtmlElement[]> footer = layout(footerRows);
+		headerRowCount = header.size();
+		bodyRowCount = body.size();
+		footerRowCount = footer.size();
+		columnCount = Math.max(width(header), Math.max(width(body), width(footer)));
+		int rowCount = headerRowCount + bodyRowCount + footerRowCount;
+		cells = new HtmlElement[rowCount * columnCount];
+		values = new String[cells.length];
+		origins = new boolean[cells.length];
+		int row = 0;
+		for (List<HtmlElement[]> section : Arrays.asList(header, body, footer)) {
+			for (HtmlElement[] sectionRow : section) {
+				System.arraycopy(sectionRow, 0, cells, row * columnCount, Math.min(sectionRow.length, columnCount));
+				row++;
+			}
+		}
+		fillValues(rowCount);
+	}
+
+	private static void addRows(HtmlElement section, List<HtmlTr> rows) {
+		for (HtmlTr tr : section.children(HtmlTr.class)) {
+			rows.add(tr);
+		}
+	}
+
+	private static boolean isThRow(HtmlTr tr) {
+		return tr.children(HtmlTh.TAG).first() != null && tr.children(HtmlTd.TAG).first() == null;
+	}
+
+	/** HTML table layout within one section; rowspans do not cross sections. */
+	private static List<HtmlElement[]> layout(List<HtmlTr> trs) {
+		List<HtmlElement[]> grid = new ArrayList<HtmlElement[]>();
+		for (int r = 0; r < trs.size(); r++) {
+			int col = 0;
+			for (HtmlElement cell : trs.get(r).children(HtmlElement.class)) {
+				if (!(cell instanceof HtmlTd) && !(cell instanceof HtmlTh)) {
+					continue;
+				}
+				HtmlElement[] rowCells = ensureRow(grid, r, col + 1);
+				while (col < rowCells.length && rowCells[col] != null) {
+					col++;
+				}
+				int colspan = getSpan(cell, COLSPAN, 1);
+				int rowspan = getSpan(cell, ROWSPAN, trs.size() - r);
+				rowspan = Math.min(rowspan, trs.size() - r);
+				for (int rr = r; rr < r + rowspan; rr++) {
+					HtmlElement[] spanRow = ensureRow(grid, rr, col + colspan);
+					for (int cc = col; cc < col + colspan; cc++) {
+						if (spanRow[cc] == null) {
+							spanRow[cc] = cell;
+						}
+					}
+				}
+				col += colspan;
+			}
+			ensureRow(grid, r, 0);
+		}
+		return grid;
+	}
+
+	/** row r with at least width slots. */
+	private static HtmlElement[] ensureRow(List<HtmlElement[]> grid, int r, int width) {
+		while (grid.size() <= r) {
+			grid.add(new HtmlElement[0]);
+		}
+		HtmlElement[] row = grid.get(r);
+		if (row.length < width) {
+			row = Arrays.copyOf(row, Math.max(width, 2 * row.length));
+			grid.set(r, row);
+		}
+		return row;
+	}
+
+	/** 0 for rowspan means "to end of section" (returned as zeroValue). */
+	private static int getSpan(HtmlElement cell, String name, int zeroValue) {
+		String value = cell.getAttributeValue(name);
+		if (value == null) {
+			return 1;
+		}
+		try {
+			int span = Integer.parseInt(value.trim());
+			if (span == 0 && ROWSPAN.equals(name)) {
+				return Math.max(1, zeroValue);
+			}
+			return Math.max(1, Math.min(span, MAX_SPAN));
+		} catch (NumberFormatException e) {
+			LOG.trace("bad "+name+": "+value);
+			return 1;
+		}
+	}
+
+	private static int width(List<HtmlElement[]> section) {
+		int width = 0;
+		for (HtmlElement[] row : section) {
+			for (int i = row.length - 1; i >= width; i--) {
+				if (row[i] != null) {
+					width = i + 1;
+					break;
+				}
+			}
+		}
+		return width;
+	}
+
+	/** each distinct cell's text is normalized once and shared by all its slots. */
+	private void fillValues(int rowCount) {
+		for (int r = 0; r < rowCount; r++) {
+			for (int c = 0; c < columnCount; c++) {
+				int i = r * columnCount + c;
+				HtmlElement cell = cells[i];
+				if (cell == null) {
+					continue;
+				}
+				boolean leftSame = c > 0 && cells[i - 1] == cell;
+				boolean aboveSame = r > 0 && cells[i - columnCount] == cell;
+				if (leftSame) {
+					values[i] = values[i - 1];
+				} else if (aboveSame) {
+					values[i] = values[i - columnCount];
+				} else {
+					values[i] = normalize(cell.getValue());
+					origins[i] = true;
+				}
+			}
+		}
+	}
+
+	private static String normalize(String s) {
+		return HtmlUtil.normalizeWhitespace(s);
+	}
+
+	public int getColumnCount() {
+		return columnCount;
+	}
+
+	public int getHeaderRowCount() {
+		return headerRowCount;
+	}
+
+	/** number of body rows.
+	 * 
+	 * @return
+	 */
+	public int getRowCount() {
+		return bodyRowCount;
+	}
+
+	public int getFooterRowCount() {
+		return footerRowCount;
+	}
+
+	/** body cell.
+	 * 
+	 * @param row 0-based body row
+	 * @param col 0-based column
+	 * @return HtmlTd or HtmlTh covering this slot; null if none
+	 * @throws IndexOutOfBoundsException
+	 */
+	public HtmlElement getCell(int row, int col) {
+		return cells[index(headerRowCount, bodyRowCount, row, col)];
+	}
+
+	/** normalized (trimmed, whitespace-collapsed) text of body cell.
+	 * 
+	 * @param row
+	 * @param col
+	 * @return null if no cell covers this slot
+	 */
+	public String getValue(int row, int col) {
+		return values[index(headerRowCount, bodyRowCount, row, col)];
+	}
+
+	/** true if body cell is the top-left slot of its element (not a span copy).
+	 * 
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public boolean isSpanOrigin(int row, int col) {
+		return origins[index(headerRowCount, bodyRowCount, row, col)];
+	}
+
+	public HtmlElement getHeaderCell(int row, int col) {
+		return cells[index(0, headerRowCount, row, col)];
+	}
+
+	public String getHeaderValue(int row, int col) {
+		return values[index(0, headerRowCount, row, col)];
+	}
+
+	public HtmlElement getFooterCell(int row, int col) {
+		return cells[index(headerRowCount + bodyRowCount, footerRowCount, row, col)];
+	}
+
+	public String getFooterValue(int row, int col) {
+		return values[index(headerRowCount + bodyRowCount, footerRowCount, row, col)];
+	}
+
+	/** header text for column (values of all header rows, joined by " " without repeats).
+	 * 
+	 * e.g. "A A1" for the first column of colspan.html
+	 * 
+	 * @param col
+	 * @return null if there are no header rows
+	 */
+	public String getColumnHeader(int col) {
+		if (headerRowCount == 0) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		String last = null;
+		for (int r = 0; r < headerRowCount; r++) {
+			String value = getHeaderValue(r, col);
+			if (value != null && value.length() > 0 && !value.equals(last)) {
+				if (sb.length() > 0) {
+					sb.append(" ");
+				}
+				sb.append(value);
+				last = value;
+			}
+		}
+		return sb.toString();
+	}
+
+	/** body values in column (an unmodifiable view; no copying).
+	 * 
+	 * @param col
+	 * @return
+	 */
+	public List<String> getColumn(final int col) {
+		checkColumn(col);
+		final int offset = headerRowCount * columnCount + col;
+		return new AbstractList<String>() {
+			@Override
+			public String get(int row) {
+				if (row < 0 || row >= bodyRowCount) {
+					throw new IndexOutOfBoundsException("row: "+row);
+				}
+				return values[offset + row * columnCount];
+			}
+			@Override
+			public int size() {
+				return bodyRowCount;
+			}
+		};
+	}
+
+	/** body values in row.
+	 * 
+	 * @param row
+	 * @return
+	 */
+	public List<String> getRow(int row) {
+		int start = index(headerRowCount, bodyRowCount, row, 0);
+		return Collections.unmodifiableList(Arrays.asList(values).subList(start, start + columnCount));
+	}
+
+	/** body column parsed as doubles.
+	 * 
+	 * ignores leading/trailing whitespace and thousands separators (","); accepts the unicode minus.
+	 * 
+	 * @param col
+	 * @return NaN for empty or non-numeric cells
+	 */
+	public double[] getDoubleColumn(int col) {
+		checkColumn(col);
+		double[] doubles = new double[bodyRowCount];
+		int offset = headerRowCount * columnCount + col;
+		for (int row = 0; row < bodyRowCount; row++) {
+			doubles[row] = parseDouble(values[offset + row * columnCount]);
+		}
+		return doubles;
+	}
+
+	/** body column parsed as ints.
+	 * 
+	 * @param col
+	 * @param missing value for empty or non-integer cells
+	 * @return
+	 */
+	public int[] getIntColumn(int col, int missing) {
+		checkColumn(col);
+		int[] ints = new int[bodyRowCount];
+		int offset = headerRowCount * columnCount + col;
+		for (int row = 0; row < bodyRowCount; row++) {
+			String value = cleanNumber(values[offset + row * columnCount]);
+			int i = missing;
+			if (value != null) {
+				try {
+					i = Integer.parseInt(value);
+				} catch (NumberFormatException e) {
+					// missing
+				}
+			}
+			ints[row] = i;
+		}
+		return ints;
+	}
+
+	/** body column with inferred type as primitive arrays (see HtmlTableColumn).
+	 * 
+	 * @param col
+	 * @return column named by getColumnHeader(col)
+	 */
+	public HtmlTableColumn getTypedColumn(int col) {
+		return HtmlTableColumn.createColumn(getColumnHeader(col), getColumn(col));
+	}
+
+	/** all body columns with inferred types.
+	 * 
+	 * @return
+	 */
+	public List<HtmlTableColumn> getTypedColumns() {
+		List<HtmlTableColumn> columns = new ArrayList<HtmlTableColumn>(columnCount);
+		for (int col = 0; col < columnCount; col++) {
+			columns.add(getTypedColumn(col));
+		}
+		return columns;
+	}
+
+	private static double parseDouble(String value) {
+		value = cleanNumber(value);
+		if (value == null) {
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	private static String cleanNumber(String value) {
+		if (value == null || value.length() == 0) {
+			return null;
+		}
+		if (value.indexOf(',') != -1) {
+			value = value.replace(",", "");
+		}
+		if (value.indexOf('\u2212') != -1) {
+			value = value.replace('\u2212', '-');
+		}
+		return value.trim();
+	}
+
+	private int index(int firstRow, int rowCount, int row, int col) {
+		if (row < 0 || row >= rowCount) {
+			throw new IndexOutOfBoundsException("row: "+row+" (rows: "+rowCount+")");
+		}
+		checkColumn(col);
+		return (firstRow + row) * columnCount + col;
+	}
+
+	private void checkColumn(int col) {
+		if (col < 0 || col >= columnCount) {
+			throw new IndexOutOfBoundsException("column: "+col+" (columns: "+columnCount+")");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "grid: "+headerRowCount+"+"+bodyRowCount+"+"+footerRowCount+" rows x "+columnCount+" columns";
+	}
+}
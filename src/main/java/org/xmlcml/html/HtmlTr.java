@@ -60,13 +60,23 @@ public class HtmlTr extends HtmlElement {
 	}
 	
 	public HtmlTd getTd(int col) {
-		List<HtmlTd> cells = getTdChildren();
-		return (col < 0 || col >= cells.size()) ? null : (HtmlTd) cells.get(col);
+		return getCell(HtmlTd.class, col);
 	}
 	
 	public HtmlTh getTh(int col) {
-		List<HtmlTh> cells = getThChildren();
-		return (col < 0 || col >= cells.size()) ? null : (HtmlTh) cells.get(col);
+		return getCell(HtmlTh.class, col);
+	}
+
+	/** walks only as far as col; no list or XPath. */
+	private <T extends HtmlElement> T getCell(Class<T> clazz, int col) {
+		if (col >= 0) {
+			for (T cell : children(clazz)) {
+				if (col-- == 0) {
+					return cell;
+				}
+			}
+		}
+		return null;
 	}
 
 	/** convenience method to extract list of HtmlTr in element
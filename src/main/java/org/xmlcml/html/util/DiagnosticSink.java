@@ -0,0 +1,81 @@
+package org.xmlcml.html.util;
+
+import java.nio.charset.StandardCharsets;
+
+/** destination for diagnostic dumps (raw input, intermediate XML, failures).
+ * 
+ * the default is OFF, so tidying, fetching and parsing do no disk I/O unless a sink is set,
+ * either on the object (HTMLTidy, HtmlUnitWrapper, HtmlFactory) or globally with setDefault().
+ * Callers check isEnabled() before building content.
+ * 
+ * implementations must be thread-safe.
+ * 
+ * @author pm286
+ *
+ */
+public abstract class DiagnosticSink {
+
+	/** discards everything. */
+	public static final DiagnosticSink OFF = new DiagnosticSink() {
+		@Override
+		public boolean isEnabled() {
+			return false;
+		}
+		@Override
+		public void write(String name, byte[] content) {
+		}
+	};
+
+	private static volatile DiagnosticSink defaultSink = OFF;
+
+	/** sink used where none has been set explicitly.
+	 * 
+	 * @return OFF unless changed by setDefault()
+	 */
+	public static DiagnosticSink getDefault() {
+		return defaultSink;
+	}
+
+	/** change the sink used where none has been set explicitly.
+	 * 
+	 * @param sink if null, OFF
+	 */
+	public static void setDefault(DiagnosticSink sink) {
+		defaultSink = sink == null ? OFF : sink;
+	}
+
+	/** resolves an optional sink.
+	 * 
+	 * @param sink
+	 * @return sink, or getDefault() if null
+	 */
+	public static DiagnosticSink getSink(DiagnosticSink sink) {
+		return sink == null ? defaultSink : sink;
+	}
+
+	/** whether content will be recorded.
+	 * 
+	 * @return true unless OFF
+	 */
+	public boolean isEnabled() {
+		return true;
+	}
+
+	/** record a diagnostic.
+	 * 
+	 * must not throw; failures should be logged.
+	 * 
+	 * @param name short descriptive name, e.g. "htmlIn.html"; the sink makes it unique
+	 * @param content
+	 */
+	public abstract void write(String name, byte[] content);
+
+	/** record a diagnostic as UTF-8.
+	 * 
+	 * @param name
+	 * @param content
+	 */
+	public void write(String name, String content) {
+		write(name, content == null ? new byte[0] : content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,86 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+/** writes diagnostics to files in a directory.
+ * 
+ * each file is named with a sequence number, so concurrent writers never overwrite each other.
+ * Can write only every n'th diagnostic (setSampleInterval()) and can give each thread its own
+ * subdirectory (setPerThreadDirectory()).
+ * 
+ * @author pm286
+ *
+ */
+public class FileDiagnosticSink extends DiagnosticSink {
+	private static final Logger LOG = Logger.getLogger(FileDiagnosticSink.class);
+
+	private File directory;
+	private int sampleInterval;
+	private boolean perThreadDirectory;
+	private AtomicLong counter;
+
+	/**
+	 * @param directory created if necessary
+	 */
+	public FileDiagnosticSink(File directory) {
+		this.directory = directory;
+		this.sampleInterval = 1;
+		this.perThreadDirectory = false;
+		this.counter = new AtomicLong();
+	}
+
+	/** write only one diagnostic in every sampleInterval.
+	 * 
+	 * @param sampleInterval 1 (default) writes all
+	 */
+	public void setSampleInterval(int sampleInterval) {
+		if (sampleInterval < 1) {
+			throw new RuntimeException("sampleInterval must be positive: "+sampleInterval);
+		}
+		this.sampleInterval = sampleInterval;
+	}
+
+	public int getSampleInterval() {
+		return sampleInterval;
+	}
+
+	/** write into a subdirectory for each thread (named from thread name and id).
+	 * 
+	 * @param perThreadDirectory
+	 */
+	public void setPerThreadDirectory(boolean perThreadDirectory) {
+		this.perThreadDirectory = perThreadDirectory;
+	}
+
+	public boolean isPerThreadDirectory() {
+		return perThreadDirectory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public void write(String name, byte[] content) {
+		long count = counter.getAndIncrement();
+		if (count % sampleInterval != 0) {
+			return;
+		}
+		File dir = directory;
+		if (perThreadDirectory) {
+			Thread thread = Thread.currentThread();
+			dir = new File(directory, thread.getName().replaceAll("[^A-Za-z0-9_.\\-]", "_")+"-"+thread.getId());
+		}
+		File file = new File(dir, String.format("%06d", count)+"-"+name);
+		try {
+			FileUtils.writeByteArrayToFile(file, content);
+		} catch (IOException e) {
+			LOG.error("cannot write diagnostic "+file+": "+e);
+		}
+	}
+}
@@ -1,15 +1,14 @@
 package org.xmlcml.html.util;
 
+/** renames a tag or deletes it with its content.
+ * 
+ * to apply several replacements in one pass use HTMLTagReplacer.
+ * 
+ */
 public class HTMLTagReplacement {
 
 	private String oldTag;
 	private String newTag;
-	private String oldStartTag;
-	private String oldEndTag;
-	private StringBuilder sb;
-	private int idx;
-	private int emptyIdx;
-	private int endTagIdx;
 
 	/**
 	 * 
@@ -19,8 +18,6 @@ public class HTMLTagReplacement {
 	public HTMLTagReplacement(String oldTag, String newTag) {
 		this.oldTag = oldTag;
 		this.newTag = newTag;
-		this.oldStartTag = "<"+oldTag;
-		this.oldEndTag = "</"+oldTag+">";
 	}
 	
 	/**
@@ -32,40 +29,18 @@ public class HTMLTagReplacement {
 	}
 	
 	public void replaceAll(StringBuilder sb) {
-		this.sb = sb;
-		int ptr = 0;
-		while (true) {
-			idx = sb.indexOf(oldStartTag, ptr);
-			if (idx == -1) break;
-			emptyIdx = sb.indexOf("/>", idx);
-			endTagIdx = sb.indexOf(oldEndTag, idx);
-			if (emptyIdx == -1 && endTagIdx == -1) {
-				throw new RuntimeException("badly formed tag: "+oldStartTag+" at "+idx);
-			}
-			if (newTag != null) {
-				replace();
-			} else {
-				delete();
-			}
-		}
+		new HTMLTagReplacer(this).replaceAll(sb);
 	}
 
-	private void replace() {
-		// start tag
-		sb.replace(idx, idx+oldStartTag.length(), "<"+newTag);
-		// because buffer changed
-		endTagIdx = sb.indexOf(oldEndTag, idx);
-		if (endTagIdx != -1 && (emptyIdx == -1 || endTagIdx < emptyIdx)) {
-			sb.replace(endTagIdx, endTagIdx+oldEndTag.length(), "</"+newTag+">");
-		}
+	public String getOldTag() {
+		return oldTag;
 	}
-	
-	private void delete() {
-		endTagIdx = sb.indexOf(oldEndTag, idx);
-		if (endTagIdx != -1 && (emptyIdx == -1 || endTagIdx < emptyIdx)) {
-			sb.delete(idx, endTagIdx+oldEndTag.length());
-		} else {
-			sb.delete(idx, emptyIdx + 2);
-		}
+
+	/**
+	 * 
+	 * @return null if the tag is deleted
+	 */
+	public String getNewTag() {
+		return newTag;
 	}
 }
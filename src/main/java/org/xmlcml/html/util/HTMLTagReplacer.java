@@ -0,0 +1,425 @@
+package org.xmlcml.html.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** applies many HTMLTagReplacements in a single pass.
+ * 
+ * the input is scanned once and copied to a new buffer; each tag is looked up in a map
+ * of the registered replacements, so the cost is linear in the size of the document however many
+ * tags are registered. Renamed tags keep their attributes; deleted tags lose their content
+ * (nested elements of the same name are balanced, except in raw-text elements such as script).
+ * 
+ * tag names match case-insensitively and only as whole names (deleting "b" does not touch "br").
+ * Comments are copied unchanged. Each tag is rewritten at most once (if the same old tag is registered
+ * twice the first replacement is used).
+ * 
+ * createStreamRewriter() applies the same replacements to a stream (see HtmlStreamRewriter).
+ * 
+ * @author pm286
+ *
+ */
+public class HTMLTagReplacer {
+
+	private static final Set<String> RAW_TEXT_TAGS = new HashSet<String>();
+	static {
+		RAW_TEXT_TAGS.add("script");
+		RAW_TEXT_TAGS.add("style");
+	}
+	private static final String COMMENT_START = "<!--";
+	private static final String COMMENT_END = "-->";
+
+	private Map<String, HTMLTagReplacement> replacementByTag;
+	private boolean[] firstChars;
+
+	public HTMLTagReplacer() {
+		replacementByTag = new HashMap<String, HTMLTagReplacement>();
+		firstChars = new boolean[128];
+	}
+
+	public HTMLTagReplacer(List<HTMLTagReplacement> tagReplacementList) {
+		this();
+		for (HTMLTagReplacement tagReplacement : tagReplacementList) {
+			addReplacement(tagReplacement);
+		}
+	}
+
+	public HTMLTagReplacer(HTMLTagReplacement tagReplacement) {
+		this();
+		addReplacement(tagReplacement);
+	}
+
+	public void addReplacement(HTMLTagReplacement tagReplacement) {
+		String tag = tagReplacement.getOldTag().toLowerCase();
+		if (tag.length() == 0 || tag.charAt(0) >= 128) {
+			throw new RuntimeException("bad tag for replacement: "+tag);
+		}
+		if (!replacementByTag.containsKey(tag)) {
+			replacementByTag.put(tag, tagReplacement);
+			firstChars[tag.charAt(0)] = true;
+			firstChars[Character.toUpperCase(tag.charAt(0))] = true;
+		}
+	}
+
+	/** apply all replacements in place.
+	 * 
+	 * @param sb
+	 * @throws RuntimeException if a tag to replace has no closing '>' or a tag to delete is never closed
+	 */
+	public void replaceAll(StringBuilder sb) {
+		String s = replaceAll((CharSequence) sb);
+		sb.setLength(0);
+		sb.append(s);
+	}
+
+	/** apply all replacements.
+	 * 
+	 * @param in
+	 * @return new string
+	 * @throws RuntimeException if a tag to replace has no closing '>' or a tag to delete is never closed
+	 */
+	public String replaceAll(CharSequence in) {
+		int len = in.length();
+		StringBuilder out = new StringBuilder(len);
+		int copied = 0;
+		int i = 0;
+		while (i < len) {
+			int lt = indexOf(in, '<', i);
+			if (lt == -1) {
+				break;
+			}
+			if (startsWith(in, lt, COMMENT_START)) {
+				int end = indexOf(in, COMMENT_END, lt + COMMENT_START.length());
+				i = end == -1 ? len : end + COMMENT_END.length();
+				continue;
+			}
+			boolean endTag = lt + 1 < len && in.charAt(lt + 1) == '/';
+			int nameStart = endTag ? lt + 2 : lt + 1;
+			int nameEnd = nameEnd(in, nameStart);
+			HTMLTagReplacement tagReplacement = lookup(in, nameStart, nameEnd);
+			if (tagReplacement == null) {
+				i = Math.max(nameEnd, lt + 1);
+				continue;
+			}
+			String tag = tagReplacement.getOldTag();
+			int gt = tagEnd(in, nameEnd);
+			if (gt == -1) {
+				throw new RuntimeException("badly formed tag: <"+tag+" at "+lt);
+			}
+			out.append(in, copied, lt);
+			String newTag = tagReplacement.getNewTag();
+			if (newTag != null) {
+				out.append(endTag ? "</" : "<").append(newTag).append(in, nameEnd, gt + 1);
+				i = gt + 1;
+			} else if (endTag || in.charAt(gt - 1) == '/') {
+				// stray end tag or empty element
+				i = gt + 1;
+			} else {
+				i = elementEnd(in, gt + 1, tag, RAW_TEXT_TAGS.contains(tag.toLowerCase()));
+				if (i == -1) {
+					throw new RuntimeException("badly formed tag: <"+tag+" at "+lt);
+				}
+			}
+			copied = i;
+		}
+		out.append(in, copied, len);
+		return out.toString();
+	}
+
+	/** the same replacements as replaceAll(), applied chunk by chunk.
+	 * 
+	 * the rewriter holds back only a tag cut by the end of a chunk; the content of a deleted element 
+	 * is discarded as it arrives. It is stateful, so use one per document.
+	 * 
+	 * @return new rewriter
+	 * @throws RuntimeException (from the rewriter, at end of input) as replaceAll()
+	 */
+	public HtmlStreamRewriter createStreamRewriter() {
+		return new HtmlStreamRewriter() {
+			private boolean inComment;
+			private String deleteTag;
+			private boolean rawText;
+			private int depth;
+			private int offset;
+
+			@Override
+			protected int rewrite(CharSequence in, boolean endOfInput, StringBuilder out) {
+				int consumed = rewriteChunk(in, endOfInput, out);
+				offset += consumed;
+				return consumed;
+			}
+
+			private int rewriteChunk(CharSequence in, boolean endOfInput, StringBuilder out) {
+				int len = in.length();
+				int i = 0;
+				while (i < len) {
+					if (inComment) {
+						int end = indexOf(in, COMMENT_END, i);
+						if (end == -1) {
+							int consumed = endOfInput ? len : Math.max(i, len - (COMMENT_END.length() - 1));
+							copy(in, i, consumed, out);
+							if (endOfInput && deleteTag != null) {
+								throw new RuntimeException("badly formed tag: <"+deleteTag);
+							}
+							return consumed;
+						}
+						copy(in, i, end + COMMENT_END.length(), out);
+						i = end + COMMENT_END.length();
+						inComment = false;
+						continue;
+					}
+					int lt = indexOf(in, '<', i);
+					if (lt == -1) {
+						copy(in, i, len, out);
+						i = len;
+						break;
+					}
+					copy(in, i, lt, out);
+					if (!endOfInput && len - lt < COMMENT_START.length() && startsWith(COMMENT_START, in, lt)) {
+						return lt;
+					}
+					if ((deleteTag == null || !rawText) && startsWith(in, lt, COMMENT_START)) {
+						copy(in, lt, lt + COMMENT_START.length(), out);
+						i = lt + COMMENT_START.length();
+						inComment = true;
+						continue;
+					}
+					int next = deleteTag == null ? replaceTag(in, lt, endOfInput, out) : skipTag(in, lt, endOfInput);
+					if (next == -1) {
+						return lt;
+					}
+					i = next;
+				}
+				if (endOfInput && deleteTag != null) {
+					throw new RuntimeException("badly formed tag: <"+deleteTag);
+				}
+				return i;
+			}
+
+			/** copies in[from, to) unless deleting. */
+			private void copy(CharSequence in, int from, int to, StringBuilder out) {
+				if (deleteTag == null) {
+					out.append(in, from, to);
+				}
+			}
+
+			/** tag at lt outside deleted content.
+			 * 
+			 * @return index after consumed input; -1 if more input is needed
+			 */
+			private int replaceTag(CharSequence in, int lt, boolean endOfInput, StringBuilder out) {
+				int len = in.length();
+				boolean endTag = lt + 1 < len && in.charAt(lt + 1) == '/';
+				int nameStart = endTag ? lt + 2 : lt + 1;
+				int nameEnd = nameEnd(in, nameStart);
+				if (nameEnd == len && !endOfInput) {
+					return -1;
+				}
+				HTMLTagReplacement tagReplacement = lookup(in, nameStart, nameEnd);
+				if (tagReplacement == null) {
+					int next = Math.max(nameEnd, lt + 1);
+					out.append(in, lt, next);
+					return next;
+				}
+				String tag = tagReplacement.getOldTag();
+				int gt = tagEnd(in, nameEnd);
+				if (gt == -1) {
+					if (!endOfInput) {
+						return -1;
+					}
+					throw new RuntimeException("badly formed tag: <"+tag+" at "+(offset + lt));
+				}
+				String newTag = tagReplacement.getNewTag();
+				if (newTag != null) {
+					out.append(endTag ? "</" : "<").append(newTag).append(in, nameEnd, gt + 1);
+				} else if (!endTag && in.charAt(gt - 1) != '/') {
+					deleteTag = tag;
+					rawText = RAW_TEXT_TAGS.contains(tag.toLowerCase());
+					depth = 1;
+				}
+				return gt + 1;
+			}
+
+			/** tag at lt inside deleted content.
+			 * 
+			 * @return index after consumed input; -1 if more input is needed
+			 */
+			private int skipTag(CharSequence in, int lt, boolean endOfInput) {
+				int len = in.length();
+				boolean endTag = lt + 1 < len && in.charAt(lt + 1) == '/';
+				int nameStart = endTag ? lt + 2 : lt + 1;
+				if (!endOfInput && nameStart + deleteTag.length() >= len) {
+					return -1;
+				}
+				if (!matchesName(in, nameStart, deleteTag) || (rawText && !endTag)) {
+					return lt + 1;
+				}
+				int gt = tagEnd(in, nameStart + deleteTag.length());
+				if (gt == -1) {
+					if (!endOfInput) {
+						return -1;
+					}
+					throw new RuntimeException("badly formed tag: <"+deleteTag);
+				}
+				if (endTag) {
+					depth--;
+				} else if (in.charAt(gt - 1) != '/') {
+					depth++;
+				}
+				if (depth == 0) {
+					deleteTag = null;
+				}
+				return gt + 1;
+			}
+		};
+	}
+
+	/** true if the prefix of s of the length of in[pos, end) equals it. */
+	private static boolean startsWith(String s, CharSequence in, int pos) {
+		int n = in.length() - pos;
+		for (int i = 0; i < n; i++) {
+			if (in.charAt(pos + i) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** index after the end tag closing an element whose start tag ends before from.
+	 * 
+	 * @return -1 if not closed
+	 */
+	private static int elementEnd(CharSequence in, int from, String tag, boolean rawText) {
+		int len = in.length();
+		int depth = 1;
+		int i = from;
+		while (i < len) {
+			int lt = indexOf(in, '<', i);
+			if (lt == -1) {
+				return -1;
+			}
+			if (!rawText && startsWith(in, lt, COMMENT_START)) {
+				int end = indexOf(in, COMMENT_END, lt + COMMENT_START.length());
+				if (end == -1) {
+					return -1;
+				}
+				i = end + COMMENT_END.length();
+				continue;
+			}
+			boolean endTag = lt + 1 < len && in.charAt(lt + 1) == '/';
+			int nameStart = endTag ? lt + 2 : lt + 1;
+			if (!matchesName(in, nameStart, tag) || (rawText && !endTag)) {
+				i = lt + 1;
+				continue;
+			}
+			int gt = tagEnd(in, nameStart + tag.length());
+			if (gt == -1) {
+				return -1;
+			}
+			if (endTag) {
+				depth--;
+			} else if (in.charAt(gt - 1) != '/') {
+				depth++;
+			}
+			i = gt + 1;
+			if (depth == 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private HTMLTagReplacement lookup(CharSequence in, int nameStart, int nameEnd) {
+		if (nameEnd == nameStart) {
+			return null;
+		}
+		char c = in.charAt(nameStart);
+		if (c >= 128 || !firstChars[c]) {
+			return null;
+		}
+		return replacementByTag.get(in.subSequence(nameStart, nameEnd).toString().toLowerCase());
+	}
+
+	/** true if in has name (case-insensitive) at pos followed by a non-name character. */
+	private static boolean matchesName(CharSequence in, int pos, String name) {
+		int end = pos + name.length();
+		if (end > in.length()) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (Character.toLowerCase(in.charAt(pos + i)) != Character.toLowerCase(name.charAt(i))) {
+				return false;
+			}
+		}
+		return end == in.length() || !isNameChar(in.charAt(end));
+	}
+
+	private static int nameEnd(CharSequence in, int pos) {
+		int len = in.length();
+		while (pos < len && isNameChar(in.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == ':' || c == '.';
+	}
+
+	/** index of the '>' closing a tag, skipping quoted attribute values.
+	 * 
+	 * @return -1 if none
+	 */
+	private static int tagEnd(CharSequence in, int pos) {
+		int len = in.length();
+		while (pos < len) {
+			char c = in.charAt(pos);
+			if (c == '>') {
+				return pos;
+			} else if (c == '"' || c == '\'') {
+				pos = indexOf(in, c, pos + 1);
+				if (pos == -1) {
+					return -1;
+				}
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	private static int indexOf(CharSequence in, char c, int from) {
+		int len = in.length();
+		for (int i = from; i < len; i++) {
+			if (in.charAt(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int indexOf(CharSequence in, String s, int from) {
+		int last = in.length() - s.length();
+		char c0 = s.charAt(0);
+		for (int i = from; i <= last; i++) {
+			if (in.charAt(i) == c0 && startsWith(in, i, s)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean startsWith(CharSequence in, int pos, String s) {
+		if (pos + s.length() > in.length()) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (in.charAt(pos + i) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -2,16 +2,24 @@ package org.xmlcml.html.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ReaderInputStream;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.commons.io.output.WriterOutputStream;
 import org.apache.log4j.Logger;
-import org.joda.time.DateTime;
+import org.w3c.tidy.Configuration;
 import org.w3c.tidy.Tidy;
 import org.xmlcml.html.HtmlElement;
 import org.xmlcml.html.HtmlFactory;
@@ -28,19 +36,35 @@ import nu.xom.Element;
 public class HTMLTidy {
 	
 	private static final String DOCTYPE_REGEX = "<!DOCTYPE[^>]*>";
-	private static final String NEWLINE_REGEX = "[\\r\\n]+";
 	private static final String WHITESPACE = "[\\r\\n\\t]+";
 	private static final String ENDTAG_PREFIX = "(</[A-Za-z_][A-Za-z_0-9]*:)";
 	private static final String STARTTAG_PREFIX = "(<[A-Za-z_][A-Za-z_0-9]*:)";
 	private final static Logger LOG = Logger.getLogger(HTMLTidy.class);
+
+	/** one pre-configured Tidy per thread for the static methods.
+	 * 
+	 * a Tidy is not thread-safe but can parse any number of documents in sequence, so each thread
+	 * reuses its own instance and only pays the setup cost once. These instances are never
+	 * exposed or reconfigured.
+	 */
+	private static final ThreadLocal<Tidy> THREAD_TIDY = new ThreadLocal<Tidy>() {
+		@Override
+		protected Tidy initialValue() {
+			return createTidyWithOptions();
+		}
+	};
+
 	private Tidy tidy;
 	private List<HTMLTagReplacement> tagReplacementList;
+	private HTMLTagReplacer tagReplacer;
 	private ByteArrayOutputStream baos;
+	private String outputString;
 	private org.w3c.tidy.Node node;
 	private boolean stripDoctype;
 	private boolean removeXMLLang;
 	private boolean flattenNewline;
 	private boolean removeForeignPrefixes;
+	private DiagnosticSink diagnosticSink;
 
 	public HTMLTidy() {
 		tidy = createTidyWithOptions();
@@ -49,6 +73,8 @@ public class HTMLTidy {
 	
 	/**
 	 * reads HTML in inputStream and tidies it.
+	 * the charset is sniffed (BOM, meta charset; else UTF-8) by HtmlInputDecoder.
+	 * uses the calling thread's cached Tidy (see releaseThreadTidy()).
 	 * First with HTML tidy (using as many cleaning options as possible
 	 * then excises the DOCTYP and namespace from result
 	 * Tidy may throw warnings and errors to syserr than cannot be 
@@ -58,25 +84,54 @@ public class HTMLTidy {
 	 * @throws IOException
 	 */
 	public static Document htmlTidy(InputStream inputStream) throws IOException {
+		return htmlTidy(inputStream, null);
+	}
+
+	/**
+	 * as htmlTidy(InputStream) but recording the tidied output (and failing input) to diagnosticSink.
+	 * 
+	 * @param inputStream if null throws IOException
+	 * @param diagnosticSink if null uses DiagnosticSink.getDefault() (OFF unless set)
+	 * @return document with some HTML root element
+	 * @throws IOException
+	 */
+	public static Document htmlTidy(InputStream inputStream, DiagnosticSink diagnosticSink) throws IOException {
 	    	
 		if (inputStream == null) {
 			throw new RuntimeException("Null input for HTMLTidy");
 		}
-		byte[] bytesin = IOUtils.toByteArray(inputStream);
-    	Tidy tidy = createTidyWithOptions();
-    	ByteArrayInputStream bais = new ByteArrayInputStream(bytesin);
+    	DiagnosticSink sink = DiagnosticSink.getSink(diagnosticSink);
+		byte[] bytesin = null;
+		if (sink.isEnabled()) {
+			// only kept to record failing input
+			bytesin = IOUtils.toByteArray(inputStream);
+			inputStream = new ByteArrayInputStream(bytesin);
+		}
+		return tidyToDocument(HtmlInputDecoder.openReader(inputStream, HtmlInputDecoder.DEFAULT_CHARSET), bytesin, sink);
+	}
+
+	/** tidies decoded text with the thread's Tidy, which reads and writes UTF-8. */
+	private static Document tidyToDocument(Reader reader, byte[] bytesin, DiagnosticSink sink) throws IOException {
+    	Tidy tidy = THREAD_TIDY.get();
+    	InputStream in = new ReaderInputStream(reader, StandardCharsets.UTF_8, HtmlStreamRewriter.BUFFER_SIZE);
     	ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    	// FIXME
-    	org.w3c.tidy.Node doc = tidy.parse(bais, baos);
+    	tidy.parse(in, baos);
     	byte[] bytes = baos.toByteArray();
     	Document document = null;
     	try {
-    		FileUtils.writeByteArrayToFile(new File("target/htmlIn"+new DateTime().getMillisOfDay()+".html"), bytes);
-    		ByteArrayInputStream bais1 = new ByteArrayInputStream(bytes);
+    		if (sink.isEnabled()) {
+    			sink.write("htmlIn.html", bytes);
+    		}
+    		// Tidy always writes an XHTML DOCTYPE; the parser would fetch its DTD
+    		StringBuilder sb = new StringBuilder(new String(bytes, StandardCharsets.UTF_8));
+    		stripDoctype(sb);
+    		ByteArrayInputStream bais1 = new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8));
     		document = XMLUtil.parseQuietlyToDocument(bais1);
     	} catch (RuntimeException e) {
-    		FileUtils.writeByteArrayToFile(new File("target/badhtmlIn"+new DateTime().getMillisOfDay()+".html"), bytesin);
-    		FileUtils.writeByteArrayToFile(new File("target/badhtml"+new DateTime().getMillisOfDay()+".html"), bytes);
+    		if (sink.isEnabled() && bytesin != null) {
+    			sink.write("badhtmlIn.html", bytesin);
+    			sink.write("badhtml.html", bytes);
+    		}
     		throw e;
     	}
 //    	baos.close();
@@ -88,6 +143,36 @@ public class HTMLTidy {
     	return document;
     }
 
+	/** tidies a batch of documents with the calling thread's cached Tidy.
+	 * 
+	 * streams are read but not closed. A document that cannot be tidied is logged and 
+	 * gives null, so one bad fragment does not lose the batch.
+	 * 
+	 * @param inputStreams
+	 * @return documents in the same order (null for failures)
+	 */
+	public static List<Document> tidyAll(List<InputStream> inputStreams) {
+		List<Document> documents = new ArrayList<Document>(inputStreams.size());
+		for (int i = 0; i < inputStreams.size(); i++) {
+			Document document = null;
+			try {
+				document = htmlTidy(inputStreams.get(i));
+			} catch (Exception e) {
+				LOG.error("cannot tidy document "+i+": "+e);
+			}
+			documents.add(document);
+		}
+		return documents;
+	}
+
+	/** discards the calling thread's cached Tidy.
+	 * 
+	 * call from threads in long-lived pools that will not tidy again.
+	 */
+	public static void releaseThreadTidy() {
+		THREAD_TIDY.remove();
+	}
+
 	public static String tidyWhitespaceAndForeignNamePrefixesAndLang(String content) {
 		String content0 = HTMLTidy.removeLangXMLLang(content);
 		if (!content0.equals(content)) {
@@ -124,38 +209,36 @@ public class HTMLTidy {
 		return content;
 	}
 
-	private static String flattenNewline(String content) {
-		content = content.replaceAll(NEWLINE_REGEX, "");
-		return content;
-	}
-
 	private static String removeDTD(String content) {
 		content = content.replaceAll(DOCTYPE_REGEX, "");
 		return content;
 	}
 
-	private void preTidy(StringBuilder sb) {
+	/** fresh stages for one document, in the order they are applied.
+	 * 
+	 * tag replacement, DOCTYPE, xml:lang, newlines, foreign prefixes; each only if set.
+	 */
+	private List<HtmlStreamRewriter> createStages() {
+		List<HtmlStreamRewriter> stages = new ArrayList<HtmlStreamRewriter>();
 		if (tagReplacementList != null) {
-			for (HTMLTagReplacement tagReplacement : tagReplacementList) {
-				tagReplacement.replaceAll(sb);
+			if (tagReplacer == null) {
+				tagReplacer = new HTMLTagReplacer(tagReplacementList);
 			}
+			stages.add(tagReplacer.createStreamRewriter());
 		}
 		if (stripDoctype) {
-			stripDoctype(sb);
+			stages.add(HtmlStreamRewriter.createDoctypeStripper());
 		}
-		if (removeXMLLang || flattenNewline || removeForeignPrefixes) {
-			String s = sb.toString();
-			if (removeXMLLang) {
-				s = HTMLTidy.removeLangXMLLang(s);
-			}
-			if (flattenNewline) {
-				s = HTMLTidy.flattenNewline(s);
-			}
-			if (removeForeignPrefixes) {
-				s = HTMLTidy.removeForeignNamespacePrefixes(s);
-			}
-			sb.replace(0, sb.length(), s);
+		if (removeXMLLang) {
+			stages.add(HtmlStreamRewriter.createXmlLangRemover());
 		}
+		if (flattenNewline) {
+			stages.add(HtmlStreamRewriter.createNewlineFlattener());
+		}
+		if (removeForeignPrefixes) {
+			stages.add(HtmlStreamRewriter.createForeignPrefixRemover());
+		}
+		return stages;
 	}
 	
 
@@ -215,14 +298,47 @@ public class HTMLTidy {
     	tidy.setQuiet(true);
     	tidy.setQuoteMarks(true);
     	tidy.setShowWarnings(false);
+    	// input is always bridged from chars as UTF-8
+    	tidy.setCharEncoding(Configuration.UTF8);
 		return tidy;
 	}
 
+	/** sink for diagnostics from this tidier.
+	 * 
+	 * tidy() records Tidy's raw output (htmlIn.html); createHtmlElement() also records output
+	 * it cannot parse (badhtml.html).
+	 * 
+	 * @param diagnosticSink if null (default) uses DiagnosticSink.getDefault()
+	 */
+	public void setDiagnosticSink(DiagnosticSink diagnosticSink) {
+		this.diagnosticSink = diagnosticSink;
+	}
+
+	public DiagnosticSink getDiagnosticSink() {
+		return DiagnosticSink.getSink(diagnosticSink);
+	}
+
+	/** tidies a string without encoding it in the platform charset.
+	 * 
+	 * @param s
+	 * @return root element or null
+	 */
 	public static Element convertStringToXHTML(String s) {
+		return convertStringToXHTML(s, null);
+	}
+
+	/** as convertStringToXHTML(String) but recording diagnostics to diagnosticSink.
+	 * 
+	 * @param s
+	 * @param diagnosticSink if null uses DiagnosticSink.getDefault() (OFF unless set)
+	 * @return root element or null
+	 */
+	public static Element convertStringToXHTML(String s, DiagnosticSink diagnosticSink) {
 		Element element = null;
-		ByteArrayInputStream bais = new ByteArrayInputStream(s.getBytes());
 		try {
-			Document document = htmlTidy(bais);
+			DiagnosticSink sink = DiagnosticSink.getSink(diagnosticSink);
+			byte[] bytesin = sink.isEnabled() ? s.getBytes(StandardCharsets.UTF_8) : null;
+			Document document = tidyToDocument(new StringReader(s), bytesin, sink);
 			if (document == null) {
 				return null;
 			}
@@ -233,37 +349,81 @@ public class HTMLTidy {
 		return element;
 	}
 
+	/** tidies a document, sniffing its charset (BOM, meta charset; else UTF-8).
+	 * 
+	 * @param is not closed
+	 * @return tidied document (also kept for getOutputString())
+	 * @throws IOException
+	 */
 	public String tidy(InputStream is) throws IOException {
-		StringBuilder sb = new StringBuilder(IOUtils.toString(is));
-		preTidy(sb);
-		is = IOUtils.toInputStream(sb.toString());
-		baos = new ByteArrayOutputStream();
-		node = tidy.parse(is, baos);
-		sb = new StringBuilder(baos.toString());
-		// currently postTidy repeats preTidy()
-		postTidy(sb);
-		String out = sb.toString();
-		LOG.trace("SB "+out);
-		baos = new ByteArrayOutputStream();
-		IOUtils.write(out.getBytes(), baos);
-		return out;
+		StringWriter writer = new StringWriter();
+		tidy(HtmlInputDecoder.openReader(is, HtmlInputDecoder.DEFAULT_CHARSET), writer);
+		outputString = writer.toString();
+		baos = null;
+		LOG.trace("SB "+outputString);
+		return outputString;
+	}
+
+	/** tidies from reader to writer without holding the document as a String.
+	 * 
+	 * the cleaning stages (tag replacement, DOCTYPE...) run as filters on the Reader feeding 
+	 * Tidy and again on the Writer it writes to; each holds about one buffer, so apart from
+	 * Tidy's own parse tree memory does not grow with the document. The output is not kept:
+	 * getOutputString() and getByteArrayOutputStream() return null afterwards.
+	 * 
+	 * @param reader not closed
+	 * @param writer flushed, not closed
+	 * @throws IOException
+	 */
+	public void tidy(Reader reader, Writer writer) throws IOException {
+		outputString = null;
+		baos = null;
+		Charset charset = StandardCharsets.UTF_8;
+		for (HtmlStreamRewriter stage : createStages()) {
+			reader = stage.filter(reader);
+		}
+		// post-tidy repeats the pre-tidy stages
+		List<HtmlStreamRewriter> postStages = createStages();
+		Writer postWriter = writer;
+		for (int i = postStages.size() - 1; i >= 0; i--) {
+			postWriter = postStages.get(i).filter(postWriter);
+		}
+		InputStream in = new ReaderInputStream(reader, charset, HtmlStreamRewriter.BUFFER_SIZE);
+		OutputStream out = new WriterOutputStream(postWriter, charset, HtmlStreamRewriter.BUFFER_SIZE, false);
+		DiagnosticSink sink = getDiagnosticSink();
+		ByteArrayOutputStream record = sink.isEnabled() ? new ByteArrayOutputStream() : null;
+		node = tidy.parse(in, record == null ? out : new TeeOutputStream(out, record));
+		out.flush();
+		if (record != null) {
+			sink.write("htmlIn.html", record.toByteArray());
+		}
+		if (postWriter instanceof HtmlStreamRewriter.RewritingWriter) {
+			((HtmlStreamRewriter.RewritingWriter) postWriter).finish();
+		} else {
+			postWriter.flush();
+		}
 	}
 	
 	public HtmlElement createHtmlElement(InputStream is) throws Exception {
 		String out = tidy(is);
 		HtmlFactory htmlFactory = new HtmlFactory();
-		return htmlFactory.parse(out);
+		try {
+			return htmlFactory.parse(out);
+		} catch (Exception e) {
+			DiagnosticSink sink = getDiagnosticSink();
+			if (sink.isEnabled()) {
+				sink.write("badhtml.html", out);
+			}
+			throw e;
+		}
 	}
 	
-	private void postTidy(StringBuilder sb) {
-		preTidy(sb);
-	}
-
 	public void addTagReplacement(HTMLTagReplacement tagReplacement) {
 		if (tagReplacementList == null) {
 			tagReplacementList = new ArrayList<HTMLTagReplacement>();
 		}
 		tagReplacementList.add(tagReplacement);
+		tagReplacer = null;
 	}
 	
 	public void deleteTag(String old) {
@@ -283,11 +443,16 @@ public class HTMLTidy {
 	}
 	
 	public ByteArrayOutputStream getByteArrayOutputStream() {
+		if (baos == null && outputString != null) {
+			baos = new ByteArrayOutputStream();
+			byte[] bytes = outputString.getBytes(StandardCharsets.UTF_8);
+			baos.write(bytes, 0, bytes.length);
+		}
 		return baos;
 	}
 	
 	public String getOutputString() {
-		return baos == null ? null : baos.toString();
+		return outputString;
 	}
 	
 	public Tidy getTidy() {
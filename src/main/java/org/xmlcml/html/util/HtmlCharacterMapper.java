@@ -0,0 +1,232 @@
+package org.xmlcml.html.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/** replaces characters that cause trouble downstream (nbsp, smart quotes, ligatures...).
+ *
+ * <pre>
+ * Map&lt;Character, String&gt; mappings = HtmlCharacterMapper.getMappings(Category.NBSP, Category.LIGATURES);
+ * mappings.put('\u2212', "-"); // minus
+ * HtmlCharacterMapper mapper = new HtmlCharacterMapper(mappings);
+ * String s = mapper.map(text);
+ * </pre>
+ * each character maps to a string: usually one character, "" to delete it (zero-width characters,
+ * soft hyphens) or several (ligatures). The mappings are compiled into a lookup array indexed by
+ * the character and covering the mapped range of the BMP. Characters below the lowest mapped one
+ * (for the usual mappings, all of ASCII) are passed over with one comparison. map(String) returns
+ * its argument when nothing changes and otherwise copies the unchanged runs in bulk.
+ *
+ * getDefault() has the mappings HtmlUtil.replaceProblemCharacters() has always applied
+ * (nbsp and double smart quotes).
+ *
+ * immutable and thread-safe.
+ *
+ * @author pm286
+ *
+ */
+public class HtmlCharacterMapper {
+	private static final Logger LOG = Logger.getLogger(HtmlCharacterMapper.class);
+
+	/** groups of mappings. */
+	public enum Category {
+		/** no-break spaces to space */
+		NBSP("\u00a0\u2007\u202f", " "),
+		/** curly and low double quotes to " */
+		DOUBLE_QUOTES("\u201c\u201d\u201e\u201f", "\""),
+		/** curly and low single quotes to ' */
+		SINGLE_QUOTES("\u2018\u2019\u201a\u201b", "'"),
+		/** presentation-form Latin ligatures to their letters */
+		LIGATURES("\ufb00\ufb01\ufb02\ufb03\ufb04\ufb05\ufb06", "ff", "fi", "fl", "ffi", "ffl", "st", "st"),
+		/** zero-width space, joiners, word joiner and byte order mark deleted */
+		ZERO_WIDTH("\u200b\u200c\u200d\u2060\ufeff", ""),
+		/** soft hyphen deleted */
+		SOFT_HYPHEN("\u00ad", ""),
+		;
+		private final String chars;
+		private final String[] replacements;
+
+		private Category(String chars, String... replacements) {
+			this.chars = chars;
+			this.replacements = replacements;
+		}
+
+		private void addTo(Map<Character, String> mappings) {
+			for (int i = 0; i < chars.length(); i++) {
+				mappings.put(chars.charAt(i), replacements[replacements.length == 1 ? 0 : i]);
+			}
+		}
+	}
+
+	/** marks a character whose replacement is not a single character. */
+	private static final char NOT_SINGLE = '\uffff';
+
+	private static final HtmlCharacterMapper DEFAULT = new HtmlCharacterMapper(HtmlUtil.badGood);
+
+	private final char[] table;
+	private final char minChar;
+	private final Map<Character, String> multiMap;
+	private final int mappingCount;
+
+	/** compile mappings.
+	 *
+	 * @param mappings character to replacement ("" deletes); U+FFFF cannot be mapped
+	 */
+	public HtmlCharacterMapper(Map<Character, String> mappings) {
+		char max = 0;
+		char min = Character.MAX_VALUE;
+		for (Character c : mappings.keySet()) {
+			max = (char) Math.max(max, c);
+			min = (char) Math.min(min, c);
+		}
+		table = new char[mappings.isEmpty() ? 0 : max + 1];
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (char) i;
+		}
+		minChar = min;
+		multiMap = new HashMap<Character, String>();
+		for (Map.Entry<Character, String> entry : mappings.entrySet()) {
+			char c = entry.getKey();
+			if (c == NOT_SINGLE) {
+				throw new RuntimeException("cannot map U+FFFF");
+			}
+			String replacement = entry.getValue();
+			if (replacement.length() == 1 && replacement.charAt(0) != NOT_SINGLE) {
+				table[c] = replacement.charAt(0);
+			} else {
+				table[c] = NOT_SINGLE;
+				multiMap.put(c, replacement);
+			}
+		}
+		mappingCount = mappings.size();
+	}
+
+	/** compile the given categories.
+	 *
+	 * @param categories
+	 */
+	public HtmlCharacterMapper(Category... categories) {
+		this(getMappings(categories));
+	}
+
+	/** pairs of {bad, good} characters; if a bad character occurs twice the last pair wins.
+	 *
+	 * @param badGood
+	 */
+	public HtmlCharacterMapper(char[][] badGood) {
+		this(toMappings(badGood));
+	}
+
+	private static Map<Character, String> toMappings(char[][] badGood) {
+		Map<Character, String> mappings = new LinkedHashMap<Character, String>();
+		for (char[] pair : badGood) {
+			mappings.put(pair[0], String.valueOf(pair[1]));
+		}
+		return mappings;
+	}
+
+	/** mappings of categories, to edit and pass to the constructor.
+	 *
+	 * @param categories later categories override earlier ones
+	 * @return new modifiable map
+	 */
+	public static Map<Character, String> getMappings(Category... categories) {
+		Map<Character, String> mappings = new LinkedHashMap<Character, String>();
+		for (Category category : categories) {
+			category.addTo(mappings);
+		}
+		return mappings;
+	}
+
+	/** shared mapper with the mappings of HtmlUtil.replaceProblemCharacters().
+	 *
+	 * @return
+	 */
+	public static HtmlCharacterMapper getDefault() {
+		return DEFAULT;
+	}
+
+	/** number of mapped characters.
+	 *
+	 * @return
+	 */
+	public int getMappingCount() {
+		return mappingCount;
+	}
+
+	/** whether c is changed by this mapper.
+	 *
+	 * @param c
+	 * @return
+	 */
+	public boolean isMapped(char c) {
+		return c >= minChar && c < table.length && table[c] != c;
+	}
+
+	/** replace all mapped characters.
+	 *
+	 * @param s
+	 * @return s itself if nothing is mapped
+	 */
+	public String map(String s) {
+		int len = s.length();
+		int i = 0;
+		while (i < len && !isMapped(s.charAt(i))) {
+			i++;
+		}
+		if (i == len) {
+			return s;
+		}
+		StringBuilder sb = new StringBuilder(len);
+		sb.append(s, 0, i);
+		map(s, i, sb);
+		return sb.toString();
+	}
+
+	/** replace all mapped characters.
+	 *
+	 * @param s
+	 * @param out mapped text is appended
+	 */
+	public void map(CharSequence s, StringBuilder out) {
+		map(s, 0, out);
+	}
+
+	private void map(CharSequence s, int from, StringBuilder out) {
+		int len = s.length();
+		int start = from;
+		for (int i = from; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < minChar || c >= table.length || table[c] == c) {
+				continue;
+			}
+			out.append(s, start, i);
+			append(c, out);
+			start = i + 1;
+		}
+		out.append(s, start, len);
+	}
+
+	/** append the replacement of one character.
+	 *
+	 * @param c
+	 * @param out
+	 */
+	public void append(char c, StringBuilder out) {
+		if (c < minChar || c >= table.length) {
+			out.append(c);
+		} else if (table[c] != NOT_SINGLE) {
+			out.append(table[c]);
+		} else {
+			out.append(multiMap.get(c));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "HtmlCharacterMapper "+mappingCount+" mappings in ["+(int) minChar+", "+table.length+")";
+	}
+}
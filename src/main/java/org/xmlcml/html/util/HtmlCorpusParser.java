@@ -0,0 +1,286 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+import org.xmlcml.html.HtmlParseContext;
+
+/** parses a corpus of HTML files in parallel.
+ * 
+ * each file is parsed by a shared frozen copy of the HtmlFactory configuration (see HtmlFactory.getFrozenCopy())
+ * and the result (or the failure, with the file) is passed to a Callback. Callbacks are serialized, so the
+ * Callback need not be thread-safe, but the order of results is not defined.
+ * 
+ * at most maxInFlight files are read or held at any time; the thread calling parse() blocks 
+ * until a slot is free, so memory is bounded however large the corpus. Results are not retained 
+ * after the callback returns.
+ * 
+ * <pre>
+ * HtmlCorpusParser corpusParser = new HtmlCorpusParser(htmlFactory);
+ * corpusParser.parse(new File("corpus"), result -> {
+ *     if (result.isFailed()) LOG.error(result);
+ * });
+ * </pre>
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlCorpusParser {
+	private static final Logger LOG = Logger.getLogger(HtmlCorpusParser.class);
+
+	/** receives the result for each file.
+	 * 
+	 * calls are serialized by HtmlCorpusParser.
+	 */
+	public interface Callback {
+		void parsed(HtmlCorpusResult result);
+	}
+
+	public static final String[] DEFAULT_EXTENSIONS = {"html", "htm", "xhtml"};
+	
+	private HtmlFactory htmlFactory;
+	private ExecutorService executor;
+	private int parallelism;
+	private int maxInFlight;
+	private String[] extensions;
+	private final Object callbackLock = new Object();
+	
+	private AtomicInteger fileCount;
+	private AtomicInteger failureCount;
+	private AtomicLong totalParseNanos;
+	private long elapsedNanos;
+
+	public HtmlCorpusParser() {
+		this(new HtmlFactory());
+	}
+
+	/** 
+	 * @param htmlFactory configuration to use; a frozen copy is taken so later changes do not affect this parser
+	 */
+	public HtmlCorpusParser(HtmlFactory htmlFactory) {
+		this.htmlFactory = htmlFactory.getFrozenCopy();
+		setDefaults();
+	}
+
+	private void setDefaults() {
+		parallelism = Runtime.getRuntime().availableProcessors();
+		maxInFlight = 0;
+		extensions = DEFAULT_EXTENSIONS;
+		resetStatistics();
+	}
+
+	public HtmlFactory getHtmlFactory() {
+		return htmlFactory;
+	}
+
+	/** executor to run parses on.
+	 * 
+	 * if null (default) a ForkJoinPool of getParallelism() threads is created for each run and shut down afterwards.
+	 * Any ExecutorService can be used (e.g. Executors.newVirtualThreadPerTaskExecutor() on Java 21+);
+	 * the caller remains responsible for shutting it down.
+	 * 
+	 * @param executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/** number of threads in the default executor.
+	 * 
+	 * @param parallelism default is the number of available processors
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new RuntimeException("parallelism must be positive: "+parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/** maximum number of files being parsed or waiting for the callback.
+	 * 
+	 * @param maxInFlight if 0 (default) use 2 * parallelism
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < 0) {
+			throw new RuntimeException("maxInFlight must not be negative: "+maxInFlight);
+		}
+		this.maxInFlight = maxInFlight;
+	}
+
+	public int getMaxInFlight() {
+		return maxInFlight > 0 ? maxInFlight : 2 * parallelism;
+	}
+
+	/** file extensions (without '.', case-insensitive) selected when parsing a directory.
+	 * 
+	 * @param extensions default DEFAULT_EXTENSIONS
+	 */
+	public void setExtensions(String... extensions) {
+		this.extensions = extensions;
+	}
+
+	/** parse all files with matching extensions under directory (recursively).
+	 * 
+	 * @param directory
+	 * @param callback
+	 * @throws IOException if the directory cannot be read
+	 * @throws InterruptedException if interrupted while waiting for a free slot
+	 */
+	public void parse(File directory, Callback callback) throws IOException, InterruptedException {
+		if (directory == null || !directory.isDirectory()) {
+			throw new RuntimeException("not a directory: "+directory);
+		}
+		try (Stream<Path> paths = Files.walk(directory.toPath())) {
+			parse(paths.filter(path -> Files.isRegularFile(path) && hasExtension(path)), callback);
+		}
+	}
+
+	/** parse the files in paths.
+	 * 
+	 * the stream is consumed lazily as slots become free. Returns when all files have been delivered to the callback.
+	 * 
+	 * @param paths files to parse
+	 * @param callback
+	 * @throws InterruptedException if interrupted while waiting for a free slot
+	 */
+	public void parse(Stream<Path> paths, Callback callback) throws InterruptedException {
+		resetStatistics();
+		long start = System.nanoTime();
+		ExecutorService executorService = executor != null ? executor : new ForkJoinPool(parallelism);
+		int permits = getMaxInFlight();
+		Semaphore semaphore = new Semaphore(permits);
+		try {
+			Iterator<Path> iterator = paths.iterator();
+			while (iterator.hasNext()) {
+				final File file = iterator.next().toFile();
+				semaphore.acquire();
+				try {
+					executorService.execute(() -> {
+						try {
+							deliver(parseFile(file), callback);
+						} finally {
+							semaphore.release();
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					semaphore.release();
+					throw e;
+				}
+			}
+			// wait for files still in flight
+			semaphore.acquire(permits);
+			semaphore.release(permits);
+		} finally {
+			if (executor == null) {
+				executorService.shutdown();
+			}
+			elapsedNanos = System.nanoTime() - start;
+		}
+	}
+
+	private HtmlCorpusResult parseFile(File file) {
+		HtmlParseContext context = new HtmlParseContext();
+		HtmlElement htmlElement = null;
+		Throwable exception = null;
+		long start = System.nanoTime();
+		try (InputStream is = new FileInputStream(file)) {
+			htmlElement = htmlFactory.parse(is, context);
+		} catch (Exception | StackOverflowError e) {
+			exception = e;
+			failureCount.incrementAndGet();
+		}
+		long nanos = System.nanoTime() - start;
+		fileCount.incrementAndGet();
+		totalParseNanos.addAndGet(nanos);
+		return new HtmlCorpusResult(file, htmlElement, exception, context, nanos);
+	}
+
+	private void deliver(HtmlCorpusResult result, Callback callback) {
+		synchronized (callbackLock) {
+			try {
+				callback.parsed(result);
+			} catch (RuntimeException e) {
+				LOG.error("callback failed for "+result.getFile()+": "+e);
+			}
+		}
+	}
+
+	private boolean hasExtension(Path path) {
+		String name = path.getFileName().toString();
+		int idx = name.lastIndexOf('.');
+		if (idx == -1) {
+			return false;
+		}
+		String extension = name.substring(idx + 1);
+		for (String ext : extensions) {
+			if (ext.equalsIgnoreCase(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void resetStatistics() {
+		fileCount = new AtomicInteger();
+		failureCount = new AtomicInteger();
+		totalParseNanos = new AtomicLong();
+		elapsedNanos = 0;
+	}
+
+	/** number of files parsed in the last run.
+	 * 
+	 * @return
+	 */
+	public int getFileCount() {
+		return fileCount.get();
+	}
+
+	/** number of files that failed in the last run.
+	 * 
+	 * @return
+	 */
+	public int getFailureCount() {
+		return failureCount.get();
+	}
+
+	/** sum of per-file parse times in the last run.
+	 * 
+	 * @return nanoseconds
+	 */
+	public long getTotalParseNanos() {
+		return totalParseNanos.get();
+	}
+
+	/** wall-clock time of the last run.
+	 * 
+	 * getTotalParseNanos() / getElapsedNanos() approximates the parallel speedup.
+	 * 
+	 * @return nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+}
@@ -0,0 +1,74 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlParseContext;
+
+/** outcome of parsing one file in HtmlCorpusParser.
+ * 
+ * either getHtmlElement() or getException() is set. 
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlCorpusResult {
+
+	private File file;
+	private HtmlElement htmlElement;
+	private Throwable exception;
+	private HtmlParseContext parseContext;
+	private long parseNanos;
+
+	HtmlCorpusResult(File file, HtmlElement htmlElement, Throwable exception, HtmlParseContext parseContext, long parseNanos) {
+		this.file = file;
+		this.htmlElement = htmlElement;
+		this.exception = exception;
+		this.parseContext = parseContext;
+		this.parseNanos = parseNanos;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/** parsed document.
+	 * 
+	 * @return null if the parse failed or the file had no content
+	 */
+	public HtmlElement getHtmlElement() {
+		return htmlElement;
+	}
+
+	/** 
+	 * @return null unless the parse failed
+	 */
+	public Throwable getException() {
+		return exception;
+	}
+
+	public boolean isFailed() {
+		return exception != null;
+	}
+
+	/** diagnostics (e.g. unknown tags) for this file.
+	 * 
+	 * @return
+	 */
+	public HtmlParseContext getParseContext() {
+		return parseContext;
+	}
+
+	/** wall-clock time to read and parse the file.
+	 * 
+	 * @return nanoseconds
+	 */
+	public long getParseNanos() {
+		return parseNanos;
+	}
+
+	@Override
+	public String toString() {
+		return file+": "+(exception != null ? "FAILED "+exception : "OK")+" "+(parseNanos / 1000000)+"ms";
+	}
+}
@@ -0,0 +1,560 @@
+package org.xmlcml.html.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/** decodes named and numeric character references with a char trie.
+ * 
+ * <pre>
+ * HtmlEntityDecoder decoder = new HtmlEntityDecoder(entityMap);
+ * String s = decoder.decode("a &amp;lt; b");
+ * decoder.decode(charBuffer, stringBuilder);
+ * </pre>
+ * the entity names are compiled once into a trie (parallel arrays of labels, first-child and 
+ * next-sibling links), so a reference is recognized in one pass over its characters without 
+ * substrings or map lookups; unknown names fail at the first character not in the trie.
+ * decode(String) returns the input itself when it contains no reference and otherwise builds the 
+ * result in a per-thread StringBuilder; decode(CharSequence, StringBuilder) appends to the caller's
+ * builder and works on String, CharBuffer (e.g. wrapping a char[]) or StringBuilder.
+ * 
+ * rules (as HtmlUtil.unescapeHtml3() has always applied them): a reference is &amp;name; or 
+ * &amp;#digits; or &amp;#xhex; with at least 2 and at most 6 characters between '&amp;' and ';'; named 
+ * references must match a name exactly; anything else is copied unchanged.
+ * 
+ * getHtml5Decoder() instead follows the WHATWG tokenizer with the full HTML5 table (loaded once 
+ * from html5-entities.txt, about 2,200 names): the longest name in the trie wins, the legacy names 
+ * (&amp;copy, &amp;amp, ...) also match without ';', numeric references have any number of digits 
+ * and invalid code points become U+FFFD. getHtml5MarkupDecoder() is for raw markup about to go to an 
+ * XML parser: it leaves references the parser resolves itself (numeric, &amp;amp; &amp;lt; ...) and 
+ * does not decode a legacy name followed by '=' or a letter or digit (query strings in attributes).
+ * 
+ * isIncomplete() tells a streaming caller whether a trailing '&amp;' needs more input to be decided;
+ * HtmlEntityDecodingReader uses it to decode references split across buffers.
+ * 
+ * immutable and thread-safe.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlEntityDecoder {
+	private static final Logger LOG = Logger.getLogger(HtmlEntityDecoder.class);
+
+	public static final int MIN_ESCAPE = 2;
+	public static final int MAX_ESCAPE = 6;
+	/** the WHATWG table: name (with ';' if required) then code points in hex. */
+	public static final String HTML5_ENTITIES = "/org/xmlcml/html/util/html5-entities.txt";
+	/** WHATWG replacements for the C1 controls &amp;#x80; ... &amp;#x9F; (0 if not replaced). */
+	private static final char[] WINDOWS_1252 = {
+		'\u20AC', 0, '\u201A', '\u0192', '\u201E', '\u2026', '\u2020', '\u2021', 
+		'\u02C6', '\u2030', '\u0160', '\u2039', '\u0152', 0, '\u017D', 0, 
+		0, '\u2018', '\u2019', '\u201C', '\u201D', '\u2022', '\u2013', '\u2014', 
+		'\u02DC', '\u2122', '\u0161', '\u203A', '\u0153', 0, '\u017E', '\u0178',
+	};
+	private static final int MAX_CACHED_DECODERS = 16;
+	/** larger builders are not kept by the thread. */
+	private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+	/** keyed by a private copy of the map's contents; least recently used dropped first */
+	private static final Map<Map<String, String>, HtmlEntityDecoder> DECODERS = 
+			new LinkedHashMap<Map<String, String>, HtmlEntityDecoder>(MAX_CACHED_DECODERS, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Map<String, String>, HtmlEntityDecoder> eldest) {
+			return size() > MAX_CACHED_DECODERS;
+		}
+	};
+	/** decoders for maps whose contents never change, by identity; replaced (not changed) on registration */
+	private static volatile Map<Map<String, CharSequence>, HtmlEntityDecoder> fixedDecoders = 
+			new IdentityHashMap<Map<String, CharSequence>, HtmlEntityDecoder>();
+	private static final ThreadLocal<StringBuilder> THREAD_BUILDER = new ThreadLocal<StringBuilder>();
+
+	private char[] labels;
+	private int[] firstChild;
+	private int[] nextSibling;
+	private String[] values;
+	private int nodeCount;
+	private int entityCount;
+	private boolean html5;
+	private boolean decodeNumeric = true;
+	private boolean attributeRule;
+
+	private HtmlEntityDecoder() {
+		int capacity = 64;
+		labels = new char[capacity];
+		firstChild = new int[capacity];
+		nextSibling = new int[capacity];
+		values = new String[capacity];
+		nodeCount = 1;
+		firstChild[0] = -1;
+		nextSibling[0] = -1;
+	}
+
+	/** compile entity names.
+	 * 
+	 * @param entityMap name (without &amp; and ;) to replacement
+	 */
+	public HtmlEntityDecoder(Map<String, CharSequence> entityMap) {
+		this();
+		for (Map.Entry<String, CharSequence> entry : entityMap.entrySet()) {
+			add(entry.getKey(), entry.getValue().toString());
+		}
+		trim();
+	}
+
+	/** lazily loaded HTML5 decoders. */
+	private static class Html5 {
+		static final HtmlEntityDecoder TEXT = createHtml5Decoder(false);
+		static final HtmlEntityDecoder MARKUP = createHtml5Decoder(true);
+	}
+
+	/** full HTML5 decoder for text (WHATWG rules).
+	 * 
+	 * @return shared decoder
+	 */
+	public static HtmlEntityDecoder getHtml5Decoder() {
+		return Html5.TEXT;
+	}
+
+	/** HTML5 decoder for markup that will be parsed as XML.
+	 * 
+	 * decodes named references except those whose value contains &amp; &lt; &gt; &quot; or &apos;
+	 * (e.g. &amp;lt; but also &amp;nvlt;, which is '&lt;' plus a combining mark); leaves numeric
+	 * references; legacy names without ';' are not decoded before '=' or an ASCII letter or digit.
+	 * 
+	 * @return shared decoder
+	 */
+	public static HtmlEntityDecoder getHtml5MarkupDecoder() {
+		return Html5.MARKUP;
+	}
+
+	private static HtmlEntityDecoder createHtml5Decoder(boolean markup) {
+		HtmlEntityDecoder decoder = new HtmlEntityDecoder();
+		decoder.html5 = true;
+		decoder.decodeNumeric = !markup;
+		decoder.attributeRule = markup;
+		InputStream is = HtmlEntityDecoder.class.getResourceAsStream(HTML5_ENTITIES);
+		if (is == null) {
+			throw new RuntimeException("missing resource: "+HTML5_ENTITIES);
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"))) {
+			StringBuilder sb = new StringBuilder();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() == 0 || line.charAt(0) == '#') {
+					continue;
+				}
+				String[] fields = line.split("[\\t ]");
+				sb.setLength(0);
+				for (int i = 1; i < fields.length; i++) {
+					sb.appendCodePoint(Integer.parseInt(fields[i], 16));
+				}
+				String value = sb.toString();
+				if (markup && containsMarkup(value)) {
+					continue;
+				}
+				decoder.add(fields[0], value);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("cannot read "+HTML5_ENTITIES, e);
+		}
+		decoder.trim();
+		return decoder;
+	}
+
+	private static boolean containsMarkup(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if ("&<>\"'".indexOf(value.charAt(i)) != -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void trim() {
+		labels = Arrays.copyOf(labels, nodeCount);
+		firstChild = Arrays.copyOf(firstChild, nodeCount);
+		nextSibling = Arrays.copyOf(nextSibling, nodeCount);
+		values = Arrays.copyOf(values, nodeCount);
+	}
+
+	/** decoder for a map's current contents, compiled on first use and cached.
+	 * 
+	 * a map registered with registerFixedMap() (e.g. HtmlFactory.getHtmlEntityMap()) is found by 
+	 * identity without copying or hashing it. Any other map is keyed by a copy of its contents, so a 
+	 * map edited later (or an equal map built per call) gets the right decoder; each such call copies 
+	 * the map. Callers decoding many strings with their own map should compile it once with 
+	 * new HtmlEntityDecoder(map) and keep that.
+	 * 
+	 * @param entityMap
+	 * @return shared decoder
+	 */
+	public static HtmlEntityDecoder getDecoder(Map<String, CharSequence> entityMap) {
+		HtmlEntityDecoder fixedDecoder = fixedDecoders.get(entityMap);
+		if (fixedDecoder != null) {
+			return fixedDecoder;
+		}
+		Map<String, String> contents = new HashMap<String, String>(entityMap.size() * 2);
+		for (Map.Entry<String, CharSequence> entry : entityMap.entrySet()) {
+			contents.put(entry.getKey(), String.valueOf(entry.getValue()));
+		}
+		synchronized (DECODERS) {
+			HtmlEntityDecoder decoder = DECODERS.get(contents);
+			if (decoder == null) {
+				decoder = new HtmlEntityDecoder(entityMap);
+				DECODERS.put(contents, decoder);
+			}
+			return decoder;
+		}
+	}
+
+	/** makes getDecoder() return decoder for this very map instance.
+	 * 
+	 * only for maps whose contents never change, such as the unmodifiable maps HtmlFactory hands out.
+	 * 
+	 * @param entityMap looked up by identity
+	 * @param decoder compiled from entityMap
+	 */
+	public static synchronized void registerFixedMap(Map<String, CharSequence> entityMap, HtmlEntityDecoder decoder) {
+		Map<Map<String, CharSequence>, HtmlEntityDecoder> decoders = 
+				new IdentityHashMap<Map<String, CharSequence>, HtmlEntityDecoder>(fixedDecoders);
+		decoders.put(entityMap, decoder);
+		fixedDecoders = decoders;
+	}
+
+	private void add(String name, String value) {
+		int node = 0;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			int child = child(node, c);
+			if (child == -1) {
+				child = newNode(c);
+				nextSibling[child] = firstChild[node];
+				firstChild[node] = child;
+			}
+			node = child;
+		}
+		if (values[node] == null) {
+			entityCount++;
+		}
+		values[node] = value;
+	}
+
+	private int newNode(char c) {
+		if (nodeCount == labels.length) {
+			int capacity = 2 * nodeCount;
+			labels = Arrays.copyOf(labels, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			nextSibling = Arrays.copyOf(nextSibling, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		int node = nodeCount++;
+		labels[node] = c;
+		firstChild[node] = -1;
+		nextSibling[node] = -1;
+		return node;
+	}
+
+	private int child(int node, char c) {
+		for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+			if (labels[child] == c) {
+				return child;
+			}
+		}
+		return -1;
+	}
+
+	/** number of entity names.
+	 * 
+	 * in the HTML5 decoders a legacy name counts twice (with and without ';').
+	 * 
+	 * @return
+	 */
+	public int getEntityCount() {
+		return entityCount;
+	}
+
+	/** decode all references.
+	 * 
+	 * @param input
+	 * @return input itself if nothing was decoded
+	 */
+	public String decode(String input) {
+		int amp = input.indexOf('&');
+		if (amp == -1) {
+			return input;
+		}
+		StringBuilder out = THREAD_BUILDER.get();
+		if (out == null) {
+			out = new StringBuilder(Math.max(256, input.length()));
+			THREAD_BUILDER.set(out);
+		}
+		out.setLength(0);
+		boolean changed = decode(input, amp, out);
+		String decoded = changed ? out.toString() : input;
+		if (out.capacity() > MAX_RETAINED_CAPACITY) {
+			THREAD_BUILDER.remove();
+		}
+		return decoded;
+	}
+
+	/** decode chars.
+	 * 
+	 * @param chars
+	 * @param offset
+	 * @param length
+	 * @param out decoded text is appended
+	 * @return true if any reference was decoded
+	 */
+	public boolean decode(char[] chars, int offset, int length, StringBuilder out) {
+		return decode(CharBuffer.wrap(chars, offset, length), out);
+	}
+
+	/** decode all references.
+	 * 
+	 * @param input
+	 * @param out decoded text is appended (input is appended unchanged if there is no reference)
+	 * @return true if any reference was decoded
+	 */
+	public boolean decode(CharSequence input, StringBuilder out) {
+		return decode(input, 0, out);
+	}
+
+	private boolean decode(CharSequence input, int from, StringBuilder out) {
+		int len = input.length();
+		int start = 0;
+		boolean changed = false;
+		for (int i = from; i < len; i++) {
+			if (input.charAt(i) != '&') {
+				continue;
+			}
+			// copy the run before '&'; if there is no reference the '&' starts the next run
+			out.append(input, start, i);
+			start = i;
+			int next = decodeReference(input, i, out);
+			if (next != -1) {
+				changed = true;
+				start = next;
+				i = next - 1;
+			}
+		}
+		out.append(input, start, len);
+		return changed;
+	}
+
+	/** decode one reference.
+	 * 
+	 * @param input
+	 * @param amp index of '&amp;'
+	 * @param out replacement is appended if this is a reference
+	 * @return index after the reference, or -1 (nothing appended) if there is none at amp
+	 */
+	public int decodeReference(CharSequence input, int amp, StringBuilder out) {
+		int len = input.length();
+		int i = amp + 1;
+		if (i >= len) {
+			return -1;
+		}
+		if (html5) {
+			if (input.charAt(i) == '#') {
+				return decodeNumeric ? decodeNumericHtml5(input, i, out) : -1;
+			}
+			return decodeNamedHtml5(input, i, out);
+		}
+		if (input.charAt(i) == '#') {
+			return decodeNumeric(input, i, out);
+		}
+		int node = 0;
+		int j = i;
+		while (j < len) {
+			char c = input.charAt(j);
+			if (c == ';') {
+				break;
+			}
+			if (j - i == MAX_ESCAPE) {
+				return -1;
+			}
+			node = child(node, c);
+			if (node == -1) {
+				return -1;
+			}
+			j++;
+		}
+		if (j == len || j - i < MIN_ESCAPE || values[node] == null) {
+			return -1;
+		}
+		out.append(values[node]);
+		return j + 1;
+	}
+
+	/** whether a reference at amp runs to the end of input and could be completed or changed by more input.
+	 * 
+	 * a streaming caller holds back the text from amp when this is true (and it is not at end of input).
+	 * 
+	 * @param input
+	 * @param amp index of '&amp;'
+	 * @return
+	 */
+	public boolean isIncomplete(CharSequence input, int amp) {
+		int len = input.length();
+		int i = amp + 1;
+		if (i >= len) {
+			return true;
+		}
+		if (input.charAt(i) == '#') {
+			if (!decodeNumeric) {
+				return false;
+			}
+			int k = i + 1;
+			int radix = 10;
+			if (k < len && (input.charAt(k) | 0x20) == 'x') {
+				k++;
+				radix = 16;
+			}
+			for (; k < len; k++) {
+				if (asciiDigit(input.charAt(k), radix) == -1) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (!html5) {
+			for (int j = i; j < len; j++) {
+				if (input.charAt(j) == ';' || j - i == MAX_ESCAPE) {
+					return false;
+				}
+			}
+			return true;
+		}
+		int node = 0;
+		for (int j = i; j < len; j++) {
+			node = child(node, input.charAt(j));
+			if (node == -1) {
+				return false;
+			}
+		}
+		return firstChild[node] != -1 || (attributeRule && values[node] != null);
+	}
+
+	/** longest name at i. */
+	private int decodeNamedHtml5(CharSequence input, int i, StringBuilder out) {
+		int len = input.length();
+		int node = 0;
+		int match = -1;
+		int matchEnd = -1;
+		for (int j = i; j < len; j++) {
+			node = child(node, input.charAt(j));
+			if (node == -1) {
+				break;
+			}
+			if (values[node] != null) {
+				match = node;
+				matchEnd = j + 1;
+			}
+		}
+		if (match == -1) {
+			return -1;
+		}
+		if (attributeRule && labels[match] != ';' && matchEnd < len) {
+			char c = input.charAt(matchEnd);
+			if (c == '=' || isAsciiAlphanumeric(c)) {
+				return -1;
+			}
+		}
+		out.append(values[match]);
+		return matchEnd;
+	}
+
+	/** &amp;#...; hash at i; any number of digits, ';' optional. */
+	private static int decodeNumericHtml5(CharSequence input, int i, StringBuilder out) {
+		int len = input.length();
+		int k = i + 1;
+		int radix = 10;
+		if (k < len && (input.charAt(k) | 0x20) == 'x') {
+			k++;
+			radix = 16;
+		}
+		int value = 0;
+		int j = k;
+		for (; j < len; j++) {
+			int digit = asciiDigit(input.charAt(j), radix);
+			if (digit == -1) {
+				break;
+			}
+			if (value <= Character.MAX_CODE_POINT) {
+				value = value * radix + digit;
+			}
+		}
+		if (j == k) {
+			return -1;
+		}
+		if (j < len && input.charAt(j) == ';') {
+			j++;
+		}
+		if (value == 0 || value > Character.MAX_CODE_POINT || 
+				(value >= Character.MIN_SURROGATE && value <= Character.MAX_SURROGATE)) {
+			out.append('\uFFFD');
+		} else if (value >= 0x80 && value <= 0x9F && WINDOWS_1252[value - 0x80] != 0) {
+			out.append(WINDOWS_1252[value - 0x80]);
+		} else {
+			out.appendCodePoint(value);
+		}
+		return j;
+	}
+
+	private static int asciiDigit(char c, int radix) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (radix == 16) {
+			c |= 0x20;
+			if (c >= 'a' && c <= 'f') {
+				return c - 'a' + 10;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isAsciiAlphanumeric(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/** &amp;#...; hash at i. */
+	private static int decodeNumeric(CharSequence input, int i, StringBuilder out) {
+		int len = input.length();
+		int k = i + 1;
+		int radix = 10;
+		if (k < len && (input.charAt(k) == 'x' || input.charAt(k) == 'X')) {
+			k++;
+			radix = 16;
+		}
+		int value = 0;
+		int j = k;
+		while (j < len && j - i <= MAX_ESCAPE) {
+			int digit = Character.digit(input.charAt(j), radix);
+			if (digit == -1) {
+				break;
+			}
+			value = value * radix + digit;
+			j++;
+		}
+		if (j == k || j == len || j - i > MAX_ESCAPE || j - i < MIN_ESCAPE || input.charAt(j) != ';') {
+			return -1;
+		}
+		if (value > 0xFFFF) {
+			char[] chars = Character.toChars(value);
+			out.append(chars[0]).append(chars[1]);
+		} else {
+			out.append((char) value);
+		}
+		return j + 1;
+	}
+}
@@ -0,0 +1,116 @@
+package org.xmlcml.html.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+import org.apache.log4j.Logger;
+
+/** a Reader that decodes character references in the text read from another Reader.
+ *
+ * <pre>
+ * Reader reader = new HtmlEntityDecodingReader(new InputStreamReader(is, "UTF-8"));
+ * </pre>
+ * a reference split across two reads of the underlying Reader (e.g. "&amp;al" then "pha;") is held
+ * back until the decoder can decide it (HtmlEntityDecoder.isIncomplete()), so the output is the same
+ * as decoding the whole text at once; only a trailing undecided reference longer than MAX_HELD_BACK
+ * is passed through undecoded.
+ *
+ * not thread-safe.
+ *
+ * @author pm286
+ *
+ */
+public class HtmlEntityDecodingReader extends Reader {
+	private static final Logger LOG = Logger.getLogger(HtmlEntityDecodingReader.class);
+
+	/** longer than any named reference in the HTML5 table. */
+	public static final int MAX_HELD_BACK = 64;
+	private static final int BUFFER_SIZE = 8192;
+
+	private Reader in;
+	private HtmlEntityDecoder decoder;
+	private char[] buffer;
+	private StringBuilder pending;
+	private StringBuilder decoded;
+	private int decodedPos;
+	private boolean eof;
+
+	/** decode with the full HTML5 table.
+	 *
+	 * @param in
+	 */
+	public HtmlEntityDecodingReader(Reader in) {
+		this(in, HtmlEntityDecoder.getHtml5Decoder());
+	}
+
+	/** decode with any decoder.
+	 *
+	 * @param in
+	 * @param decoder
+	 */
+	public HtmlEntityDecodingReader(Reader in, HtmlEntityDecoder decoder) {
+		super(in);
+		this.in = in;
+		this.decoder = decoder;
+		this.buffer = new char[BUFFER_SIZE];
+		this.pending = new StringBuilder();
+		this.decoded = new StringBuilder();
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (decodedPos == decoded.length()) {
+			if (!fill()) {
+				return -1;
+			}
+		}
+		int n = Math.min(len, decoded.length() - decodedPos);
+		decoded.getChars(decodedPos, decodedPos + n, cbuf, off);
+		decodedPos += n;
+		return n;
+	}
+
+	/** decode the next chunk into decoded.
+	 *
+	 * @return false at end of input
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		decoded.setLength(0);
+		decodedPos = 0;
+		if (eof) {
+			if (pending.length() == 0) {
+				return false;
+			}
+			decoder.decode(pending, decoded);
+			pending.setLength(0);
+			return true;
+		}
+		int n = in.read(buffer, 0, buffer.length);
+		if (n == -1) {
+			eof = true;
+			return true;
+		}
+		pending.append(buffer, 0, n);
+		int end = pending.length();
+		// references never contain '&' so only the last one can be undecided
+		int amp = pending.lastIndexOf("&");
+		if (amp != -1 && end - amp <= MAX_HELD_BACK && decoder.isIncomplete(pending, amp)) {
+			end = amp;
+		}
+		if (end > 0) {
+			decoder.decode(CharBuffer.wrap(pending, 0, end), decoded);
+			pending.delete(0, end);
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
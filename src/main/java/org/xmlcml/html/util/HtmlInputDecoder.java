@@ -0,0 +1,246 @@
+package org.xmlcml.html.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/** decodes HTML bytes once, in the charset the document declares.
+ *
+ * <pre>
+ * CharBuffer text = HtmlInputDecoder.decode(inputStream, HtmlInputDecoder.DEFAULT_CHARSET);
+ * Reader reader = HtmlInputDecoder.openReader(inputStream, HtmlInputDecoder.DEFAULT_CHARSET);
+ * </pre>
+ * the charset is sniffed from the first SNIFF_LENGTH bytes: a byte order mark (UTF-8, UTF-16BE/LE)
+ * wins, then the encoding of an XML declaration, then the first &lt;meta charset="..."&gt; or
+ * &lt;meta http-equiv="Content-Type" content="...; charset=..."&gt; outside comments, else the default.
+ * As in browsers, a declaration of UTF-16 (found by reading the bytes as ASCII) means UTF-8 and ISO-8859-1/US-ASCII mean windows-1252
+ * (which they are in practice); unknown names fall back to the default. Malformed bytes become U+FFFD.
+ *
+ * decode() converts the whole stream straight into a per-thread pooled char array, which every later
+ * stage can read as a CharSequence; the buffer is reused by the next decode() on the same thread,
+ * so the caller must be done with it (or copy it) before then.
+ *
+ * @author pm286
+ *
+ */
+public class HtmlInputDecoder {
+	private static final Logger LOG = Logger.getLogger(HtmlInputDecoder.class);
+
+	public static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+	/** bytes examined for a BOM or declaration. */
+	public static final int SNIFF_LENGTH = 4096;
+	private static final int BYTE_BUFFER_SIZE = 16384;
+	private static final int MIN_CHARS = 8192;
+	/** larger char buffers are not kept by the thread. */
+	private static final int MAX_POOLED_CHARS = 1 << 22;
+
+	private static final Pattern XML_ENCODING = Pattern.compile(
+			"^<\\?xml[^>]*?\\sencoding\\s*=\\s*[\"']([^\"']+)[\"']");
+	private static final Pattern META_CHARSET = Pattern.compile(
+			"charset\\s*=\\s*[\"']?\\s*([A-Za-z0-9_:.+-]+)");
+	private static final Pattern META_OR_COMMENT = Pattern.compile("<!--|<meta[\\s/]");
+
+	private static final ThreadLocal<char[]> THREAD_CHARS = new ThreadLocal<char[]>();
+
+	/** charset declared by the start of a document.
+	 *
+	 * @param bytes
+	 * @param length number of valid bytes
+	 * @param defaultCharset if nothing is declared
+	 * @return
+	 */
+	public static Charset detectCharset(byte[] bytes, int length, Charset defaultCharset) {
+		Charset charset = getBomCharset(bytes, length);
+		if (charset != null) {
+			return charset;
+		}
+		// the declarations are ASCII; every byte maps to one char
+		String head = new String(bytes, 0, Math.min(length, SNIFF_LENGTH), StandardCharsets.ISO_8859_1);
+		Matcher matcher = XML_ENCODING.matcher(head);
+		if (matcher.find()) {
+			charset = forLabel(matcher.group(1));
+		}
+		if (charset == null) {
+			charset = findMetaCharset(head);
+		}
+		return charset == null ? defaultCharset : notUtf16(charset);
+	}
+
+	/** a document that can be read as ASCII to find its declaration is not UTF-16. */
+	private static Charset notUtf16(Charset charset) {
+		return charset.name().startsWith("UTF-16") ? StandardCharsets.UTF_8 : charset;
+	}
+
+	private static Charset findMetaCharset(String head) {
+		String lower = head.toLowerCase();
+		Matcher matcher = META_OR_COMMENT.matcher(lower);
+		int from = 0;
+		while (matcher.find(from)) {
+			if (matcher.group().startsWith("<!--")) {
+				int end = lower.indexOf("-->", matcher.end());
+				if (end == -1) {
+					return null;
+				}
+				from = end + 3;
+				continue;
+			}
+			int end = lower.indexOf('>', matcher.end());
+			if (end == -1) {
+				return null;
+			}
+			Matcher charsetMatcher = META_CHARSET.matcher(lower.substring(matcher.end(), end));
+			if (charsetMatcher.find()) {
+				Charset charset = forLabel(charsetMatcher.group(1));
+				if (charset != null) {
+					return charset;
+				}
+			}
+			from = end + 1;
+		}
+		return null;
+	}
+
+	/** @return null if no BOM */
+	private static Charset getBomCharset(byte[] bytes, int length) {
+		if (length >= 3 && (bytes[0] & 0xFF) == 0xEF && (bytes[1] & 0xFF) == 0xBB && (bytes[2] & 0xFF) == 0xBF) {
+			return StandardCharsets.UTF_8;
+		}
+		if (length >= 2 && (bytes[0] & 0xFF) == 0xFE && (bytes[1] & 0xFF) == 0xFF) {
+			return StandardCharsets.UTF_16BE;
+		}
+		if (length >= 2 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xFE) {
+			return StandardCharsets.UTF_16LE;
+		}
+		return null;
+	}
+
+	/** number of BOM bytes at the start. */
+	private static int getBomLength(byte[] bytes, int length) {
+		Charset charset = getBomCharset(bytes, length);
+		return charset == null ? 0 : (charset == StandardCharsets.UTF_8 ? 3 : 2);
+	}
+
+	/** @return null if unknown or unsupported */
+	private static Charset forLabel(String label) {
+		String name = label.trim().toLowerCase();
+		if (name.equals("iso-8859-1") || name.equals("iso8859-1") || name.equals("latin1") ||
+				name.equals("us-ascii") || name.equals("ascii")) {
+			name = "windows-1252";
+		}
+		try {
+			return Charset.isSupported(name) ? Charset.forName(name) : null;
+		} catch (IllegalArgumentException e) {
+			LOG.trace("bad charset: "+label);
+			return null;
+		}
+	}
+
+	/** decode a whole stream into this thread's pooled buffer.
+	 *
+	 * @param is read to the end, not closed
+	 * @param defaultCharset if the document declares none
+	 * @return chars between position and limit; valid until the next decode() on this thread
+	 * @throws IOException
+	 */
+	public static CharBuffer decode(InputStream is, Charset defaultCharset) throws IOException {
+		byte[] head = new byte[SNIFF_LENGTH];
+		int headLength = readFully(is, head);
+		Charset charset = detectCharset(head, headLength, defaultCharset);
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		char[] chars = THREAD_CHARS.get();
+		int estimate = Math.max(MIN_CHARS, headLength + is.available());
+		if (chars == null || chars.length < estimate) {
+			chars = new char[estimate];
+		}
+		CharBuffer out = CharBuffer.wrap(chars);
+		ByteBuffer bytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+		int bom = getBomLength(head, headLength);
+		bytes.put(head, bom, headLength - bom);
+		bytes.flip();
+		boolean eof = headLength < SNIFF_LENGTH;
+		while (true) {
+			CoderResult result = decoder.decode(bytes, out, eof);
+			if (result.isOverflow()) {
+				out = grow(out);
+			} else if (eof) {
+				break;
+			} else {
+				bytes.compact();
+				int n = is.read(bytes.array(), bytes.position(), bytes.remaining());
+				if (n == -1) {
+					eof = true;
+				} else {
+					bytes.position(bytes.position() + n);
+				}
+				bytes.flip();
+			}
+		}
+		while (decoder.flush(out).isOverflow()) {
+			out = grow(out);
+		}
+		if (out.capacity() <= MAX_POOLED_CHARS) {
+			THREAD_CHARS.set(out.array());
+		} else {
+			THREAD_CHARS.remove();
+		}
+		out.flip();
+		return out;
+	}
+
+	private static CharBuffer grow(CharBuffer out) {
+		char[] chars = new char[2 * out.capacity()];
+		System.arraycopy(out.array(), 0, chars, 0, out.position());
+		CharBuffer grown = CharBuffer.wrap(chars);
+		grown.position(out.position());
+		return grown;
+	}
+
+	/** a Reader decoding the stream in its declared charset.
+	 *
+	 * @param is read as the Reader is read
+	 * @param defaultCharset if the document declares none
+	 * @return reader (without any BOM)
+	 * @throws IOException
+	 */
+	public static Reader openReader(InputStream is, Charset defaultCharset) throws IOException {
+		BufferedInputStream bis = new BufferedInputStream(is, BYTE_BUFFER_SIZE);
+		bis.mark(SNIFF_LENGTH);
+		byte[] head = new byte[SNIFF_LENGTH];
+		int headLength = readFully(bis, head);
+		bis.reset();
+		Charset charset = detectCharset(head, headLength, defaultCharset);
+		int bom = getBomLength(head, headLength);
+		for (int i = 0; i < bom; i++) {
+			bis.read();
+		}
+		return new InputStreamReader(bis, charset);
+	}
+
+	/** @return number of bytes read; less than buffer only at end of stream */
+	private static int readFully(InputStream is, byte[] buffer) throws IOException {
+		int length = 0;
+		while (length < buffer.length) {
+			int n = is.read(buffer, length, buffer.length - length);
+			if (n == -1) {
+				break;
+			}
+			length += n;
+		}
+		return length;
+	}
+}
@@ -0,0 +1,424 @@
+package org.xmlcml.html.util;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/** single-pass string cleaning of legacy HTML before parsing.
+ *
+ * replaces the chain of rewrites in HtmlFactory.parse() (each of which copied the whole document):
+ * <ul>
+ * <li>remove elements with content (XMLUtil.removeTags)</li>
+ * <li>remove start and end tags but keep content</li>
+ * <li>remove namespace prefixes from tags</li>
+ * <li>remove single keywords such as itemscope</li>
+ * <li>strip the DOCTYPE</li>
+ * <li>insert missing namespace declarations into the html root</li>
+ * <li>strip attributes such as onclick</li>
+ * <li>unescape entities (e.g. the XML ones)</li>
+ * <li>replace problem characters (e.g. nbsp, smart quotes)</li>
+ * </ul>
+ * all rewrites are compiled into a dispatch on the current character and applied in one scan
+ * over the input into a single output buffer. The result is the same as running the rewrites
+ * one after the other, unless one rewrite creates a match for another (e.g. removing an
+ * element joins text into " itemscope "), which does not happen in practice.
+ *
+ * the compiled form is immutable; a configured preprocessor can be shared between threads.
+ *
+ * @author pm286
+ *
+ */
+public class HtmlPreprocessor {
+
+	private static final Logger LOG = Logger.getLogger(HtmlPreprocessor.class);
+
+	private static final String DOCTYPE = "<!DOCTYPE";
+	private static final String HTML = "html";
+
+	private List<String> contentTags;
+	private List<String> noContentTags;
+	private List<String> keywords;
+	private List<String> attributesToDelete;
+	private List<String> missingNamespacePrefixes;
+	private boolean stripDoctype;
+	private boolean removeNamespacePrefixes;
+	private HtmlEntityDecoder entityDecoder;
+	private HtmlCharacterMapper characterMapper;
+
+	// compiled
+	private String[] contentStartTags;
+	private String[] contentEndTags;
+	private String[] noContentStartTags;
+	private String[] noContentEndTags;
+	private String[] keywordStrings;
+	private String[] attributeNames;
+	private boolean[] attributeFirstChars;
+	private boolean nonAsciiAttributeFirstChar;
+	private String htmlNamespaces;
+
+	public HtmlPreprocessor() {
+		contentTags = new ArrayList<String>();
+		noContentTags = new ArrayList<String>();
+		keywords = new ArrayList<String>();
+		attributesToDelete = new ArrayList<String>();
+		missingNamespacePrefixes = new ArrayList<String>();
+		removeNamespacePrefixes = true;
+		stripDoctype = true;
+		characterMapper = HtmlCharacterMapper.getDefault();
+	}
+
+	/** remove &lt;tag ...&gt; ... &lt;/tag&gt; including content.
+	 *
+	 * @param tags
+	 */
+	public void setContentTags(List<String> tags) {
+		this.contentTags = new ArrayList<String>(tags);
+	}
+
+	/** remove &lt;tag ...&gt; and &lt;/tag&gt; but keep content.
+	 *
+	 * @param tags
+	 */
+	public void setNoContentTags(List<String> tags) {
+		this.noContentTags = new ArrayList<String>(tags);
+	}
+
+	/** remove " keyword " (replaced by " ").
+	 *
+	 * @param keywords
+	 */
+	public void setKeywords(List<String> keywords) {
+		this.keywords = new ArrayList<String>(keywords);
+	}
+
+	/** remove name="value" wherever it occurs.
+	 *
+	 * @param attributes
+	 */
+	public void setAttributesToDelete(List<String> attributes) {
+		this.attributesToDelete = new ArrayList<String>(attributes);
+	}
+
+	/** add xmlns:prefix="http://foo/prefix/" to &lt;html.
+	 *
+	 * @param prefixes
+	 */
+	public void setMissingNamespacePrefixes(List<String> prefixes) {
+		this.missingNamespacePrefixes = new ArrayList<String>(prefixes);
+	}
+
+	public void setStripDoctype(boolean stripDoctype) {
+		this.stripDoctype = stripDoctype;
+	}
+
+	/** convert &lt;foo:bar and &lt;/foo:bar to &lt;bar and &lt;/bar.
+	 *
+	 * @param removeNamespacePrefixes
+	 */
+	public void setRemoveNamespacePrefixes(boolean removeNamespacePrefixes) {
+		this.removeNamespacePrefixes = removeNamespacePrefixes;
+	}
+
+	/** named entities to unescape (numeric entities are always unescaped if this is set).
+	 *
+	 * @param entityMap name (without &amp; and ;) to value; null means no unescaping
+	 */
+	public void setEntityMap(Map<String, CharSequence> entityMap) {
+		this.entityDecoder = entityMap == null ? null : new HtmlEntityDecoder(entityMap);
+	}
+
+	/** pairs of {bad, good} characters.
+	 *
+	 * defaults to those of HtmlUtil.replaceProblemCharacters().
+	 *
+	 * @param problemCharacters null means no replacement
+	 */
+	public void setProblemCharacters(char[][] problemCharacters) {
+		this.characterMapper = problemCharacters == null ? null : new HtmlCharacterMapper(problemCharacters);
+	}
+
+	/** replacement of problem characters.
+	 *
+	 * @param characterMapper default HtmlCharacterMapper.getDefault(); null means no replacement
+	 */
+	public void setCharacterMapper(HtmlCharacterMapper characterMapper) {
+		this.characterMapper = characterMapper;
+	}
+
+	/** compiles the configuration.
+	 *
+	 * must be called after the last setter and before preprocess().
+	 *
+	 * @return this
+	 */
+	public HtmlPreprocessor compile() {
+		contentStartTags = prefixAll("<", contentTags, "");
+		contentEndTags = prefixAll("</", contentTags, ">");
+		noContentStartTags = prefixAll("<", noContentTags, "");
+		noContentEndTags = prefixAll("</", noContentTags, ">");
+		keywordStrings = prefixAll(" ", keywords, " ");
+		attributeNames = attributesToDelete.toArray(new String[0]);
+		attributeFirstChars = new boolean[128];
+		nonAsciiAttributeFirstChar = false;
+		for (String attributeName : attributeNames) {
+			char c = attributeName.length() == 0 ? 0 : attributeName.charAt(0);
+			if (c >= 128) {
+				nonAsciiAttributeFirstChar = true;
+			} else if (c > 0) {
+				attributeFirstChars[c] = true;
+			}
+		}
+		// repeated String.replace("<html", "<html xmlns:p=...") puts the last prefix first
+		StringBuilder sb = new StringBuilder();
+		for (int i = missingNamespacePrefixes.size() - 1; i >= 0; i--) {
+			String prefix = missingNamespacePrefixes.get(i);
+			sb.append(" xmlns:"+prefix+"=\"http://foo/"+prefix+"/\"");
+		}
+		htmlNamespaces = sb.toString();
+		return this;
+	}
+
+	private static String[] prefixAll(String prefix, List<String> strings, String suffix) {
+		String[] result = new String[strings.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = prefix + strings.get(i) + suffix;
+		}
+		return result;
+	}
+
+	/** applies all rewrites in a single pass.
+	 *
+	 * @param input
+	 * @return cleaned string; "" if there is no content
+	 */
+	public String preprocess(CharBuffer input) {
+		return preprocess((CharSequence) input);
+	}
+
+	/** applies all rewrites in a single pass.
+	 *
+	 * @param input
+	 * @return cleaned string; "" if there is no content
+	 */
+	public String preprocess(CharSequence input) {
+		if (contentStartTags == null) {
+			throw new IllegalStateException("HtmlPreprocessor must be compiled before use");
+		}
+		int len = input.length();
+		StringBuilder out = new StringBuilder(len + htmlNamespaces.length());
+		boolean doctypeSeen = !stripDoctype;
+		int i = 0;
+		while (i < len) {
+			char c = input.charAt(i);
+			int next = -1;
+			if (c == '<') {
+				next = processTagOpen(input, i, out, doctypeSeen);
+				if (!doctypeSeen && next > i && startsWith(input, i, DOCTYPE)) {
+					doctypeSeen = true;
+				}
+			} else if (c == ' ' && keywordStrings.length > 0) {
+				next = skipKeyword(input, i, out);
+			} else if (c == '&' && entityDecoder != null) {
+				next = unescape(input, i, out);
+			}
+			if (next == -1 && (c < 128 ? attributeFirstChars[c] : nonAsciiAttributeFirstChar)) {
+				next = skipAttribute(input, i);
+			}
+			if (next == -1) {
+				append(out, c);
+				i++;
+			} else {
+				i = next;
+			}
+		}
+		if (isWhitespace(out)) {
+			LOG.error("legacy HTML has no content");
+			return "";
+		}
+		return out.toString();
+	}
+
+	/** handles everything starting with '&lt;'.
+	 *
+	 * @return index after consumed input or -1 if nothing matched
+	 */
+	private int processTagOpen(CharSequence input, int i, StringBuilder out, boolean doctypeSeen) {
+		for (int k = 0; k < contentStartTags.length; k++) {
+			if (startsWith(input, i, contentStartTags[k])) {
+				int end = indexOf(input, contentEndTags[k], i);
+				if (end == -1) {
+					throw new RuntimeException("missing endTag: "+contentEndTags[k]);
+				}
+				return end + contentEndTags[k].length();
+			}
+		}
+		for (int k = 0; k < noContentStartTags.length; k++) {
+			if (startsWith(input, i, noContentStartTags[k])) {
+				int end = indexOf(input, ">", i + noContentStartTags[k].length());
+				if (end != -1) {
+					return end + 1;
+				}
+			} else if (startsWith(input, i, noContentEndTags[k])) {
+				return i + noContentEndTags[k].length();
+			}
+		}
+		if (!doctypeSeen && startsWith(input, i, DOCTYPE)) {
+			int end = indexOf(input, ">", i);
+			if (end != -1) {
+				end++;
+				while (end < input.length() && Character.isWhitespace(input.charAt(end))) {
+					end++;
+				}
+				return end;
+			}
+		}
+		int j = i + 1;
+		boolean endTag = j < input.length() && input.charAt(j) == '/';
+		if (endTag) {
+			j++;
+		}
+		if (removeNamespacePrefixes) {
+			int k = j;
+			while (k < input.length() && input.charAt(k) >= 'a' && input.charAt(k) <= 'z') {
+				k++;
+			}
+			if (k > j && k < input.length() && input.charAt(k) == ':') {
+				append(out, '<');
+				if (endTag) {
+					append(out, '/');
+				}
+				j = k + 1;
+				return endTag ? j : appendHtmlNamespaces(input, j, out);
+			}
+		}
+		if (!endTag && htmlNamespaces.length() > 0 && startsWith(input, j, HTML)) {
+			append(out, '<');
+			return appendHtmlNamespaces(input, j, out);
+		}
+		return -1;
+	}
+
+	/** after "&lt;" has been written, copies "html" and the namespaces if present.
+	 *
+	 * @return index after consumed input
+	 */
+	private int appendHtmlNamespaces(CharSequence input, int j, StringBuilder out) {
+		if (htmlNamespaces.length() > 0 && startsWith(input, j, HTML)) {
+			out.append(HTML);
+			out.append(htmlNamespaces);
+			j += HTML.length();
+		}
+		return j;
+	}
+
+	private int skipKeyword(CharSequence input, int i, StringBuilder out) {
+		for (String keyword : keywordStrings) {
+			if (startsWith(input, i, keyword)) {
+				append(out, ' ');
+				return i + keyword.length();
+			}
+		}
+		return -1;
+	}
+
+	/** matches name\s*=\s*"[^"]+".
+	 *
+	 * @return index after attribute or -1
+	 */
+	private int skipAttribute(CharSequence input, int i) {
+		int len = input.length();
+		for (String attributeName : attributeNames) {
+			if (!startsWith(input, i, attributeName)) {
+				continue;
+			}
+			int j = skipRegexWhitespace(input, i + attributeName.length());
+			if (j >= len || input.charAt(j) != '=') {
+				continue;
+			}
+			j = skipRegexWhitespace(input, j + 1);
+			if (j >= len || input.charAt(j) != '"') {
+				continue;
+			}
+			int end = indexOf(input, "\"", j + 1);
+			if (end > j + 1) {
+				return end + 1;
+			}
+		}
+		return -1;
+	}
+
+	/** same rules as HtmlUtil.unescapeHtml3().
+	 *
+	 * @return index after entity or -1 if not an entity
+	 */
+	private int unescape(CharSequence input, int amp, StringBuilder out) {
+		int start = out.length();
+		int next = entityDecoder.decodeReference(input, amp, out);
+		if (next != -1 && characterMapper != null) {
+			String decoded = out.substring(start);
+			String mapped = characterMapper.map(decoded);
+			if (mapped != decoded) {
+				out.setLength(start);
+				out.append(mapped);
+			}
+		}
+		return next;
+	}
+
+	private void append(StringBuilder out, char c) {
+		if (characterMapper == null) {
+			out.append(c);
+		} else {
+			characterMapper.append(c, out);
+		}
+	}
+
+	private static int skipRegexWhitespace(CharSequence input, int i) {
+		while (i < input.length()) {
+			char c = input.charAt(i);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') {
+				break;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean startsWith(CharSequence input, int i, String s) {
+		if (i + s.length() > input.length()) {
+			return false;
+		}
+		for (int k = 0; k < s.length(); k++) {
+			if (input.charAt(i + k) != s.charAt(k)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(CharSequence input, String s, int from) {
+		if (input instanceof String) {
+			return ((String) input).indexOf(s, from);
+		}
+		int last = input.length() - s.length();
+		char first = s.charAt(0);
+		for (int i = from; i <= last; i++) {
+			if (input.charAt(i) == first && startsWith(input, i, s)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isWhitespace(CharSequence s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,313 @@
+package org.xmlcml.html.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.xmlcml.html.HtmlElement;
+
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Node;
+import nu.xom.Nodes;
+import nu.xom.XPathContext;
+
+/** a reusable, compiled XPath query over HtmlElements.
+ * 
+ * <pre>
+ * HtmlQuery query = HtmlQuery.compile(".//h:table");
+ * for (HtmlElement article : articles) {
+ *     List&lt;HtmlElement&gt; tables = query.getHtmlElements(article);
+ * }
+ * </pre>
+ * 
+ * the common single-step forms used throughout this library are compiled into a direct walk of the tree,
+ * with no XPath engine at all:
+ * <pre>
+ * ./*   .//*   //*
+ * ./h:tag   .//h:tag   //h:tag          (any prefix bound in the XPathContext)
+ * ./*[local-name()='tag']   .//*[local-name()='tag']   //*[local-name()='tag']
+ * </pre>
+ * other expressions are passed to XOM's query(). XOM has no public API for precompiled expressions,
+ * so these are still compiled by XOM on each call.
+ * 
+ * compile() caches queries by expression and XPathContext (LRU, see setCacheSize()). HtmlQuery
+ * is immutable and thread-safe.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlQuery {
+	private static final Logger LOG = Logger.getLogger(HtmlQuery.class);
+
+	public static final int DEFAULT_CACHE_SIZE = 256;
+
+	private static final Pattern SIMPLE_STEP = Pattern.compile(
+			"(\\./|\\.//|//)(?:(\\*)|([A-Za-z_][\\w\\-\\.]*):([A-Za-z_][\\w\\-\\.]*)|\\*\\[local-name\\(\\)\\s*=\\s*(?:'([^']*)'|\"([^\"]*)\")\\])");
+
+	private enum Axis {CHILD, DESCENDANT, ROOT_DESCENDANT_OR_SELF}
+
+	private static final Map<CacheKey, HtmlQuery> CACHE = new LinkedHashMap<CacheKey, HtmlQuery>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<CacheKey, HtmlQuery> eldest) {
+			return size() > cacheSize;
+		}
+	};
+	private static int cacheSize = DEFAULT_CACHE_SIZE;
+
+	private String xpath;
+	private XPathContext xPathContext;
+	private boolean nativeWalk;
+	private Axis axis;
+	private String namespaceURI;
+	private String localName;
+
+	private HtmlQuery(String xpath, XPathContext xPathContext) {
+		this.xpath = xpath;
+		this.xPathContext = xPathContext;
+		compileNative();
+	}
+
+	/** compiled query using HtmlUtil.XHTML_XPATH (prefix h).
+	 * 
+	 * @param xpath
+	 * @return cached query
+	 */
+	public static HtmlQuery compile(String xpath) {
+		return compile(xpath, HtmlUtil.XHTML_XPATH);
+	}
+
+	/** compiled query.
+	 * 
+	 * @param xpath
+	 * @param xPathContext namespace bindings (compared by identity in the cache); may be null
+	 * @return cached query
+	 */
+	public static HtmlQuery compile(String xpath, XPathContext xPathContext) {
+		if (xpath == null) {
+			throw new RuntimeException("null xpath");
+		}
+		CacheKey key = new CacheKey(xpath, xPathContext);
+		synchronized (CACHE) {
+			HtmlQuery query = CACHE.get(key);
+			if (query == null) {
+				query = new HtmlQuery(xpath, xPathContext);
+				CACHE.put(key, query);
+			}
+			return query;
+		}
+	}
+
+	/** maximum number of cached queries.
+	 * 
+	 * @param size 0 disables caching
+	 */
+	public static void setCacheSize(int size) {
+		synchronized (CACHE) {
+			cacheSize = size;
+			while (CACHE.size() > size) {
+				CACHE.remove(CACHE.keySet().iterator().next());
+			}
+		}
+	}
+
+	public static int getCacheSize() {
+		return cacheSize;
+	}
+
+	public static void clearCache() {
+		synchronized (CACHE) {
+			CACHE.clear();
+		}
+	}
+
+	private void compileNative() {
+		Matcher matcher = SIMPLE_STEP.matcher(xpath.trim());
+		if (!matcher.matches()) {
+			return;
+		}
+		String axisString = matcher.group(1);
+		axis = "./".equals(axisString) ? Axis.CHILD : ("//".equals(axisString) ? Axis.ROOT_DESCENDANT_OR_SELF : Axis.DESCENDANT);
+		if (matcher.group(2) != null) {
+			// any element
+		} else if (matcher.group(3) != null) {
+			namespaceURI = xPathContext == null ? null : xPathContext.lookup(matcher.group(3));
+			if (namespaceURI == null) {
+				// unbound prefix; let XOM report it
+				return;
+			}
+			localName = matcher.group(4);
+		} else {
+			localName = matcher.group(5) != null ? matcher.group(5) : matcher.group(6);
+		}
+		nativeWalk = true;
+	}
+
+	public String getXPath() {
+		return xpath;
+	}
+
+	/** true if evaluated by walking the tree rather than by XOM.
+	 * 
+	 * @return
+	 */
+	public boolean isNative() {
+		return nativeWalk;
+	}
+
+	/** evaluate.
+	 * 
+	 * @param node context node
+	 * @return nodes in document order
+	 */
+	public Nodes query(Node node) {
+		if (!nativeWalk) {
+			return node.query(xpath, xPathContext);
+		}
+		Nodes nodes = new Nodes();
+		for (Element element : getElements(node)) {
+			nodes.append(element);
+		}
+		return nodes;
+	}
+
+	/** evaluate and return only the elements.
+	 * 
+	 * @param node context node
+	 * @return elements in document order
+	 */
+	public List<Element> getElements(Node node) {
+		List<Element> elements = new ArrayList<Element>();
+		if (nativeWalk) {
+			switch (axis) {
+			case CHILD:
+				addMatchingChildren(node, elements);
+				break;
+			case DESCENDANT:
+				addMatchingDescendants(node, elements);
+				break;
+			default:
+				Document document = node.getDocument();
+				Element root = document == null ? rootElement(node) : document.getRootElement();
+				addIfMatches(root, elements);
+				addMatchingDescendants(root, elements);
+			}
+		} else {
+			Nodes nodes = node.query(xpath, xPathContext);
+			for (int i = 0; i < nodes.size(); i++) {
+				Node child = nodes.get(i);
+				if (child instanceof Element) {
+					elements.add((Element) child);
+				}
+			}
+		}
+		return elements;
+	}
+
+	/** evaluate and return HtmlElements.
+	 * 
+	 * @param node context node
+	 * @return elements in document order
+	 * @throws RuntimeException if a selected element is not an HtmlElement
+	 */
+	public List<HtmlElement> getHtmlElements(Node node) {
+		List<Element> elements = getElements(node);
+		List<HtmlElement> htmlElements = new ArrayList<HtmlElement>(elements.size());
+		for (Element element : elements) {
+			if (!(element instanceof HtmlElement)) {
+				throw new RuntimeException("Element was not HtmlElement: "+element.toXML());
+			}
+			htmlElements.add((HtmlElement) element);
+		}
+		return htmlElements;
+	}
+
+	private static Element rootElement(Node node) {
+		Node current = node;
+		while (current.getParent() != null) {
+			current = current.getParent();
+		}
+		return current instanceof Element ? (Element) current : null;
+	}
+
+	private void addMatchingChildren(Node node, List<Element> elements) {
+		for (int i = 0; i < node.getChildCount(); i++) {
+			addIfMatches(node.getChild(i), elements);
+		}
+	}
+
+	/** preorder walk without recursion (deep documents). */
+	private void addMatchingDescendants(Node node, List<Element> elements) {
+		if (node == null || node.getChildCount() == 0) {
+			return;
+		}
+		List<Node> parents = new ArrayList<Node>();
+		List<Integer> indexes = new ArrayList<Integer>();
+		Node parent = node;
+		int index = 0;
+		while (true) {
+			if (index < parent.getChildCount()) {
+				Node child = parent.getChild(index++);
+				if (child instanceof Element) {
+					addIfMatches(child, elements);
+					if (child.getChildCount() > 0) {
+						parents.add(parent);
+						indexes.add(index);
+						parent = child;
+						index = 0;
+					}
+				}
+			} else if (parents.isEmpty()) {
+				break;
+			} else {
+				int last = parents.size() - 1;
+				parent = parents.remove(last);
+				index = indexes.remove(last);
+			}
+		}
+	}
+
+	private void addIfMatches(Node node, List<Element> elements) {
+		if (node instanceof Element) {
+			Element element = (Element) node;
+			if ((localName == null || localName.equals(element.getLocalName())) &&
+					(namespaceURI == null || namespaceURI.equals(element.getNamespaceURI()))) {
+				elements.add(element);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return xpath+(nativeWalk ? " (native)" : "");
+	}
+
+	private static class CacheKey {
+		private String xpath;
+		private XPathContext xPathContext;
+
+		CacheKey(String xpath, XPathContext xPathContext) {
+			this.xpath = xpath;
+			this.xPathContext = xPathContext;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey key = (CacheKey) obj;
+			return xpath.equals(key.xpath) && xPathContext == key.xPathContext;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * xpath.hashCode() + System.identityHashCode(xPathContext);
+		}
+	}
+}
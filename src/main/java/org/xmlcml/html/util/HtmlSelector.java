@@ -0,0 +1,614 @@
+package org.xmlcml.html.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import org.apache.log4j.Logger;
+import org.xmlcml.html.HtmlDocumentIndex;
+import org.xmlcml.html.HtmlElement;
+
+import nu.xom.Attribute;
+import nu.xom.Element;
+import nu.xom.Node;
+import nu.xom.ParentNode;
+
+/** CSS selectors evaluated directly on HtmlElement trees.
+ * 
+ * <pre>
+ * List&lt;HtmlElement&gt; rows = root.select("table > tbody tr:has(th)");
+ * HtmlSelector selector = HtmlSelector.compile("div.section p:first-child");
+ * </pre>
+ * supported:
+ * <ul>
+ * <li>type (case-insensitive), *, #id, .class</li>
+ * <li>[att], [att=v], [att~=v], [att|=v], [att^=v], [att$=v], [att*=v] (values may be quoted)</li>
+ * <li>:first-child, :last-child, :only-child, :nth-child(an+b|odd|even), :empty, :root, 
+ *   :not(compound), :has(relative selector)</li>
+ * <li>combinators: descendant (space), &gt;, +, ~ and groups separated by ','</li>
+ * </ul>
+ * a selector is compiled once into matchers and evaluated right to left: candidates are chosen 
+ * from the rightmost compound (by tag, or from an attached HtmlDocumentIndex by id, class or tag) and 
+ * only then are ancestors and siblings checked. Results are in document order and include the
+ * element select() is called on if it matches (as in Jsoup). Compiled selectors are cached and
+ * are immutable and thread-safe.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlSelector {
+	private static final Logger LOG = Logger.getLogger(HtmlSelector.class);
+
+	public static final int DEFAULT_CACHE_SIZE = 256;
+
+	private static final Map<String, HtmlSelector> CACHE = new LinkedHashMap<String, HtmlSelector>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, HtmlSelector> eldest) {
+			return size() > DEFAULT_CACHE_SIZE;
+		}
+	};
+
+	private enum Combinator {DESCENDANT, CHILD, ADJACENT, SIBLING}
+
+	/** type, id, classes and other conditions on one element. */
+	private static class Compound {
+		private String tag;
+		private String id;
+		private String className;
+		private List<Predicate<HtmlElement>> conditions = new ArrayList<Predicate<HtmlElement>>();
+
+		boolean matches(HtmlElement element) {
+			if (tag != null && !tag.equals(element.getLocalName())) {
+				return false;
+			}
+			for (Predicate<HtmlElement> condition : conditions) {
+				if (!condition.test(element)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/** compounds joined by combinators; combinators[i] joins compounds[i] and compounds[i+1]. */
+	private static class Complex {
+		private List<Compound> compounds = new ArrayList<Compound>();
+		private List<Combinator> combinators = new ArrayList<Combinator>();
+		/** for :has(); combinator between the scope element and the first compound. */
+		private Combinator leading;
+
+		Compound last() {
+			return compounds.get(compounds.size() - 1);
+		}
+
+		boolean matches(HtmlElement element, HtmlElement scope) {
+			return matches(element, compounds.size() - 1, scope);
+		}
+
+		/** right-to-left with backtracking. */
+		private boolean matches(HtmlElement element, int i, HtmlElement scope) {
+			if (!compounds.get(i).matches(element)) {
+				return false;
+			}
+			if (i == 0) {
+				return scope == null || inScope(element, scope);
+			}
+			Combinator combinator = combinators.get(i - 1);
+			switch (combinator) {
+			case CHILD:
+				HtmlElement parent = parentElement(element);
+				return parent != null && parent != scope && matches(parent, i - 1, scope);
+			case DESCENDANT:
+				for (HtmlElement ancestor = parentElement(element); ancestor != null && ancestor != scope; ancestor = parentElement(ancestor)) {
+					if (matches(ancestor, i - 1, scope)) {
+						return true;
+					}
+				}
+				return false;
+			case ADJACENT:
+				HtmlElement previous = previousElementSibling(element);
+				return previous != null && matches(previous, i - 1, scope);
+			default:
+				for (HtmlElement sibling = previousElementSibling(element); sibling != null; sibling = previousElementSibling(sibling)) {
+					if (matches(sibling, i - 1, scope)) {
+						return true;
+					}
+				}
+				return false;
+			}
+		}
+
+		/** leftmost element of a relative selector must stand in the leading relation to scope. */
+		private boolean inScope(HtmlElement element, HtmlElement scope) {
+			switch (leading) {
+			case CHILD:
+				return parentElement(element) == scope;
+			case DESCENDANT:
+				for (HtmlElement ancestor = parentElement(element); ancestor != null; ancestor = parentElement(ancestor)) {
+					if (ancestor == scope) {
+						return true;
+					}
+				}
+				return false;
+			case ADJACENT:
+				return previousElementSibling(element) == scope;
+			default:
+				for (HtmlElement sibling = previousElementSibling(element); sibling != null; sibling = previousElementSibling(sibling)) {
+					if (sibling == scope) {
+						return true;
+					}
+				}
+				return false;
+			}
+		}
+	}
+
+	private String selector;
+	private List<Complex> complexes;
+
+	private HtmlSelector(String selector) {
+		this.selector = selector;
+		this.complexes = new Parser(selector).parseGroup(false);
+	}
+
+	/** compiled (cached) selector.
+	 * 
+	 * @param selector
+	 * @return
+	 * @throws RuntimeException if the selector cannot be parsed
+	 */
+	public static HtmlSelector compile(String selector) {
+		if (selector == null) {
+			throw new RuntimeException("null selector");
+		}
+		synchronized (CACHE) {
+			HtmlSelector htmlSelector = CACHE.get(selector);
+			if (htmlSelector == null) {
+				htmlSelector = new HtmlSelector(selector);
+				CACHE.put(selector, htmlSelector);
+			}
+			return htmlSelector;
+		}
+	}
+
+	public String getSelector() {
+		return selector;
+	}
+
+	/** true if element matches any selector in the group.
+	 * 
+	 * @param element
+	 * @return
+	 */
+	public boolean matches(HtmlElement element) {
+		for (Complex complex : complexes) {
+			if (complex.matches(element, null)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** root and its descendants that match, in document order.
+	 * 
+	 * @param root
+	 * @return
+	 */
+	public List<HtmlElement> select(HtmlElement root) {
+		List<HtmlElement> selected = new ArrayList<HtmlElement>();
+		for (HtmlElement candidate : getCandidates(root)) {
+			if (matches(candidate)) {
+				selected.add(candidate);
+			}
+		}
+		return selected;
+	}
+
+	/** first match in document order.
+	 * 
+	 * @param root
+	 * @return null if none
+	 */
+	public HtmlElement first(HtmlElement root) {
+		for (HtmlElement candidate : getCandidates(root)) {
+			if (matches(candidate)) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/** elements that could match the rightmost compound, in document order. */
+	private Iterable<HtmlElement> getCandidates(HtmlElement root) {
+		if (complexes.size() == 1) {
+			Compound last = complexes.get(0).last();
+			HtmlDocumentIndex index = root.getDocumentIndex();
+			if (index != null) {
+				if (last.id != null) {
+					// all elements with the id, as without an index
+					return index.getElementsById(last.id);
+				} else if (last.className != null) {
+					return index.getElementsByClass(last.className);
+				} else if (last.tag != null) {
+					return index.getElementsByTag(last.tag);
+				}
+			}
+			if (last.tag != null) {
+				return selfAnd(root, root.descendants(last.tag));
+			}
+		}
+		return selfAnd(root, root.descendants(HtmlElement.class));
+	}
+
+	private static Iterable<HtmlElement> selfAnd(HtmlElement root, Iterable<? extends HtmlElement> descendants) {
+		List<HtmlElement> elements = new ArrayList<HtmlElement>();
+		elements.add(root);
+		for (HtmlElement element : descendants) {
+			elements.add(element);
+		}
+		return elements;
+	}
+
+	static HtmlElement parentElement(HtmlElement element) {
+		ParentNode parent = element.getParent();
+		return parent instanceof HtmlElement ? (HtmlElement) parent : null;
+	}
+
+	static HtmlElement previousElementSibling(HtmlElement element) {
+		ParentNode parent = element.getParent();
+		if (parent == null) {
+			return null;
+		}
+		for (int i = parent.indexOf(element) - 1; i >= 0; i--) {
+			Node node = parent.getChild(i);
+			if (node instanceof Element) {
+				return node instanceof HtmlElement ? (HtmlElement) node : null;
+			}
+		}
+		return null;
+	}
+
+	/** 1-based position among element siblings (from the end if fromEnd). */
+	static int elementPosition(HtmlElement element, boolean fromEnd) {
+		ParentNode parent = element.getParent();
+		if (parent == null) {
+			return 1;
+		}
+		int position = 0;
+		int count = parent.getChildCount();
+		for (int i = 0; i < count; i++) {
+			Node node = parent.getChild(fromEnd ? count - 1 - i : i);
+			if (node instanceof Element) {
+				position++;
+				if (node == element) {
+					return position;
+				}
+			}
+		}
+		return position;
+	}
+
+	@Override
+	public String toString() {
+		return selector;
+	}
+
+	/** recursive-descent parser for the supported subset.
+	 */
+	private static class Parser {
+		private String s;
+		private int pos;
+
+		Parser(String s) {
+			this.s = s;
+			this.pos = 0;
+		}
+
+		List<Complex> parseGroup(boolean relative) {
+			List<Complex> complexes = new ArrayList<Complex>();
+			while (true) {
+				complexes.add(parseComplex(relative));
+				skipWhitespace();
+				if (pos < s.length() && s.charAt(pos) == ',') {
+					pos++;
+				} else {
+					break;
+				}
+			}
+			if (!relative && pos < s.length()) {
+				throw error("unexpected character");
+			}
+			return complexes;
+		}
+
+		private Complex parseComplex(boolean relative) {
+			Complex complex = new Complex();
+			skipWhitespace();
+			complex.leading = Combinator.DESCENDANT;
+			if (relative) {
+				Combinator leading = parseCombinatorSymbol();
+				if (leading != null) {
+					complex.leading = leading;
+				}
+			}
+			complex.compounds.add(parseCompound());
+			while (true) {
+				int start = pos;
+				boolean whitespace = skipWhitespace();
+				if (pos >= s.length() || s.charAt(pos) == ',' || s.charAt(pos) == ')') {
+					break;
+				}
+				Combinator combinator = parseCombinatorSymbol();
+				if (combinator == null) {
+					if (!whitespace) {
+						pos = start;
+						throw error("expected combinator");
+					}
+					combinator = Combinator.DESCENDANT;
+				}
+				complex.combinators.add(combinator);
+				complex.compounds.add(parseCompound());
+			}
+			return complex;
+		}
+
+		private Combinator parseCombinatorSymbol() {
+			skipWhitespace();
+			if (pos >= s.length()) {
+				return null;
+			}
+			char c = s.charAt(pos);
+			Combinator combinator = c == '>' ? Combinator.CHILD : (c == '+' ? Combinator.ADJACENT : (c == '~' ? Combinator.SIBLING : null));
+			if (combinator != null) {
+				pos++;
+				skipWhitespace();
+			}
+			return combinator;
+		}
+
+		private Compound parseCompound() {
+			Compound compound = new Compound();
+			int start = pos;
+			if (pos < s.length() && s.charAt(pos) == '*') {
+				pos++;
+			} else if (pos < s.length() && isIdentStart(s.charAt(pos))) {
+				compound.tag = parseIdent().toLowerCase();
+			}
+			while (pos < s.length()) {
+				char c = s.charAt(pos);
+				if (c == '#') {
+					pos++;
+					final String id = parseIdent();
+					if (compound.id == null) {
+						compound.id = id;
+					}
+					compound.conditions.add(element -> id.equals(element.getId()));
+				} else if (c == '.') {
+					pos++;
+					final String className = parseIdent();
+					if (compound.className == null) {
+						compound.className = className;
+					}
+					compound.conditions.add(element -> containsToken(element.getClassAttribute(), className));
+				} else if (c == '[') {
+					pos++;
+					compound.conditions.add(parseAttribute());
+				} else if (c == ':') {
+					pos++;
+					compound.conditions.add(parsePseudo());
+				} else {
+					break;
+				}
+			}
+			if (pos == start) {
+				throw error("expected selector");
+			}
+			return compound;
+		}
+
+		private Predicate<HtmlElement> parseAttribute() {
+			skipWhitespace();
+			final String name = parseIdent();
+			skipWhitespace();
+			if (pos < s.length() && s.charAt(pos) == ']') {
+				pos++;
+				return element -> element.getAttribute(name) != null;
+			}
+			String operator;
+			if (s.startsWith("=", pos)) {
+				operator = "=";
+			} else if (pos + 1 < s.length() && s.charAt(pos + 1) == '=' && "~|^$*".indexOf(s.charAt(pos)) != -1) {
+				operator = s.substring(pos, pos + 2);
+			} else {
+				throw error("expected attribute operator");
+			}
+			pos += operator.length();
+			skipWhitespace();
+			final String value = parseValue();
+			skipWhitespace();
+			expect(']');
+			final char op = operator.charAt(0);
+			return element -> {
+				Attribute attribute = element.getAttribute(name);
+				if (attribute == null) {
+					return false;
+				}
+				String v = attribute.getValue();
+				switch (op) {
+				case '=': return v.equals(value);
+				case '~': return containsToken(v, value);
+				case '|': return v.equals(value) || v.startsWith(value+"-");
+				case '^': return value.length() > 0 && v.startsWith(value);
+				case '$': return value.length() > 0 && v.endsWith(value);
+				default: return value.length() > 0 && v.contains(value);
+				}
+			};
+		}
+
+		private Predicate<HtmlElement> parsePseudo() {
+			String name = parseIdent().toLowerCase();
+			if ("first-child".equals(name)) {
+				return element -> previousElementSibling(element) == null && element.getParent() != null;
+			} else if ("last-child".equals(name)) {
+				return element -> element.getParent() != null && elementPosition(element, true) == 1;
+			} else if ("only-child".equals(name)) {
+				return element -> element.getParent() != null && elementPosition(element, false) == 1 && elementPosition(element, true) == 1;
+			} else if ("empty".equals(name)) {
+				return element -> element.getChildCount() == 0;
+			} else if ("root".equals(name)) {
+				return element -> parentElement(element) == null;
+			} else if ("nth-child".equals(name)) {
+				expect('(');
+				int[] ab = parseNth(readUntilClose());
+				final int a = ab[0];
+				final int b = ab[1];
+				return element -> {
+					int n = elementPosition(element, false) - b;
+					return a == 0 ? n == 0 : (n / a >= 0 && n % a == 0);
+				};
+			} else if ("not".equals(name)) {
+				expect('(');
+				skipWhitespace();
+				final Compound compound = parseCompound();
+				skipWhitespace();
+				expect(')');
+				return element -> !compound.matches(element);
+			} else if ("has".equals(name)) {
+				expect('(');
+				final List<Complex> relatives = parseGroup(true);
+				expect(')');
+				return element -> has(element, relatives);
+			}
+			throw error("unsupported pseudo-class :"+name);
+		}
+
+		private String readUntilClose() {
+			int end = s.indexOf(')', pos);
+			if (end == -1) {
+				throw error("missing )");
+			}
+			String arg = s.substring(pos, end).trim();
+			pos = end + 1;
+			return arg;
+		}
+
+		private int[] parseNth(String arg) {
+			arg = arg.replaceAll("\\s+", "").toLowerCase();
+			if ("odd".equals(arg)) {
+				return new int[]{2, 1};
+			} else if ("even".equals(arg)) {
+				return new int[]{2, 0};
+			}
+			try {
+				int idx = arg.indexOf('n');
+				if (idx == -1) {
+					return new int[]{0, Integer.parseInt(arg)};
+				}
+				String aString = arg.substring(0, idx);
+				int a = aString.length() == 0 || "+".equals(aString) ? 1 : ("-".equals(aString) ? -1 : Integer.parseInt(aString));
+				String bString = arg.substring(idx + 1);
+				int b = bString.length() == 0 ? 0 : Integer.parseInt(bString.startsWith("+") ? bString.substring(1) : bString);
+				return new int[]{a, b};
+			} catch (NumberFormatException e) {
+				throw error("bad nth-child argument: "+arg);
+			}
+		}
+
+		private String parseIdent() {
+			int start = pos;
+			while (pos < s.length() && isIdentChar(s.charAt(pos))) {
+				pos++;
+			}
+			if (pos == start) {
+				throw error("expected name");
+			}
+			return s.substring(start, pos);
+		}
+
+		private String parseValue() {
+			if (pos < s.length() && (s.charAt(pos) == '"' || s.charAt(pos) == '\'')) {
+				char quote = s.charAt(pos);
+				int end = s.indexOf(quote, pos + 1);
+				if (end == -1) {
+					throw error("unterminated string");
+				}
+				String value = s.substring(pos + 1, end);
+				pos = end + 1;
+				return value;
+			}
+			return parseIdent();
+		}
+
+		private void expect(char c) {
+			skipWhitespace();
+			if (pos >= s.length() || s.charAt(pos) != c) {
+				throw error("expected '"+c+"'");
+			}
+			pos++;
+		}
+
+		private boolean skipWhitespace() {
+			int start = pos;
+			while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+				pos++;
+			}
+			return pos > start;
+		}
+
+		private static boolean isIdentStart(char c) {
+			return Character.isLetter(c) || c == '_' || c == '-';
+		}
+
+		private static boolean isIdentChar(char c) {
+			return Character.isLetterOrDigit(c) || c == '_' || c == '-';
+		}
+
+		private RuntimeException error(String message) {
+			return new RuntimeException("bad selector ("+message+") at "+pos+": "+s);
+		}
+	}
+
+	private static boolean has(HtmlElement element, List<Complex> relatives) {
+		for (Complex relative : relatives) {
+			Iterable<HtmlElement> candidates = relative.leading == Combinator.CHILD ?
+					element.children(HtmlElement.class) : element.descendants(HtmlElement.class);
+			if (relative.leading == Combinator.ADJACENT || relative.leading == Combinator.SIBLING) {
+				candidates = followingSiblings(element);
+			}
+			for (HtmlElement candidate : candidates) {
+				if (relative.matches(candidate, element)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static List<HtmlElement> followingSiblings(HtmlElement element) {
+		List<HtmlElement> siblings = new ArrayList<HtmlElement>();
+		ParentNode parent = element.getParent();
+		if (parent != null) {
+			for (int i = parent.indexOf(element) + 1; i < parent.getChildCount(); i++) {
+				if (parent.getChild(i) instanceof HtmlElement) {
+					siblings.add((HtmlElement) parent.getChild(i));
+				}
+			}
+		}
+		return siblings;
+	}
+
+	private static boolean containsToken(String value, String token) {
+		if (value == null || token.length() == 0) {
+			return false;
+		}
+		for (String t : value.trim().split("\\s+")) {
+			if (t.equals(token)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
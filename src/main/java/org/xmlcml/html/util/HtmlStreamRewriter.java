@@ -0,0 +1,427 @@
+package org.xmlcml.html.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.apache.log4j.Logger;
+
+/** a rewrite of HTML text that can run on a stream, chunk by chunk.
+ *
+ * <pre>
+ * Reader reader = HtmlStreamRewriter.createDoctypeStripper().filter(
+ *     HtmlStreamRewriter.createNewlineFlattener().filter(inputReader));
+ * HtmlStreamRewriter.RewritingWriter writer = HtmlStreamRewriter.createXmlLangRemover().filter(outputWriter);
+ * ...
+ * writer.finish();
+ * </pre>
+ * a subclass rewrites the longest prefix of the text it has been given that it can decide, and
+ * leaves the rest (e.g. a tag cut by the end of a buffer) to be offered again with more text.
+ * filter() wraps a Reader or Writer so that stages can be chained; each holds at most a buffer
+ * plus the undecided tail, so memory does not grow with the document.
+ *
+ * the rewrites are those HTMLTidy has always applied to whole strings (DOCTYPE, xml:lang,
+ * newlines, foreign namespace prefixes; tags through HTMLTagReplacer.createStreamRewriter()) and
+ * give the same result.
+ *
+ * a rewriter keeps state between chunks: use a new one for each document.
+ *
+ * @author pm286
+ *
+ */
+public abstract class HtmlStreamRewriter {
+	private static final Logger LOG = Logger.getLogger(HtmlStreamRewriter.class);
+
+	public static final int BUFFER_SIZE = 8192;
+
+	private static final String DOCTYPE = "<!DOCTYPE";
+	private static final String XML_LANG = "xml:lang";
+
+	/** rewrite a prefix of in.
+	 *
+	 * @param in text not yet consumed
+	 * @param endOfInput if true there is no more text and all of in must be consumed
+	 * @param out rewritten text is appended
+	 * @return number of chars of in consumed
+	 */
+	protected abstract int rewrite(CharSequence in, boolean endOfInput, StringBuilder out);
+
+	/** a Reader that reads reader through this rewriter.
+	 *
+	 * @param reader
+	 * @return
+	 */
+	public Reader filter(Reader reader) {
+		return new RewritingReader(reader, this);
+	}
+
+	/** a Writer that rewrites its text and writes it to writer.
+	 *
+	 * @param writer
+	 * @return call finish() (or close()) after the last write
+	 */
+	public RewritingWriter filter(Writer writer) {
+		return new RewritingWriter(writer, this);
+	}
+
+	/** consume as much of pending as can be decided. */
+	private void process(StringBuilder pending, boolean endOfInput, StringBuilder out) {
+		int consumed = rewrite(pending, endOfInput, out);
+		if (consumed == pending.length()) {
+			pending.setLength(0);
+		} else {
+			pending.delete(0, consumed);
+		}
+	}
+
+	/** removes the first &lt;!DOCTYPE ...&gt; (as HTMLTidy.stripDoctype()).
+	 *
+	 * @return new rewriter
+	 * @throws RuntimeException at end of input if the DOCTYPE has no '&gt;'
+	 */
+	public static HtmlStreamRewriter createDoctypeStripper() {
+		return new HtmlStreamRewriter() {
+			private boolean done;
+			private int offset;
+
+			@Override
+			protected int rewrite(CharSequence in, boolean endOfInput, StringBuilder out) {
+				int len = in.length();
+				if (done) {
+					out.append(in);
+					return len;
+				}
+				int start = indexOf(in, DOCTYPE, 0);
+				if (start == -1) {
+					int consumed = endOfInput ? len : Math.max(0, len - (DOCTYPE.length() - 1));
+					out.append(in, 0, consumed);
+					offset += consumed;
+					return consumed;
+				}
+				int end = indexOf(in, ">", start);
+				if (end == -1) {
+					if (endOfInput) {
+						throw new RuntimeException("Bad DOCTYPE at: "+(offset + start));
+					}
+					out.append(in, 0, start);
+					offset += start;
+					return start;
+				}
+				out.append(in, 0, start).append(in, end + 1, len);
+				done = true;
+				return len;
+			}
+		};
+	}
+
+	/** removes xml:lang\s*=\s*"..." (as the regex in HTMLTidy).
+	 *
+	 * @return new rewriter
+	 */
+	public static HtmlStreamRewriter createXmlLangRemover() {
+		return new HtmlStreamRewriter() {
+			@Override
+			protected int rewrite(CharSequence in, boolean endOfInput, StringBuilder out) {
+				int len = in.length();
+				int copied = 0;
+				int i = 0;
+				while (true) {
+					int start = indexOf(in, XML_LANG, i);
+					if (start == -1) {
+						int consumed = endOfInput ? len : Math.max(copied, len - (XML_LANG.length() - 1));
+						out.append(in, copied, consumed);
+						return consumed;
+					}
+					int end = matchXmlLang(in, start);
+					if (end == -1 && !endOfInput) {
+						// match might complete with more input
+						out.append(in, copied, start);
+						return start;
+					}
+					if (end >= 0) {
+						out.append(in, copied, start);
+						copied = end;
+						i = copied;
+					} else {
+						i = start + 1;
+					}
+				}
+			}
+		};
+	}
+
+	/** matches xml:lang\s*=\s*"[^"]*" at start.
+	 * 
+	 * @return index after match; -1 if the input ends before it is decided; -2 if no match
+	 */
+	private static int matchXmlLang(CharSequence in, int start) {
+		int len = in.length();
+		int j = skipWhitespace(in, start + XML_LANG.length());
+		if (j == len) {
+			return -1;
+		}
+		if (in.charAt(j) != '=') {
+			return -2;
+		}
+		j = skipWhitespace(in, j + 1);
+		if (j == len) {
+			return -1;
+		}
+		if (in.charAt(j) != '"') {
+			return -2;
+		}
+		int end = indexOf(in, "\"", j + 1);
+		return end == -1 ? -1 : end + 1;
+	}
+
+	/** removes \r and \n.
+	 *
+	 * @return new rewriter
+	 */
+	public static HtmlStreamRewriter createNewlineFlattener() {
+		return new HtmlStreamRewriter() {
+			@Override
+			protected int rewrite(CharSequence in, boolean endOfInput, StringBuilder out) {
+				int len = in.length();
+				int copied = 0;
+				for (int i = 0; i < len; i++) {
+					char c = in.charAt(i);
+					if (c == '\r' || c == '\n') {
+						out.append(in, copied, i);
+						copied = i + 1;
+					}
+				}
+				out.append(in, copied, len);
+				return len;
+			}
+		};
+	}
+
+	/** &lt;foo:bar to &lt;_bar and &lt;/foo:bar to &lt;/_bar (as the regexes in HTMLTidy).
+	 *
+	 * @return new rewriter
+	 */
+	public static HtmlStreamRewriter createForeignPrefixRemover() {
+		return new HtmlStreamRewriter() {
+			@Override
+			protected int rewrite(CharSequence in, boolean endOfInput, StringBuilder out) {
+				int len = in.length();
+				int copied = 0;
+				int i = 0;
+				while (true) {
+					int lt = indexOf(in, "<", i);
+					if (lt == -1) {
+						out.append(in, copied, len);
+						return len;
+					}
+					int j = lt + 1;
+					boolean endTag = j < len && in.charAt(j) == '/';
+					if (endTag) {
+						j++;
+					}
+					int nameStart = j;
+					if (j < len && isPrefixStart(in.charAt(j))) {
+						j++;
+						while (j < len && isPrefixChar(in.charAt(j))) {
+							j++;
+						}
+					}
+					if (j == len && !endOfInput) {
+						out.append(in, copied, lt);
+						return lt;
+					}
+					if (j > nameStart && j < len && in.charAt(j) == ':') {
+						out.append(in, copied, lt).append(endTag ? "</_" : "<_");
+						copied = j + 1;
+						i = copied;
+					} else {
+						i = lt + 1;
+					}
+				}
+			}
+		};
+	}
+
+	private static boolean isPrefixStart(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '_';
+	}
+
+	private static boolean isPrefixChar(char c) {
+		return isPrefixStart(c) || (c >= '0' && c <= '9');
+	}
+
+	/** whitespace as regex \s. */
+	private static int skipWhitespace(CharSequence in, int i) {
+		while (i < in.length()) {
+			char c = in.charAt(i);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') {
+				break;
+			}
+			i++;
+		}
+		return i;
+	}
+
+	private static int indexOf(CharSequence in, String s, int from) {
+		int last = in.length() - s.length();
+		char c0 = s.charAt(0);
+		for (int i = from; i <= last; i++) {
+			if (in.charAt(i) == c0 && startsWith(in, i, s)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean startsWith(CharSequence in, int pos, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (in.charAt(pos + i) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** reads another Reader through a rewriter. */
+	public static class RewritingReader extends Reader {
+		private Reader in;
+		private HtmlStreamRewriter rewriter;
+		private char[] buffer;
+		private StringBuilder pending;
+		private StringBuilder rewritten;
+		private int rewrittenPos;
+		private boolean eof;
+
+		public RewritingReader(Reader in, HtmlStreamRewriter rewriter) {
+			super(in);
+			this.in = in;
+			this.rewriter = rewriter;
+			this.buffer = new char[BUFFER_SIZE];
+			this.pending = new StringBuilder();
+			this.rewritten = new StringBuilder();
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			while (rewrittenPos == rewritten.length()) {
+				if (!fill()) {
+					return -1;
+				}
+			}
+			int n = Math.min(len, rewritten.length() - rewrittenPos);
+			rewritten.getChars(rewrittenPos, rewrittenPos + n, cbuf, off);
+			rewrittenPos += n;
+			return n;
+		}
+
+		/** @return false at end of input */
+		private boolean fill() throws IOException {
+			rewritten.setLength(0);
+			rewrittenPos = 0;
+			if (eof) {
+				if (pending.length() == 0) {
+					return false;
+				}
+				rewriter.process(pending, true, rewritten);
+				return true;
+			}
+			int n = in.read(buffer, 0, buffer.length);
+			if (n == -1) {
+				eof = true;
+				rewriter.process(pending, true, rewritten);
+				return true;
+			}
+			pending.append(buffer, 0, n);
+			rewriter.process(pending, false, rewritten);
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/** writes to another Writer through a rewriter. */
+	public static class RewritingWriter extends Writer {
+		private Writer out;
+		private HtmlStreamRewriter rewriter;
+		private StringBuilder pending;
+		private StringBuilder rewritten;
+		private boolean finished;
+
+		public RewritingWriter(Writer out, HtmlStreamRewriter rewriter) {
+			super(out);
+			this.out = out;
+			this.rewriter = rewriter;
+			this.pending = new StringBuilder();
+			this.rewritten = new StringBuilder();
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			pending.append((char) c);
+			if (pending.length() >= BUFFER_SIZE) {
+				drain(false);
+			}
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			pending.append(cbuf, off, len);
+			if (pending.length() >= BUFFER_SIZE) {
+				drain(false);
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			pending.append(str, off, off + len);
+			if (pending.length() >= BUFFER_SIZE) {
+				drain(false);
+			}
+		}
+
+		private void drain(boolean endOfInput) throws IOException {
+			rewritten.setLength(0);
+			rewriter.process(pending, endOfInput, rewritten);
+			if (rewritten.length() > 0) {
+				out.append(rewritten);
+			}
+		}
+
+		/** passes on what can be decided; an undecided tail is kept until more is written.
+		 */
+		@Override
+		public void flush() throws IOException {
+			drain(false);
+			out.flush();
+		}
+
+		/** rewrite and write everything, then finish a chained RewritingWriter (else flush); does not close.
+		 *
+		 * @throws IOException
+		 */
+		public void finish() throws IOException {
+			if (finished) {
+				return;
+			}
+			finished = true;
+			drain(true);
+			if (out instanceof RewritingWriter) {
+				((RewritingWriter) out).finish();
+			} else {
+				out.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			finish();
+			out.close();
+		}
+	}
+}
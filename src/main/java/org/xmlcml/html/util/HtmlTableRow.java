@@ -0,0 +1,138 @@
+package org.xmlcml.html.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** lightweight row emitted by HtmlTableStreamer.
+ * 
+ * holds only cell text and span attributes, not a tree.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlTableRow {
+
+	public enum Section {HEAD, BODY, FOOT}
+
+	/** one td or th. */
+	public static class Cell {
+		private final String value;
+		private final boolean header;
+		private final int colspan;
+		private final int rowspan;
+
+		public Cell(String value, boolean header, int colspan, int rowspan) {
+			this.value = value;
+			this.header = header;
+			this.colspan = colspan;
+			this.rowspan = rowspan;
+		}
+
+		/** trimmed, whitespace-collapsed text.
+		 * 
+		 * @return
+		 */
+		public String getValue() {
+			return value;
+		}
+
+		/** true for th.
+		 * 
+		 * @return
+		 */
+		public boolean isHeader() {
+			return header;
+		}
+
+		public int getColspan() {
+			return colspan;
+		}
+
+		public int getRowspan() {
+			return rowspan;
+		}
+
+		@Override
+		public String toString() {
+			return value;
+		}
+	}
+
+	private final int tableIndex;
+	private final String caption;
+	private final int rowIndex;
+	private final Section section;
+	private final List<Cell> cells;
+
+	public HtmlTableRow(int tableIndex, String caption, int rowIndex, Section section, List<Cell> cells) {
+		this.tableIndex = tableIndex;
+		this.caption = caption;
+		this.rowIndex = rowIndex;
+		this.section = section;
+		this.cells = Collections.unmodifiableList(cells);
+	}
+
+	/** 0-based index of the table in the document (document order, nested tables included).
+	 * 
+	 * @return
+	 */
+	public int getTableIndex() {
+		return tableIndex;
+	}
+
+	/** 
+	 * @return caption of the table or null
+	 */
+	public String getCaption() {
+		return caption;
+	}
+
+	/** 0-based index of the row within its table.
+	 * 
+	 * @return
+	 */
+	public int getRowIndex() {
+		return rowIndex;
+	}
+
+	public Section getSection() {
+		return section;
+	}
+
+	public List<Cell> getCells() {
+		return cells;
+	}
+
+	/** 
+	 * @return cell values in order
+	 */
+	public List<String> getValues() {
+		List<String> values = new ArrayList<String>(cells.size());
+		for (Cell cell : cells) {
+			values.add(cell.getValue());
+		}
+		return values;
+	}
+
+	/** true if all cells are th.
+	 * 
+	 * @return
+	 */
+	public boolean isHeaderRow() {
+		if (cells.isEmpty()) {
+			return false;
+		}
+		for (Cell cell : cells) {
+			if (!cell.isHeader()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return tableIndex+":"+rowIndex+" "+cells;
+	}
+}
@@ -0,0 +1,321 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.ccil.cowan.tagsoup.Parser;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xmlcml.html.HtmlFactory;
+
+/** streams table rows out of (possibly huge) HTML without building a tree.
+ * 
+ * <pre>
+ * HtmlTableStreamer streamer = new HtmlTableStreamer(htmlFactory);
+ * streamer.setCaptionPattern(Pattern.compile("(?i)supplementary"));
+ * streamer.stream(new File("suppl.html"), row -&gt; writer.println(row.getValues()));
+ * </pre>
+ * the input is tokenized by TagSoup (SAX), and each &lt;tr&gt; is passed to the consumer as an
+ * HtmlTableRow (cell text plus colspan/rowspan) as soon as it closes, so memory use depends only 
+ * on the size of one row. Tags are normalized with the factory's rules: names are lowercased and 
+ * mapped through its replacement map, and elements in its content list and tags-to-delete (plus 
+ * script and style) are skipped with their content.
+ * 
+ * tables are numbered from 0 in document order; a nested table is a separate table and its text 
+ * is not added to the enclosing cell. Rows can be restricted to tables by index and/or by caption.
+ * 
+ * a streamer holds no per-document state, but its settings are not synchronized; configure before use.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlTableStreamer {
+	private static final Logger LOG = Logger.getLogger(HtmlTableStreamer.class);
+
+	private static final String[] ALWAYS_SKIPPED = {"script", "style"};
+
+	private Set<String> skippedTags;
+	private Map<String, String> replacementMap;
+	private Set<Integer> tableIndexes;
+	private Pattern captionPattern;
+	private Charset defaultCharset;
+
+	/** default HtmlFactory rules.
+	 */
+	public HtmlTableStreamer() {
+		this(new HtmlFactory());
+	}
+
+	/** tag normalization and default charset from htmlFactory.
+	 * 
+	 * @param htmlFactory
+	 */
+	public HtmlTableStreamer(HtmlFactory htmlFactory) {
+		skippedTags = new HashSet<String>();
+		for (String tag : ALWAYS_SKIPPED) {
+			skippedTags.add(tag);
+		}
+		addLowerCase(skippedTags, htmlFactory.getContentList());
+		addLowerCase(skippedTags, htmlFactory.getTagToDeleteList());
+		replacementMap = htmlFactory.getReplacementMap();
+		defaultCharset = htmlFactory.getDefaultCharset();
+	}
+
+	private static void addLowerCase(Set<String> set, List<String> tags) {
+		if (tags != null) {
+			for (String tag : tags) {
+				set.add(tag.toLowerCase());
+			}
+		}
+	}
+
+	/** emit only rows of tables with these indexes (0-based, document order).
+	 * 
+	 * @param indexes none means all
+	 */
+	public void setTableIndexes(int... indexes) {
+		tableIndexes = null;
+		if (indexes != null && indexes.length > 0) {
+			tableIndexes = new HashSet<Integer>();
+			for (int index : indexes) {
+				tableIndexes.add(index);
+			}
+		}
+	}
+
+	/** emit only rows of tables whose caption contains a match (find()).
+	 * 
+	 * tables without a caption before their first row are not emitted.
+	 * 
+	 * @param captionPattern null means all
+	 */
+	public void setCaptionPattern(Pattern captionPattern) {
+		this.captionPattern = captionPattern;
+	}
+
+	/** stream rows from file.
+	 * 
+	 * @param file
+	 * @param consumer receives each row as it closes
+	 * @return number of rows emitted
+	 */
+	public int stream(File file, Consumer<HtmlTableRow> consumer) {
+		try (InputStream is = new FileInputStream(file)) {
+			return stream(is, consumer);
+		} catch (IOException e) {
+			throw new RuntimeException("cannot read "+file, e);
+		}
+	}
+
+	/** stream rows; charset is sniffed as by HtmlFactory (see HtmlInputDecoder), else the factory default.
+	 * 
+	 * @param is not closed
+	 * @param consumer
+	 * @return number of rows emitted
+	 */
+	public int stream(InputStream is, Consumer<HtmlTableRow> consumer) {
+		Reader reader;
+		try {
+			reader = HtmlInputDecoder.openReader(is, defaultCharset);
+		} catch (IOException e) {
+			throw new RuntimeException("cannot read input", e);
+		}
+		return stream(reader, consumer);
+	}
+
+	/** stream rows from characters.
+	 * 
+	 * @param reader not closed
+	 * @param consumer
+	 * @return number of rows emitted
+	 */
+	public int stream(Reader reader, Consumer<HtmlTableRow> consumer) {
+		return stream(new InputSource(reader), consumer);
+	}
+
+	private int stream(InputSource source, Consumer<HtmlTableRow> consumer) {
+		TableHandler handler = new TableHandler(consumer);
+		Parser parser = new Parser();
+		try {
+			parser.setFeature(Parser.namespacesFeature, false);
+			parser.setFeature(Parser.defaultAttributesFeature, false);
+			parser.setContentHandler(handler);
+			parser.parse(source);
+		} catch (IOException | SAXException e) {
+			throw new RuntimeException("cannot stream tables", e);
+		}
+		return handler.rowCount;
+	}
+
+	String normalizeTag(String name) {
+		String tag = name.toLowerCase();
+		String replacement = replacementMap == null ? null : replacementMap.get(tag);
+		return replacement == null ? tag : replacement.toLowerCase();
+	}
+
+	/** state of one open table. */
+	private static class TableState {
+		private int index;
+		/** null until decided. */
+		private Boolean selected;
+		private StringBuilder captionBuilder;
+		private String caption;
+		private HtmlTableRow.Section section = HtmlTableRow.Section.BODY;
+		private int rowIndex;
+		private List<HtmlTableRow.Cell> cells;
+		private StringBuilder cellText;
+		private boolean cellHeader;
+		private int colspan;
+		private int rowspan;
+
+		TableState(int index) {
+			this.index = index;
+		}
+	}
+
+	private class TableHandler extends DefaultHandler {
+		private Consumer<HtmlTableRow> consumer;
+		private Deque<TableState> tables = new ArrayDeque<TableState>();
+		private int tableCount;
+		private int skipDepth;
+		private int rowCount;
+
+		TableHandler(Consumer<HtmlTableRow> consumer) {
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			if (skipDepth > 0) {
+				skipDepth++;
+				return;
+			}
+			String tag = normalizeTag(qName);
+			if (skippedTags.contains(tag)) {
+				skipDepth = 1;
+				return;
+			}
+			if ("table".equals(tag)) {
+				TableState table = new TableState(tableCount++);
+				if (tableIndexes != null && !tableIndexes.contains(table.index)) {
+					table.selected = false;
+				}
+				tables.push(table);
+				return;
+			}
+			TableState table = tables.peek();
+			if (table == null) {
+				return;
+			}
+			if ("caption".equals(tag) && table.cells == null && table.caption == null) {
+				table.captionBuilder = new StringBuilder();
+			} else if ("thead".equals(tag)) {
+				table.section = HtmlTableRow.Section.HEAD;
+			} else if ("tfoot".equals(tag)) {
+				table.section = HtmlTableRow.Section.FOOT;
+			} else if ("tbody".equals(tag)) {
+				table.section = HtmlTableRow.Section.BODY;
+			} else if ("tr".equals(tag)) {
+				table.cells = new ArrayList<HtmlTableRow.Cell>();
+			} else if ("td".equals(tag) || "th".equals(tag)) {
+				if (table.cells == null) {
+					table.cells = new ArrayList<HtmlTableRow.Cell>();
+				}
+				table.cellText = new StringBuilder();
+				table.cellHeader = "th".equals(tag);
+				table.colspan = getSpan(attributes, "colspan");
+				table.rowspan = getSpan(attributes, "rowspan");
+			} else if (table.cellText != null) {
+				// block-level and br separate words
+				table.cellText.append(' ');
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) {
+			if (skipDepth > 0) {
+				skipDepth--;
+				return;
+			}
+			String tag = normalizeTag(qName);
+			TableState table = tables.peek();
+			if (table == null) {
+				return;
+			}
+			if ("table".equals(tag)) {
+				tables.pop();
+			} else if ("caption".equals(tag) && table.captionBuilder != null) {
+				table.caption = normalize(table.captionBuilder);
+				table.captionBuilder = null;
+			} else if ("thead".equals(tag) || "tfoot".equals(tag)) {
+				table.section = HtmlTableRow.Section.BODY;
+			} else if (("td".equals(tag) || "th".equals(tag)) && table.cellText != null) {
+				table.cells.add(new HtmlTableRow.Cell(normalize(table.cellText), table.cellHeader, table.colspan, table.rowspan));
+				table.cellText = null;
+			} else if ("tr".equals(tag) && table.cells != null) {
+				if (isSelected(table)) {
+					consumer.accept(new HtmlTableRow(table.index, table.caption, table.rowIndex, table.section, table.cells));
+					rowCount++;
+				}
+				table.rowIndex++;
+				table.cells = null;
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) {
+			if (skipDepth > 0) {
+				return;
+			}
+			TableState table = tables.peek();
+			if (table == null) {
+				return;
+			}
+			if (table.cellText != null) {
+				table.cellText.append(ch, start, length);
+			} else if (table.captionBuilder != null) {
+				table.captionBuilder.append(ch, start, length);
+			}
+		}
+
+		private boolean isSelected(TableState table) {
+			if (table.selected == null) {
+				table.selected = captionPattern == null ||
+						(table.caption != null && captionPattern.matcher(table.caption).find());
+			}
+			return table.selected;
+		}
+	}
+
+	private static int getSpan(Attributes attributes, String name) {
+		String value = attributes.getValue(name);
+		if (value != null) {
+			try {
+				return Math.max(1, Integer.parseInt(value.trim()));
+			} catch (NumberFormatException e) {
+				LOG.trace("bad "+name+": "+value);
+			}
+		}
+		return 1;
+	}
+
+	private static String normalize(StringBuilder sb) {
+		return HtmlUtil.normalizeWhitespace(sb);
+	}
+}
@@ -0,0 +1,255 @@
+package org.xmlcml.html.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlTable;
+import org.xmlcml.html.HtmlTableGrid;
+
+/** streams HtmlTables to CSV, TSV or JSON lines.
+ * 
+ * <pre>
+ * try (HtmlTableWriter writer = new HtmlTableWriter(new FileWriter(file), HtmlTableWriter.Format.CSV)) {
+ *     writer.writeAll(root);
+ * }
+ * </pre>
+ * each table is laid out once with HtmlTableGrid, so colspan/rowspan are expanded and cell text
+ * is trimmed with whitespace collapsed (one String per distinct cell); cells are then escaped 
+ * straight into the (buffered) Writer without building per-row lists or row strings. The header is the grid's header rows (thead and leading 
+ * th-only rows, as found by getSingleLeadingTrThChild() for simple tables), one line per 
+ * column joined by getColumnHeader().
+ * 
+ * CSV follows RFC 4180 (fields quoted only when needed). TSV replaces any tab or newline in a 
+ * value by a space. JSONL writes one object per row, {"table":0,"row":0,"cells":["a",null]}, 
+ * preceded by {"table":0,"header":[...]} when headers are written.
+ * 
+ * with writeAll(), CSV/TSV tables are separated by an empty line.
+ * 
+ * @author pm286
+ *
+ */
+public class HtmlTableWriter implements Closeable, Flushable {
+	private static final Logger LOG = Logger.getLogger(HtmlTableWriter.class);
+
+	public enum Format {CSV, TSV, JSONL}
+
+	private Writer writer;
+	private Format format;
+	private boolean writeHeader = true;
+	private boolean includeFooter = false;
+	private int tableCount;
+	private long rowCount;
+
+	/** 
+	 * @param writer wrapped in a BufferedWriter unless already buffered
+	 * @param format
+	 */
+	public HtmlTableWriter(Writer writer, Format format) {
+		this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer, 65536);
+		this.format = format;
+	}
+
+	/** write header line(s) (default true).
+	 * 
+	 * @param writeHeader
+	 */
+	public void setWriteHeader(boolean writeHeader) {
+		this.writeHeader = writeHeader;
+	}
+
+	/** write tfoot rows after body rows (default false).
+	 * 
+	 * @param includeFooter
+	 */
+	public void setIncludeFooter(boolean includeFooter) {
+		this.includeFooter = includeFooter;
+	}
+
+	/** number of body (and footer) rows written so far.
+	 * 
+	 * @return
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/** write every table in root (extractSelfAndDescendantTables).
+	 * 
+	 * @param root
+	 * @return number of tables written
+	 */
+	public int writeAll(HtmlElement root) {
+		List<HtmlTable> tables = HtmlTable.extractSelfAndDescendantTables(root);
+		for (HtmlTable table : tables) {
+			write(table);
+		}
+		return tables.size();
+	}
+
+	/** write one table.
+	 * 
+	 * @param table
+	 */
+	public void write(HtmlTable table) {
+		write(table.toGrid());
+	}
+
+	/** write one table from its grid.
+	 * 
+	 * @param grid
+	 */
+	public void write(HtmlTableGrid grid) {
+		try {
+			if (tableCount > 0 && format != Format.JSONL) {
+				writer.write('\n');
+			}
+			int columnCount = grid.getColumnCount();
+			if (writeHeader && grid.getHeaderRowCount() > 0) {
+				startRow(-1);
+				for (int col = 0; col < columnCount; col++) {
+					writeCell(col, grid.getColumnHeader(col));
+				}
+				endRow();
+			}
+			for (int row = 0; row < grid.getRowCount(); row++) {
+				startRow(row);
+				for (int col = 0; col < columnCount; col++) {
+					writeCell(col, grid.getValue(row, col));
+				}
+				endRow();
+			}
+			if (includeFooter) {
+				for (int row = 0; row < grid.getFooterRowCount(); row++) {
+					startRow(grid.getRowCount() + row);
+					for (int col = 0; col < columnCount; col++) {
+						writeCell(col, grid.getFooterValue(row, col));
+					}
+					endRow();
+				}
+			}
+			tableCount++;
+		} catch (IOException e) {
+			throw new RuntimeException("cannot write table", e);
+		}
+	}
+
+	/** row -1 is the header. */
+	private void startRow(int row) throws IOException {
+		if (format == Format.JSONL) {
+			writer.write("{\"table\":");
+			writer.write(String.valueOf(tableCount));
+			if (row < 0) {
+				writer.write(",\"header\":[");
+			} else {
+				writer.write(",\"row\":");
+				writer.write(String.valueOf(row));
+				writer.write(",\"cells\":[");
+			}
+		}
+		if (row >= 0) {
+			rowCount++;
+		}
+	}
+
+	private void endRow() throws IOException {
+		if (format == Format.JSONL) {
+			writer.write("]}");
+		}
+		writer.write('\n');
+	}
+
+	private void writeCell(int col, String value) throws IOException {
+		if (col > 0) {
+			writer.write(format == Format.TSV ? '\t' : ',');
+		}
+		if (format == Format.CSV) {
+			writeCsv(value);
+		} else if (format == Format.TSV) {
+			writeTsv(value);
+		} else {
+			writeJson(value);
+		}
+	}
+
+	private void writeCsv(String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			writer.write(value);
+			return;
+		}
+		writer.write('"');
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) == '"') {
+				writer.write(value, start, i + 1 - start);
+				writer.write('"');
+				start = i + 1;
+			}
+		}
+		writer.write(value, start, value.length() - start);
+		writer.write('"');
+	}
+
+	private void writeTsv(String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\t' || c == '\n' || c == '\r') {
+				writer.write(value, start, i - start);
+				writer.write(' ');
+				start = i + 1;
+			}
+		}
+		writer.write(value, start, value.length() - start);
+	}
+
+	private void writeJson(String value) throws IOException {
+		if (value == null) {
+			writer.write("null");
+			return;
+		}
+		writer.write('"');
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\' || c < 0x20) {
+				writer.write(value, start, i - start);
+				if (c == '"' || c == '\\') {
+					writer.write('\\');
+					writer.write(c);
+				} else {
+					writer.write(String.format("\\u%04x", (int) c));
+				}
+				start = i + 1;
+			}
+		}
+		writer.write(value, start, value.length() - start);
+		writer.write('"');
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
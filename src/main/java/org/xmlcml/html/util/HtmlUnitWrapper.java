@@ -1,10 +1,7 @@
 package org.xmlcml.html.util;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.net.URL;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
 import org.xmlcml.html.HtmlElement;
 import org.xmlcml.html.HtmlFactory;
@@ -26,6 +23,7 @@ public class HtmlUnitWrapper {
 	private Element xmlElement;
 
 	private HtmlElement htmlElement;
+	private DiagnosticSink diagnosticSink;
 	
 	public HtmlUnitWrapper() {
 		
@@ -47,14 +45,19 @@ public class HtmlUnitWrapper {
 	    if (l != pageAsXml.length()) {
 	    	LOG.trace("Removed BMC Horror");
 	    }
-	    FileUtils.write(new File("target/pageAsXml.xml"), pageAsXml);
+	    DiagnosticSink sink = getDiagnosticSink();
+	    if (sink.isEnabled()) {
+	    	sink.write("pageAsXml.xml", pageAsXml);
+	    }
 	    webClient.closeAllWindows();
 		htmlElement = null;
 		try {
 			HtmlFactory htmlFactory = new HtmlFactory();
 			htmlFactory.setIgnoreNamespaces(true);
 			xmlElement = XMLUtil.parseXML(pageAsXml);
-			XMLUtil.debug(xmlElement, new FileOutputStream("target/htmlUnit.xml"), 1);
+			if (sink.isEnabled()) {
+				sink.write("htmlUnit.xml", xmlElement.toXML());
+			}
 			htmlElement = htmlFactory.parse(xmlElement);
 		} catch (Exception e) {
 			LOG.error("cannot parse HTML "+pageAsXml, e);
@@ -62,5 +65,16 @@ public class HtmlUnitWrapper {
 		return htmlElement;
 	}
 
+	/** sink for the fetched page and its XML.
+	 * 
+	 * @param diagnosticSink if null (default) uses DiagnosticSink.getDefault()
+	 */
+	public void setDiagnosticSink(DiagnosticSink diagnosticSink) {
+		this.diagnosticSink = diagnosticSink;
+	}
+
+	public DiagnosticSink getDiagnosticSink() {
+		return DiagnosticSink.getSink(diagnosticSink);
+	}
 
 }
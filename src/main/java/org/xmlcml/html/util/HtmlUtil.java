@@ -2,7 +2,6 @@ package org.xmlcml.html.util;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
@@ -28,16 +27,17 @@ public class HtmlUtil {
     public static XPathContext XHTML_XPATH = new XPathContext("h", XMLConstants.XHTML_NS);
     public static Pattern ATTRIBUTE = Pattern.compile("\\s+([a-z]+\\s*=\\s*\\\"[^\\\"]+\\\")");
 
+	/** elements selected by xpath.
+	 * 
+	 * the query is compiled and cached (see HtmlQuery).
+	 * 
+	 * @param htmlElement context
+	 * @param xpath can include h:* elements
+	 * @return
+	 * @throws RuntimeException if a selected element is not an HtmlElement
+	 */
 	public static List<HtmlElement> getQueryHtmlElements(HtmlElement htmlElement, String xpath) {
-		List<Element> elements = XMLUtil.getQueryElements(htmlElement, xpath, XHTML_XPATH);
-		List<HtmlElement> htmlElements = new ArrayList<HtmlElement>();
-		for (Element element : elements) {
-			if (!(element instanceof HtmlElement)) {
-				throw new RuntimeException("Element was not HtmlElement: "+element.toXML());
-			}
-			htmlElements.add((HtmlElement)element);
-		}
-		return htmlElements;
+		return HtmlQuery.compile(xpath, XHTML_XPATH).getHtmlElements(htmlElement);
 	}
 
 	/** extracts nodes and their values.
@@ -47,7 +47,7 @@ public class HtmlUtil {
 	 * @return list of string values of nodes
 	 */
 	public static List<String> getQueryHtmlStrings(Element htmlElement, String xpath) {
-		Nodes nodes = htmlElement.query(xpath, XHTML_XPATH);
+		Nodes nodes = HtmlQuery.compile(xpath, XHTML_XPATH).query(htmlElement);
 		List<String> stringList = new ArrayList<String>();
 		for (int i = 0; i < nodes.size(); i++) {
 			stringList.add(nodes.get(i).getValue());
@@ -140,97 +140,19 @@ public class HtmlUtil {
 	 * From http://stackoverflow.com/questions/994331/java-how-to-decode-html-character-entities-in-java-like-httputility-htmldecode 
 	 * with thanks
 	 * 
+	 * now a single pass through a trie compiled from lookupMap (see HtmlEntityDecoder); 
+	 * returns input itself if there is nothing to decode.
+	 * HtmlFactory.getHtmlEntityMap() has a precompiled trie; other maps are cached by their contents 
+	 * (HtmlEntityDecoder.getDecoder()), so to decode many strings with your own map keep a 
+	 * new HtmlEntityDecoder(lookupMap) instead.
+	 * 
 	 * @param input
 	 * @return
 	 */
     public static final String unescapeHtml3(final String input, Map<String, CharSequence> lookupMap) {
-        StringWriter writer = null;
-        int len = input.length();
-        int i = 1;
-        int st = 0;
-        while (true) {
-            // look for '&'
-            while (i < len && input.charAt(i-1) != '&') {
-                i++;
-            }
-            if (i >= len) break;
-
-            // found '&', look for ';'
-            int j = i;
-            while (j < len && j < i + MAX_ESCAPE + 1 && input.charAt(j) != ';') {
-                j++;
-            }
-            if (j == len || j < i + MIN_ESCAPE || j == i + MAX_ESCAPE + 1) {
-                i++;
-                continue;
-            }
-
-            // found escape 
-            if (input.charAt(i) == '#') {
-                // numeric escape
-                int k = i + 1;
-                int radix = 10;
-
-                final char firstChar = input.charAt(k);
-                if (firstChar == 'x' || firstChar == 'X') {
-                    k++;
-                    radix = 16;
-                }
-
-                try {
-                    int entityValue = Integer.parseInt(input.substring(k, j), radix);
-                    if (writer == null) {
-                        writer = new StringWriter(input.length());
-                    }
-                    writer.append(input.substring(st, i - 1));
-                    writeEntityIncludingSurrogates(writer, entityValue);
-
-                } catch (NumberFormatException ex) { 
-                    i++;
-                    continue;
-                }
-            }
-            else {
-                // named escape
-                CharSequence value = lookupMap.get(input.substring(i, j));
-                if (value == null) {
-                    i++;
-                    continue;
-                } 
-
-                LOG.trace("changed "+input.substring(i, j)+" to "+value);
-                if (writer == null) {
-                    writer = new StringWriter(input.length());
-                }
-                writer.append(input.substring(st, i - 1));
-                writer.append(value);
-            }
-
-            // skip escape
-            st = j + 1;
-            i = st;
-        }
-
-        if (writer != null) {
-            writer.append(input.substring(st, len));
-            return writer.toString();
-        }
-        return input;
+        return HtmlEntityDecoder.getDecoder(lookupMap).decode(input);
     }
 
-	private static void writeEntityIncludingSurrogates(StringWriter writer, int entityValue) {
-		if (entityValue > 0xFFFF) {
-		    final char[] chrs = Character.toChars(entityValue);
-		    writer.write(chrs[0]);
-		    writer.write(chrs[1]);
-		} else {
-		    writer.write(entityValue);
-		}
-	}
-
-    private static final int MIN_ESCAPE = 2;
-    private static final int MAX_ESCAPE = 6;
-
     /** removes foo="bar" from a string.
      * 
      * assumes HTML contains foo="bar" string and removes them and
@@ -283,6 +205,54 @@ public class HtmlUtil {
 		return sb.toString();
 	}
 
+
+	/** same as s.toString().trim().replaceAll("\\s+", " ") in one pass with no regex.
+	 * 
+	 * @param s
+	 * @return s itself if it is a String and nothing changes
+	 */
+	public static String normalizeWhitespace(CharSequence s) {
+		int start = 0;
+		int end = s.length();
+		while (start < end && s.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && s.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		// first char to change: whitespace other than ' ', or ' ' before more whitespace (never last after trim)
+		int i = start;
+		for (; i < end; i++) {
+			char c = s.charAt(i);
+			if (isRegexWhitespace(c) && (c != ' ' || isRegexWhitespace(s.charAt(i + 1)))) {
+				break;
+			}
+		}
+		if (i == end) {
+			return start == 0 && end == s.length() && s instanceof String ? (String) s : s.subSequence(start, end).toString();
+		}
+		StringBuilder sb = new StringBuilder(end - start);
+		sb.append(s, start, i);
+		boolean inSpace = false;
+		for (; i < end; i++) {
+			char c = s.charAt(i);
+			if (isRegexWhitespace(c)) {
+				if (!inSpace) {
+					sb.append(' ');
+					inSpace = true;
+				}
+			} else {
+				sb.append(c);
+				inSpace = false;
+			}
+		}
+		return sb.toString();
+	}
+
+	/** regex \s. */
+	private static boolean isRegexWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
     
     /** removes <tag> ... </tag> from a string.
      * 
@@ -322,18 +292,13 @@ public class HtmlUtil {
 		new char[]{'\u201f', '"'},
 	};
 	
+	/** replace nbsp and smart double quotes (HtmlCharacterMapper.getDefault()).
+	 * 
+	 * @param s
+	 * @return s itself if there is nothing to replace
+	 */
 	public final static String replaceProblemCharacters(String s) {
-		StringBuilder sb = new StringBuilder(s);
-		for (int i = 0; i < sb.length(); i++) {
-			char c = sb.charAt(i);
-			for (int j = 0; j < badGood.length; j++) {
-				if (c == badGood[j][0]) {
-					LOG.trace("substituted "+badGood[j][0]+" with"+badGood[j][1]);
-					sb.setCharAt(i, badGood[j][1]);
-				}
-			}
-		}
-		return sb.toString();
+		return HtmlCharacterMapper.getDefault().map(s);
 	}
 
 	private static int skipWhitespace(StringBuilder sb, int start) {
@@ -0,0 +1,99 @@
+package org.xmlcml.html.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/** keeps the most recent diagnostics in memory.
+ * 
+ * useful for inspecting the last few documents after a failure without any disk I/O.
+ * 
+ * @author pm286
+ *
+ */
+public class RingBufferDiagnosticSink extends DiagnosticSink {
+
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/** a recorded diagnostic. */
+	public static class Entry {
+		private String name;
+		private byte[] content;
+		private String threadName;
+		private long timeMillis;
+
+		Entry(String name, byte[] content) {
+			this.name = name;
+			this.content = content;
+			this.threadName = Thread.currentThread().getName();
+			this.timeMillis = System.currentTimeMillis();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public byte[] getContent() {
+			return content;
+		}
+
+		public String getContentAsString() {
+			return new String(content, StandardCharsets.UTF_8);
+		}
+
+		public String getThreadName() {
+			return threadName;
+		}
+
+		public long getTimeMillis() {
+			return timeMillis;
+		}
+
+		@Override
+		public String toString() {
+			return name+" ("+content.length+" bytes, "+threadName+")";
+		}
+	}
+
+	private int capacity;
+	private ArrayDeque<Entry> entries;
+
+	public RingBufferDiagnosticSink() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity number of entries kept; older ones are discarded
+	 */
+	public RingBufferDiagnosticSink(int capacity) {
+		if (capacity < 1) {
+			throw new RuntimeException("capacity must be positive: "+capacity);
+		}
+		this.capacity = capacity;
+		this.entries = new ArrayDeque<Entry>(capacity);
+	}
+
+	@Override
+	public synchronized void write(String name, byte[] content) {
+		if (entries.size() == capacity) {
+			entries.removeFirst();
+		}
+		entries.addLast(new Entry(name, content));
+	}
+
+	/** 
+	 * @return copy of the entries, oldest first
+	 */
+	public synchronized List<Entry> getEntries() {
+		return new ArrayList<Entry>(entries);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+}
@@ -0,0 +1,63 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlFactory;
+
+public class DiagnosticSinkTest {
+
+	private final static Logger LOG = Logger.getLogger(DiagnosticSinkTest.class);
+
+	@Test
+	public void testDefaultIsOff() {
+		Assert.assertSame(DiagnosticSink.OFF, DiagnosticSink.getDefault());
+		Assert.assertFalse(new HTMLTidy().getDiagnosticSink().isEnabled());
+		Assert.assertFalse(new HtmlFactory().getDiagnosticSink().isEnabled());
+	}
+
+	@Test
+	public void testRingBuffer() throws Exception {
+		RingBufferDiagnosticSink sink = new RingBufferDiagnosticSink(2);
+		sink.write("a", "a");
+		sink.write("b", "b");
+		sink.write("c", "c");
+		List<RingBufferDiagnosticSink.Entry> entries = sink.getEntries();
+		String thread = Thread.currentThread().getName();
+		Assert.assertEquals("[b (1 bytes, "+thread+"), c (1 bytes, "+thread+")]", entries.toString());
+	}
+
+	@Test
+	public void testTidyInstanceSink() throws Exception {
+		RingBufferDiagnosticSink sink = new RingBufferDiagnosticSink(4);
+		HTMLTidy htmlTidy = new HTMLTidy();
+		htmlTidy.setDiagnosticSink(sink);
+		htmlTidy.tidy(IOUtils.toInputStream("<p>a</p>", "UTF-8"));
+		Assert.assertEquals(1, sink.getEntries().size());
+		Assert.assertEquals("htmlIn.html", sink.getEntries().get(0).getName());
+	}
+
+	@Test
+	public void testSampledPerThreadFiles() throws Exception {
+		File dir = new File("target/diagnostics/sampled");
+		FileUtils.deleteQuietly(dir);
+		FileDiagnosticSink sink = new FileDiagnosticSink(dir);
+		sink.setSampleInterval(3);
+		sink.setPerThreadDirectory(true);
+		for (int i = 0; i < 7; i++) {
+			sink.write("x.txt", "x"+i);
+		}
+		File[] threadDirs = dir.listFiles();
+		Assert.assertEquals(1, threadDirs.length);
+		String[] names = threadDirs[0].list();
+		Arrays.sort(names);
+		Assert.assertEquals("[000000-x.txt, 000003-x.txt, 000006-x.txt]", Arrays.toString(names));
+		Assert.assertEquals("x3", FileUtils.readFileToString(new File(threadDirs[0], "000003-x.txt")));
+	}
+}
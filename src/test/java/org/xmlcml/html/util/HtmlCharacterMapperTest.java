@@ -0,0 +1,73 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+import org.xmlcml.html.util.HtmlCharacterMapper.Category;
+
+public class HtmlCharacterMapperTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlCharacterMapperTest.class);
+
+	@Test
+	public void testDefault() throws Exception {
+		HtmlCharacterMapper mapper = HtmlCharacterMapper.getDefault();
+		Assert.assertEquals(5, mapper.getMappingCount());
+		Assert.assertEquals("a b \"c\" \u2018d\u2019", mapper.map("a\u00a0b \u201cc\u201d \u2018d\u2019"));
+		String plain = "nothing to map \u00e9";
+		Assert.assertSame(plain, mapper.map(plain));
+		for (String filename : new String[]{"312.html", "badhtml1.html"}) {
+			String html = FileUtils.readFileToString(new File(Fixtures.HTML_DIR, filename), "UTF-8");
+			Assert.assertEquals(filename, replaceWithLoop(html), mapper.map(html));
+		}
+	}
+
+	@Test
+	public void testCategories() {
+		HtmlCharacterMapper mapper = new HtmlCharacterMapper(Category.values());
+		Assert.assertEquals("x \"q\" 'q' fit flow ffix softhyphen",
+				mapper.map("x\u202f\u201eq\u201f \u2018q\u2019 \ufb01t \ufb02ow \ufb03x\u200b\ufeff soft\u00adhyphen"));
+		Map<Character, String> mappings = HtmlCharacterMapper.getMappings(Category.LIGATURES);
+		mappings.put('\u2212', "-");
+		mappings.put('\ufb01', "FI");
+		mapper = new HtmlCharacterMapper(mappings);
+		Assert.assertEquals("-1 FI \u00a0", mapper.map("\u22121 \ufb01 \u00a0"));
+		StringBuilder sb = new StringBuilder(">");
+		mapper.map(new StringBuilder("\ufb00"), sb);
+		Assert.assertEquals(">ff", sb.toString());
+		Assert.assertEquals("abc", new HtmlCharacterMapper().map("abc"));
+	}
+
+	@Test
+	public void testFactory() throws Exception {
+		HtmlFactory htmlFactory = HtmlFactory.builder()
+				.setCharacterMapper(new HtmlCharacterMapper(Category.LIGATURES, Category.SOFT_HYPHEN)).build();
+		HtmlElement root = htmlFactory.parse("<html><body><p>&#xfb01;nd &#8220;x&#8221;&#173;</p></body></html>");
+		Assert.assertEquals("find \u201cx\u201d", root.getValue());
+		HtmlPreprocessor preprocessor = new HtmlPreprocessor();
+		preprocessor.setCharacterMapper(new HtmlCharacterMapper(Category.LIGATURES, Category.NBSP));
+		preprocessor.setEntityMap(HtmlFactory.getHtmlEntityMap());
+		preprocessor.compile();
+		Assert.assertEquals("<p> find \u201cx\u201d\u00ad</p>", preprocessor.preprocess("<p>&#160;&#xfb01;nd &#8220;x&#8221;\u00ad</p>"));
+	}
+
+	/** the original HtmlUtil.replaceProblemCharacters(), as reference. */
+	private static String replaceWithLoop(String s) {
+		StringBuilder sb = new StringBuilder(s);
+		for (int i = 0; i < sb.length(); i++) {
+			char c = sb.charAt(i);
+			for (int j = 0; j < HtmlUtil.badGood.length; j++) {
+				if (c == HtmlUtil.badGood[j][0]) {
+					sb.setCharAt(i, HtmlUtil.badGood[j][1]);
+				}
+			}
+		}
+		return sb.toString();
+	}
+}
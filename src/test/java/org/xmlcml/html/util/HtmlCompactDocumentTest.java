@@ -0,0 +1,61 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlCompactDocument;
+import org.xmlcml.html.HtmlCompactElement;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+import org.xmlcml.html.HtmlTable;
+
+public class HtmlCompactDocumentTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlCompactDocumentTest.class);
+
+	@Test
+	public void testSameAsTree() throws Exception {
+		File file = new File(Fixtures.HTML_DIR, "312.html");
+		HtmlElement root = new HtmlFactory().parse(file);
+		HtmlCompactDocument doc = HtmlCompactDocument.freeze(root);
+		List<HtmlElement> elements = HtmlUtil.getQueryHtmlElements(root, ".//*");
+		List<HtmlCompactElement> compactElements = doc.getRoot().descendants(null);
+		Assert.assertEquals(elements.size(), compactElements.size());
+		for (int i = 0; i < elements.size(); i++) {
+			HtmlElement element = elements.get(i);
+			HtmlCompactElement compactElement = compactElements.get(i);
+			Assert.assertEquals(element.getLocalName(), compactElement.getLocalName());
+			Assert.assertEquals(element.getValue(), compactElement.getValue());
+			Assert.assertEquals(element.getAttributeCount(), compactElement.getAttributeCount());
+			Assert.assertEquals(element.getClassAttribute(), compactElement.getClassAttribute());
+			Assert.assertEquals(element.getChildElements().size(), compactElement.getChildElements().size());
+		}
+		Assert.assertEquals(221, doc.getRoot().descendants("i").size());
+		Assert.assertEquals(root.getValue(), doc.getRoot().getValue());
+		Assert.assertTrue(doc.getEstimatedBytes()+" / "+file.length(), doc.getEstimatedBytes() < 2 * file.length());
+		LOG.trace(file.length()+" bytes => "+doc.getEstimatedBytes());
+	}
+
+	@Test
+	public void testTable() throws Exception {
+		HtmlFactory htmlFactory = new HtmlFactory();
+		HtmlCompactDocument doc = htmlFactory.parseCompact(new File(Fixtures.HTML_DIR, "colspan.html"));
+		HtmlCompactElement table = doc.getRoot().descendants("table").get(0);
+		List<HtmlCompactElement> rows = table.getRows();
+		Assert.assertEquals(2, rows.size());
+		Assert.assertEquals("[r21, r22, r23, r24]", rows.get(1).getTdCellValues().toString());
+		Assert.assertEquals("r13", rows.get(0).getTd(2).getValue());
+		Assert.assertNull(rows.get(0).getTd(4));
+		HtmlCompactElement th = table.descendants("th").get(0);
+		Assert.assertEquals("2", th.getAttributeValue("colspan"));
+		Assert.assertEquals("tr", th.getParent().getLocalName());
+		HtmlElement thawed = table.thaw();
+		Assert.assertTrue(thawed instanceof HtmlTable);
+		Assert.assertEquals(4, ((HtmlTable) thawed).toGrid().getColumnCount());
+		HtmlElement original = HtmlTable.getFirstDescendantTable(htmlFactory.parse(new File(Fixtures.HTML_DIR, "colspan.html")));
+		Assert.assertEquals(original.copy().toXML(), thawed.toXML());
+	}
+}
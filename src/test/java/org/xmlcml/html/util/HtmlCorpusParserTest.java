@@ -0,0 +1,62 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlFactory;
+
+public class HtmlCorpusParserTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlCorpusParserTest.class);
+
+	@Test
+	public void testParseDirectory() throws Exception {
+		HtmlCorpusParser corpusParser = new HtmlCorpusParser();
+		corpusParser.setParallelism(3);
+		final List<HtmlCorpusResult> results = new ArrayList<HtmlCorpusResult>();
+		corpusParser.parse(Fixtures.HTML_DIR, result -> results.add(result));
+		Assert.assertEquals(5, results.size());
+		Assert.assertEquals(5, corpusParser.getFileCount());
+		int failed = 0;
+		for (HtmlCorpusResult result : results) {
+			Assert.assertTrue(result.getParseNanos() > 0);
+			if (result.isFailed()) {
+				failed++;
+			} else {
+				Assert.assertNotNull(result.getFile().toString(), result.getHtmlElement());
+			}
+		}
+		Assert.assertEquals(failed, corpusParser.getFailureCount());
+		Assert.assertTrue(corpusParser.getElapsedNanos() > 0);
+	}
+
+	@Test
+	public void testParseStreamWithExecutor() throws Exception {
+		HtmlFactory htmlFactory = new HtmlFactory();
+		htmlFactory.setUseDirectBuild(true);
+		HtmlCorpusParser corpusParser = new HtmlCorpusParser(htmlFactory);
+		corpusParser.setMaxInFlight(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		corpusParser.setExecutor(executor);
+		final List<String> names = new ArrayList<String>();
+		Stream<Path> paths = Stream.of("312.html", "colspan.html", "missing.html")
+				.map(name -> new File(Fixtures.HTML_DIR, name).toPath());
+		try {
+			corpusParser.parse(paths, result -> names.add(result.getFile().getName()+(result.isFailed() ? " failed" : "")));
+		} finally {
+			executor.shutdown();
+		}
+		// maxInFlight 1 preserves order
+		Assert.assertEquals(Arrays.asList("312.html", "colspan.html", "missing.html failed"), names);
+		Assert.assertEquals(1, corpusParser.getFailureCount());
+	}
+}
@@ -0,0 +1,106 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlDiv;
+import org.xmlcml.html.HtmlDocumentIndex;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+import org.xmlcml.html.HtmlI;
+import org.xmlcml.html.HtmlP;
+
+public class HtmlDocumentIndexTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlDocumentIndexTest.class);
+
+	@Test
+	public void testIndexSameAsWalk() throws Exception {
+		HtmlElement root = new HtmlFactory().parse(new File(Fixtures.HTML_DIR, "312.html"));
+		for (String tag : new String[]{"i", "table", "td", "div", "html"}) {
+			Assert.assertEquals(tag, root.descendants(tag).toList(), HtmlElement.getSelfOrDescendants(root, tag));
+		}
+		HtmlDocumentIndex index = root.attachIndex();
+		try {
+			Assert.assertEquals(221, index.getElementsByTag("i").size());
+			for (String tag : new String[]{"i", "table", "td", "div", "html"}) {
+				Assert.assertEquals(tag, root.descendants(tag).toList(), HtmlElement.getSelfOrDescendants(root, tag));
+			}
+			Assert.assertSame(root, index.getElementsByTag("html").get(0));
+		} finally {
+			root.detachIndex();
+		}
+	}
+
+	@Test
+	public void testIdClassAndInvalidation() {
+		HtmlDiv root = new HtmlDiv();
+		HtmlP p = new HtmlP();
+		p.setId("p1");
+		p.setClassAttribute("a  b");
+		root.appendChild(p);
+		HtmlDocumentIndex index = root.attachIndex();
+		try {
+			Assert.assertSame(p, root.getElementById("p1"));
+			Assert.assertEquals(1, root.getElementsByClass("b").size());
+			Assert.assertTrue(index.isValid());
+			// mutation deep in the tree invalidates the root's index
+			HtmlI i = new HtmlI();
+			i.setClassAttribute("b");
+			p.appendChild(i);
+			Assert.assertFalse(index.isValid());
+			Assert.assertEquals(2, root.getElementsByClass("b").size());
+			Assert.assertEquals(1, index.getElementsByTag("i").size());
+			i.setId("i1");
+			Assert.assertSame(i, root.getElementById("i1"));
+			p.removeChild(i);
+			Assert.assertNull(root.getElementById("i1"));
+			Assert.assertEquals(0, HtmlElement.getSelfOrDescendants(root, "i").size());
+		} finally {
+			root.detachIndex();
+		}
+		Assert.assertSame(p, root.getElementById("p1"));
+		Assert.assertEquals(1, root.getElementsByClass("a").size());
+	}
+
+	@Test
+	public void testInvalidationScopedToIndexedTree() {
+		HtmlDiv root = new HtmlDiv();
+		HtmlDocumentIndex index = root.attachIndex();
+		try {
+			index.getElementsByTag("p");
+			// a tree under construction elsewhere does not touch the index
+			HtmlDiv other = new HtmlDiv();
+			HtmlP p = new HtmlP();
+			other.appendChild(p);
+			HtmlI i = new HtmlI();
+			p.appendChild(i);
+			i.setId("i1");
+			Assert.assertTrue(index.isValid());
+			// once inserted, changes deep in the subtree invalidate
+			root.appendChild(other);
+			Assert.assertFalse(index.isValid());
+			Assert.assertSame(i, root.getElementById("i1"));
+			i.setClassAttribute("c");
+			Assert.assertFalse(index.isValid());
+			Assert.assertEquals(1, root.getElementsByClass("c").size());
+			// and after removal they no longer do
+			root.removeChild(other);
+			Assert.assertEquals(0, root.getElementsByClass("c").size());
+			i.setClassAttribute("d");
+			Assert.assertTrue(index.isValid());
+			// a subtree keeps its own index when its ancestor's is detached
+			root.appendChild(other);
+			HtmlDocumentIndex otherIndex = other.attachIndex();
+			root.detachIndex();
+			otherIndex.getElementsByTag("i");
+			i.setId("i2");
+			Assert.assertFalse(otherIndex.isValid());
+			other.detachIndex();
+		} finally {
+			root.detachIndex();
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+import org.xmlcml.html.HtmlI;
+import org.xmlcml.html.HtmlTable;
+import org.xmlcml.html.HtmlTd;
+import org.xmlcml.html.HtmlTr;
+
+public class HtmlElementIterableTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlElementIterableTest.class);
+
+	@Test
+	public void testDescendants() throws Exception {
+		HtmlElement root = new HtmlFactory().parse(new File(Fixtures.HTML_DIR, "312.html"));
+		List<HtmlElement> xpathIs = HtmlUtil.getQueryHtmlElements(root, ".//h:i");
+		List<HtmlI> is = root.descendants(HtmlI.class).toList();
+		Assert.assertEquals(221, is.size());
+		Assert.assertEquals(xpathIs, is);
+		Assert.assertEquals(xpathIs, root.descendants("I").toList());
+		Assert.assertEquals("et al", root.descendants(HtmlI.class).first().getValue().trim());
+		Assert.assertEquals(938, root.descendants(HtmlElement.class).stream().count());
+	}
+
+	@Test
+	public void testChildrenAndLaziness() throws Exception {
+		HtmlTable table = new HtmlTable();
+		for (int i = 0; i < 3; i++) {
+			HtmlTr tr = new HtmlTr();
+			tr.appendChild(new HtmlTd());
+			table.addRow(tr);
+		}
+		Assert.assertEquals(3, table.children(HtmlTr.class).toList().size());
+		Assert.assertEquals(3, table.getTrTdRows().size());
+		Assert.assertNull(table.children(HtmlTr.class).single());
+		Assert.assertNotNull(table.children(HtmlTr.class).first().children("td").single());
+		Assert.assertEquals(3, table.descendants(HtmlTd.class).stream().count());
+		Iterator<HtmlTr> iterator = table.children(HtmlTr.class).iterator();
+		Assert.assertTrue(iterator.hasNext());
+		Assert.assertTrue(iterator.hasNext());
+		iterator.next();
+		iterator.next();
+		iterator.next();
+		Assert.assertFalse(iterator.hasNext());
+	}
+}
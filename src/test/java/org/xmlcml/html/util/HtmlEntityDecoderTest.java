@@ -0,0 +1,202 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+
+public class HtmlEntityDecoderTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlEntityDecoderTest.class);
+
+	@Test
+	public void testDecode() {
+		HtmlEntityDecoder decoder = new HtmlEntityDecoder(HtmlFactory.getHtmlEntityMap());
+		Assert.assertEquals("a\u00a0b \u00e9 A \u00ff \u00a9", decoder.decode("a&nbsp;b &eacute; &#65; &#xff; &copy;"));
+		Assert.assertEquals("&nbsp &unknown; &#; &#x; &; &x", decoder.decode("&nbsp &unknown; &#; &#x; &; &x"));
+		String plain = "no references here";
+		Assert.assertSame(plain, decoder.decode(plain));
+		String unknown = "R&D &amp; more";
+		Assert.assertSame(unknown, decoder.decode(unknown));
+		StringBuilder sb = new StringBuilder("> ");
+		char[] chars = "x&pound;y".toCharArray();
+		Assert.assertTrue(decoder.decode(chars, 0, chars.length, sb));
+		Assert.assertEquals("> x\u00a3y", sb.toString());
+	}
+
+	@Test
+	public void testCachedDecoder() {
+		Map<String, CharSequence> map = new HashMap<String, CharSequence>();
+		map.put("foo", "1");
+		Assert.assertEquals("1", HtmlUtil.unescapeHtml3("&foo;", map));
+		// edited in place without changing size
+		map.put("foo", "2");
+		Assert.assertEquals("2", HtmlUtil.unescapeHtml3("&foo;", map));
+		// an equal map built per call reuses the compiled decoder
+		Map<String, CharSequence> copy = new HashMap<String, CharSequence>(map);
+		Assert.assertSame(HtmlEntityDecoder.getDecoder(map), HtmlEntityDecoder.getDecoder(copy));
+		// the factory's map is found by identity, not by its contents
+		Map<String, CharSequence> htmlMap = HtmlFactory.getHtmlEntityMap();
+		Assert.assertSame(htmlMap, HtmlFactory.getHtmlEntityMap());
+		Assert.assertSame(HtmlEntityDecoder.getDecoder(htmlMap), HtmlEntityDecoder.getDecoder(htmlMap));
+		Assert.assertNotSame(HtmlEntityDecoder.getDecoder(htmlMap), 
+				HtmlEntityDecoder.getDecoder(new HashMap<String, CharSequence>(htmlMap)));
+		Assert.assertEquals("\u00a3", HtmlUtil.unescapeHtml3("&pound;", htmlMap));
+	}
+
+	@Test
+	public void testSameAsMapLookup() throws Exception {
+		Map<String, CharSequence> map = HtmlFactory.getHtmlEntityMap();
+		HtmlEntityDecoder decoder = new HtmlEntityDecoder(map);
+		for (String filename : new String[]{"312.html", "badhtml1.html"}) {
+			String html = FileUtils.readFileToString(new File(Fixtures.HTML_DIR, filename));
+			Assert.assertEquals(filename, unescapeWithMap(html, map), decoder.decode(html));
+		}
+		String[] parts = {"&", "#", "x", ";", "amp", "nbsp", "eacute", "frac14", "a", "1", "F", "&#", " "};
+		Random random = new Random(42);
+		for (int n = 0; n < 2000; n++) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 12; i++) {
+				sb.append(parts[random.nextInt(parts.length)]);
+			}
+			String s = sb.toString();
+			Assert.assertEquals(s, unescapeWithMap(s, map), decoder.decode(s));
+		}
+	}
+
+	@Test
+	public void testHtml5() {
+		HtmlEntityDecoder decoder = HtmlEntityDecoder.getHtml5Decoder();
+		Assert.assertTrue(decoder.getEntityCount() > 2200);
+		Assert.assertEquals("\u03b1 \u2212 \u2264 \u2013 \u2233", 
+				decoder.decode("&alpha; &minus; &le; &ndash; &CounterClockwiseContourIntegral;"));
+		Assert.assertEquals("\u2242\u0338 fj", decoder.decode("&NotEqualTilde; &fjlig;"));
+		// legacy names without ';' and the longest match
+		Assert.assertEquals("\u00a9 2016 & \u00acit; \u2209", decoder.decode("&copy 2016 &amp \u0026notit; &notin;"));
+		Assert.assertEquals("&unknown; &alphax &", decoder.decode("&unknown; &alphax &"));
+		Assert.assertEquals("A A \u20ac \ufffd \ufffd \ufffd \ud83d\ude00 &#z", 
+				decoder.decode("&#65 &#x000041; &#128; &#0; &#xD800; &#x110000000; &#128512; &#z"));
+	}
+
+	@Test
+	public void testHtml5Markup() {
+		HtmlEntityDecoder decoder = HtmlEntityDecoder.getHtml5MarkupDecoder();
+		Assert.assertEquals("<a href=\"?x=1&copy=2&amp;y\">&lt;\u03b1&gt; &#945; \u00a9 2016</a>", 
+				decoder.decode("<a href=\"?x=1&copy=2&amp;y\">&lt;&alpha;&gt; &#945; &copy 2016</a>"));
+		// values containing markup characters are left for the XML parser to reject or resolve
+		Assert.assertEquals("&nvlt; &nvgt; \u2264\u20d2", decoder.decode("&nvlt; &nvgt; &nvle;"));
+		Assert.assertEquals("<\u20d2 >\u20d2", HtmlEntityDecoder.getHtml5Decoder().decode("&nvlt; &nvgt;"));
+	}
+
+	@Test
+	public void testNonJsoupParse() throws Exception {
+		HtmlFactory htmlFactory = new HtmlFactory();
+		htmlFactory.setUseJsoup(false);
+		HtmlElement root = htmlFactory.parse("<html><body><p>&alpha; &le; 1 &ndash; 2 &amp;lt;</p></body></html>");
+		Assert.assertNotNull(root);
+		Assert.assertEquals("\u03b1 \u2264 1 \u2013 2 <", root.getValue());
+	}
+
+	@Test
+	public void testStreaming() throws Exception {
+		String text = "x &alpha;&notin;&not &copy 2016 &#128512;&#x41 &CounterClockwiseContourIntegral; &amp;&";
+		String expected = HtmlEntityDecoder.getHtml5Decoder().decode(text);
+		for (int chunk = 1; chunk <= text.length(); chunk++) {
+			Reader reader = new HtmlEntityDecodingReader(new ChunkedReader(text, chunk));
+			StringBuilder sb = new StringBuilder();
+			char[] cbuf = new char[3];
+			int n;
+			while ((n = reader.read(cbuf, 0, cbuf.length)) != -1) {
+				sb.append(cbuf, 0, n);
+			}
+			reader.close();
+			Assert.assertEquals("chunk "+chunk, expected, sb.toString());
+		}
+	}
+
+	/** returns at most chunk chars per read. */
+	private static class ChunkedReader extends StringReader {
+		private int chunk;
+
+		ChunkedReader(String s, int chunk) {
+			super(s);
+			this.chunk = chunk;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			return super.read(cbuf, off, Math.min(len, chunk));
+		}
+	}
+
+	/** the original HtmlUtil.unescapeHtml3() algorithm, as reference. */
+	private static String unescapeWithMap(String input, Map<String, CharSequence> lookupMap) {
+		StringWriter writer = null;
+		int len = input.length();
+		int i = 1;
+		int st = 0;
+		while (true) {
+			while (i < len && input.charAt(i-1) != '&') {
+				i++;
+			}
+			if (i >= len) break;
+			int j = i;
+			while (j < len && j < i + 6 + 1 && input.charAt(j) != ';') {
+				j++;
+			}
+			if (j == len || j < i + 2 || j == i + 6 + 1) {
+				i++;
+				continue;
+			}
+			if (input.charAt(i) == '#') {
+				int k = i + 1;
+				int radix = 10;
+				final char firstChar = input.charAt(k);
+				if (firstChar == 'x' || firstChar == 'X') {
+					k++;
+					radix = 16;
+				}
+				try {
+					int entityValue = Integer.parseInt(input.substring(k, j), radix);
+					if (writer == null) {
+						writer = new StringWriter(input.length());
+					}
+					writer.append(input.substring(st, i - 1));
+					writer.write(entityValue);
+				} catch (NumberFormatException ex) { 
+					i++;
+					continue;
+				}
+			} else {
+				CharSequence value = lookupMap.get(input.substring(i, j));
+				if (value == null) {
+					i++;
+					continue;
+				} 
+				if (writer == null) {
+					writer = new StringWriter(input.length());
+				}
+				writer.append(input.substring(st, i - 1));
+				writer.append(value);
+			}
+			st = j + 1;
+			i = st;
+		}
+		if (writer != null) {
+			writer.append(input.substring(st, len));
+			return writer.toString();
+		}
+		return input;
+	}
+}
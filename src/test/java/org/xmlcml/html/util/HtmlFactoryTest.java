@@ -0,0 +1,185 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlEm;
+import org.xmlcml.html.HtmlFactory;
+import org.xmlcml.html.HtmlGeneric;
+import org.xmlcml.html.HtmlI;
+import org.xmlcml.html.HtmlParseContext;
+import org.xmlcml.html.HtmlParseMetrics;
+import org.xmlcml.html.HtmlParseStage;
+import org.xmlcml.html.HtmlTable;
+import org.xmlcml.xml.XMLConstants;
+
+import nu.xom.Element;
+
+public class HtmlFactoryTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlFactoryTest.class);
+
+	@Test
+	public void testDirectBuild() throws Exception {
+		HtmlFactory htmlFactory = new HtmlFactory();
+		htmlFactory.setUseDirectBuild(true);
+		HtmlElement root = htmlFactory.parse(new File(Fixtures.HTML_DIR, "312.html"));
+		List<HtmlElement> all = HtmlUtil.getQueryHtmlElements(root, ".//*");
+		Assert.assertEquals("all",  938, all.size());
+		List<HtmlElement> italics = HtmlUtil.getQueryHtmlElements(root, ".//*[local-name()='i']");
+		Assert.assertEquals("italics",  221, italics.size());
+		Assert.assertEquals("0",  "et al", italics.get(0).getValue().trim());
+	}
+
+	@Test
+	public void testDirectBuildSameStructureAsDefault() throws Exception {
+		HtmlFactory directFactory = new HtmlFactory();
+		directFactory.setUseDirectBuild(true);
+		for (String name : new String[]{"multiple-joined-italics.html", "312.html", "badhtml1.html", "badhtml1a.html"}) {
+			File file = new File(Fixtures.HTML_DIR, name);
+			HtmlElement root = new HtmlFactory().parse(file);
+			HtmlElement directRoot = directFactory.parse(file);
+			List<HtmlElement> elements = HtmlUtil.getQueryHtmlElements(root, ".//*");
+			List<HtmlElement> directElements = HtmlUtil.getQueryHtmlElements(directRoot, ".//*");
+			Assert.assertEquals(name+" count", elements.size(), directElements.size());
+			for (int i = 0; i < elements.size(); i++) {
+				Assert.assertEquals(name+" class "+i, elements.get(i).getClass(), directElements.get(i).getClass());
+				String directValue = directElements.get(i).getValue();
+				Assert.assertEquals(name+" CR "+i, -1, directValue.indexOf('\r'));
+				Assert.assertEquals(name+" value "+i, defaultText(elements.get(i).getValue()), HtmlUtil.normalizeWhitespace(directValue));
+			}
+			Assert.assertFalse(name, directRoot.toXML().contains("&#x0D;"));
+		}
+	}
+
+	/** the default build keeps some of Jsoup's escapes and its reformatted whitespace. */
+	private static String defaultText(String value) {
+		value = value.replace("&nbsp;", "\u00a0").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+		return HtmlUtil.normalizeWhitespace(value);
+	}
+
+	@Test
+	public void testDirectBuildText() throws Exception {
+		HtmlFactory htmlFactory = new HtmlFactory();
+		htmlFactory.setUseDirectBuild(true);
+		HtmlElement root = htmlFactory.parse(
+				"<html><body><p>a &amp;amp; b</p><!-- x -- y --><script>if (a < b) c();</script></body></html>");
+		Assert.assertEquals("<html xmlns=\"http://www.w3.org/1999/xhtml\"><head /><body><p>a &amp; b</p>"
+				+ "<!-- x - - y --><div class=\"script_UNKNOWN\">if (a &lt; b) c();</div></body></html>", root.toXML());
+	}
+
+	@Test
+	public void testCreateElementFromTag() throws Exception {
+		HtmlFactory htmlFactory = new HtmlFactory();
+		Assert.assertEquals(HtmlTable.class, htmlFactory.createElementFromTag("TABLE").getClass());
+		Assert.assertEquals("div", htmlFactory.createElementFromTag("center").getLocalName());
+		Assert.assertEquals("it_UNKNOWN", htmlFactory.createElementFromTag("it").getClassAttribute());
+		htmlFactory.addReplacement("it", "i");
+		Assert.assertEquals(HtmlI.class, htmlFactory.createElementFromTag("it").getClass());
+		htmlFactory.addElementSupplier("it", HtmlEm::new);
+		Assert.assertEquals(HtmlEm.class, htmlFactory.createElementFromTag("it").getClass());
+		Assert.assertEquals("it_UNKNOWN", new HtmlFactory().createElementFromTag("it").getClassAttribute());
+	}
+
+	/** the tag to class mapping of the deprecated HtmlElement.create(), as originally coded. */
+	@Test
+	@SuppressWarnings("deprecation")
+	public void testCreateMapping() throws Exception {
+		String[] subclassed = {"A", "B", "Big", "Body", "Br", "Caption", "Div", "Em", "Frame", "Frameset",
+				"H1", "H2", "H3", "Head", "Hr", "Html", "I", "Img", "Li", "Link", "Meta", "Ol", "P", "S", "Script",
+				"Small", "Span", "Strong", "Style", "Sub", "Sup", "Table", "Tbody", "Td", "Tfoot", "Th", "Thead",
+				"Tr", "Tt", "Ul"};
+		for (String tag : subclassed) {
+			HtmlElement element = HtmlElement.create(new Element(tag.toLowerCase(), XMLConstants.XHTML_NS));
+			Assert.assertEquals(tag, "org.xmlcml.html.Html"+tag, element.getClass().getName());
+		}
+		for (String tag : new String[]{"title", "h4", "dl"}) {
+			HtmlElement element = HtmlElement.create(new Element(tag, XMLConstants.XHTML_NS));
+			Assert.assertEquals(tag, HtmlGeneric.class, element.getClass());
+			Assert.assertEquals(tag, element.getLocalName());
+		}
+	}
+
+	@Test
+	public void testBuiltFactoryIsShareable() throws Exception {
+		final HtmlFactory htmlFactory = HtmlFactory.builder().setUseDirectBuild(true).build();
+		final File file = new File(Fixtures.HTML_DIR, "312.html");
+		HtmlFactory singleFactory = new HtmlFactory();
+		singleFactory.setUseDirectBuild(true);
+		String expected = singleFactory.parse(file).toXML();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<String>> futures = new ArrayList<Future<String>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<String>() {
+					public String call() throws Exception {
+						return htmlFactory.parse(file).toXML();
+					}
+				}));
+			}
+			for (Future<String> future : futures) {
+				Assert.assertEquals(expected, future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBuiltFactoryParseContext() throws Exception {
+		HtmlFactory htmlFactory = HtmlFactory.builder().addReplacement("it", "i").build();
+		HtmlParseContext context = new HtmlParseContext();
+		htmlFactory.parse(IOUtils.toInputStream("<html><body><it>a</it><blink>b</blink><marquee>c</marquee></body></html>"), context);
+		Assert.assertEquals("[blink, marquee]", context.getUnknownTags().toString());
+		Assert.assertNull(htmlFactory.getUnknownTags());
+	}
+
+	@Test
+	public void testBuiltFactoryIsFrozen() throws Exception {
+		HtmlFactory.Builder builder = HtmlFactory.builder().addMissingNamespacePrefix("g");
+		HtmlFactory htmlFactory = builder.build();
+		builder.addMissingNamespacePrefix("m");
+		Assert.assertEquals("[g]", htmlFactory.getMissingNamespacePrefixes().toString());
+		Assert.assertTrue(htmlFactory.isFrozen());
+		try {
+			htmlFactory.setUseJsoup(false);
+			Assert.fail("should throw");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testParseMetrics() throws Exception {
+		HtmlParseMetrics metrics = new HtmlParseMetrics();
+		File file = new File(Fixtures.HTML_DIR, "312.html");
+		HtmlFactory.builder().setParseListener(metrics).build().parse(file);
+		HtmlFactory.builder().setParseListener(metrics).setUseDirectBuild(true).build().parse(file);
+		Assert.assertEquals(2, metrics.getStageMetrics(HtmlParseStage.TOTAL).getCount());
+		Assert.assertEquals(2, metrics.getStageMetrics(HtmlParseStage.JSOUP_PARSE).getCount());
+		Assert.assertEquals(1, metrics.getStageMetrics(HtmlParseStage.XOM_PARSE).getCount());
+		HtmlParseMetrics.StageMetrics read = metrics.getStageMetrics(HtmlParseStage.READ);
+		Assert.assertEquals(2 * file.length(), read.getTotalSizeOut(), 1000);
+		long sum = 0;
+		for (long count : read.getNanosHistogram()) {
+			sum += count;
+		}
+		Assert.assertEquals(2, sum);
+		StringBuilder sb = new StringBuilder();
+		metrics.writeHistograms(sb);
+		Assert.assertTrue(sb.toString().contains("\nTOTAL\tnanos\t"));
+		Assert.assertEquals(0, HtmlParseMetrics.bucket(0));
+		Assert.assertEquals(4, HtmlParseMetrics.bucket(15));
+		Assert.assertEquals(8, HtmlParseMetrics.bucketLowerBound(4));
+	}
+}
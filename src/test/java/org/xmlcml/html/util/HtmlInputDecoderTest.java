@@ -0,0 +1,103 @@
+package org.xmlcml.html.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+
+public class HtmlInputDecoderTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlInputDecoderTest.class);
+
+	private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+	private static final String TEXT = "caf\u00e9 \u2013 \u201cx\u201d";
+
+	@Test
+	public void testDetect() throws Exception {
+		assertDetected(StandardCharsets.UTF_8, bytes(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, "<p>", StandardCharsets.UTF_8));
+		assertDetected(StandardCharsets.UTF_16BE, bytes(new byte[]{(byte) 0xFE, (byte) 0xFF}, "<p>", StandardCharsets.UTF_16BE));
+		assertDetected(StandardCharsets.UTF_16LE, bytes(new byte[]{(byte) 0xFF, (byte) 0xFE}, "<p>", StandardCharsets.UTF_16LE));
+		assertDetected(WINDOWS_1252, ascii("<html><head><meta charset=\"windows-1252\"></head>"));
+		assertDetected(WINDOWS_1252, ascii("<HTML><HEAD><META HTTP-EQUIV=\"Content-Type\" CONTENT=\"text/html; charset=ISO-8859-1\">"));
+		assertDetected(StandardCharsets.UTF_8, ascii("<meta charset='utf-16'>"));
+		assertDetected(WINDOWS_1252, ascii("<?xml version=\"1.0\" encoding=\"latin1\"?><html/>"));
+		assertDetected(StandardCharsets.UTF_8, ascii("<?xml version=\"1.0\" encoding=\"UTF-16\"?><html/>"));
+		assertDetected(StandardCharsets.UTF_8, ascii("<!-- <meta charset=\"windows-1252\"> --><p>x</p>"));
+		assertDetected(StandardCharsets.UTF_8, ascii("<meta charset=\"no-such-charset\"><p>x</p>"));
+		assertDetected(StandardCharsets.UTF_8, ascii("<p>no declaration</p>"));
+	}
+
+	@Test
+	public void testDecode() throws Exception {
+		String html = "<html><head><meta charset=\"windows-1252\"/></head><body><p>"+TEXT+"</p></body></html>";
+		CharBuffer text = HtmlInputDecoder.decode(new ByteArrayInputStream(html.getBytes(WINDOWS_1252)), HtmlInputDecoder.DEFAULT_CHARSET);
+		Assert.assertEquals(html, text.toString());
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-16\"?><html><p>"+TEXT+"</p></html>";
+		text = HtmlInputDecoder.decode(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), HtmlInputDecoder.DEFAULT_CHARSET);
+		Assert.assertEquals(xml, text.toString());
+		byte[] utf16 = bytes(new byte[]{(byte) 0xFF, (byte) 0xFE}, TEXT, StandardCharsets.UTF_16LE);
+		Assert.assertEquals(TEXT, HtmlInputDecoder.decode(new ByteArrayInputStream(utf16), StandardCharsets.UTF_8).toString());
+		Assert.assertEquals("a\ufffdb", HtmlInputDecoder.decode(
+				new ByteArrayInputStream(new byte[]{'a', (byte) 0xFF, 'b'}), StandardCharsets.UTF_8).toString());
+		// larger than the sniffed head and the initial buffer
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < 100000) {
+			sb.append(TEXT).append(" ");
+		}
+		String large = sb.toString();
+		text = HtmlInputDecoder.decode(new ByteArrayInputStream(large.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+		Assert.assertEquals(large, text.toString());
+		Reader reader = HtmlInputDecoder.openReader(new ByteArrayInputStream(large.getBytes(WINDOWS_1252)), WINDOWS_1252);
+		Assert.assertEquals(large, IOUtils.toString(reader));
+	}
+
+	@Test
+	public void testFactory() throws Exception {
+		String html = "<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=windows-1252\"/></head>"
+				+ "<body><p>"+TEXT+"</p></body></html>";
+		HtmlFactory htmlFactory = HtmlFactory.builder().setCharacterMapper(null).build();
+		HtmlElement root = htmlFactory.parse(new ByteArrayInputStream(html.getBytes(WINDOWS_1252)));
+		Assert.assertEquals(TEXT, root.getValue());
+		root = htmlFactory.parse(new ByteArrayInputStream(html.replace("windows-1252", "utf-8").getBytes(StandardCharsets.UTF_8)));
+		Assert.assertEquals(TEXT, root.getValue());
+		Assert.assertEquals(TEXT, htmlFactory.parse(html).getValue());
+		String undeclared = "<html><body><p>"+TEXT+"</p></body></html>";
+		htmlFactory = HtmlFactory.builder().setCharacterMapper(null).setDefaultCharset(WINDOWS_1252).build();
+		root = htmlFactory.parse(new ByteArrayInputStream(undeclared.getBytes(WINDOWS_1252)));
+		Assert.assertEquals(TEXT, root.getValue());
+	}
+
+	@Test
+	public void testTidy() throws Exception {
+		String html = "<html><head><meta charset=\"windows-1252\"></head><body><p>"+TEXT+"</p></body></html>";
+		String tidied = new HTMLTidy().tidy(new ByteArrayInputStream(html.getBytes(WINDOWS_1252)));
+		// Tidy itself replaces the dash and quotes
+		Assert.assertTrue(tidied, tidied.contains("<p>caf\u00e9 - \"x\"</p>"));
+		tidied = new HTMLTidy().tidy(new ByteArrayInputStream(html.replace("windows-1252", "utf-8").getBytes(StandardCharsets.UTF_8)));
+		Assert.assertTrue(tidied, tidied.contains("<p>caf\u00e9 - \"x\"</p>"));
+	}
+
+	private static void assertDetected(Charset expected, byte[] bytes) {
+		Assert.assertEquals(expected, HtmlInputDecoder.detectCharset(bytes, bytes.length, HtmlInputDecoder.DEFAULT_CHARSET));
+	}
+
+	private static byte[] ascii(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static byte[] bytes(byte[] bom, String s, Charset charset) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(bom);
+		baos.write(s.getBytes(charset));
+		return baos.toByteArray();
+	}
+}
@@ -0,0 +1,68 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+
+public class HtmlPreprocessorTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlPreprocessorTest.class);
+
+	@Test
+	public void testPreprocess() {
+		HtmlFactory htmlFactory = createFactory();
+		HtmlPreprocessor preprocessor = htmlFactory.createPreprocessor();
+		String s = preprocessor.preprocess(
+				"  <!DOCTYPE html>\n<html><g:p class=\"x\" onclick=\"go()\">a &amp; b &#8220;c&#8221;</g:p>"
+				+ "<script>var x = '<p>';</script><font size=\"2\">f</font> itemscope <b>d</b></html>");
+		Assert.assertEquals("  <html xmlns:g=\"http://foo/g/\"><p class=\"x\" >a & b \"c\"</p>"
+				+ "f <b>d</b></html>", s);
+	}
+
+	@Test
+	public void testEmpty() {
+		HtmlPreprocessor preprocessor = new HtmlFactory().createPreprocessor();
+		Assert.assertEquals("", preprocessor.preprocess(" \n "));
+	}
+
+	@Test
+	public void testSameAsRegexChain() throws Exception {
+		for (String filename : new String[]{"312.html", "badhtml1.html", "badhtml1a.html", "colspan.html"}) {
+			File file = new File(Fixtures.HTML_DIR, filename);
+			HtmlElement regexRoot = createFactory().parse(file);
+			HtmlFactory htmlFactory = createFactory();
+			htmlFactory.setUsePreprocessor(true);
+			HtmlElement preprocessorRoot = htmlFactory.parse(file);
+			Assert.assertEquals(filename, regexRoot.toXML(), preprocessorRoot.toXML());
+		}
+	}
+
+	@Test
+	public void testPreprocessorCached() throws Exception {
+		HtmlFactory htmlFactory = createFactory();
+		htmlFactory.setUsePreprocessor(true);
+		HtmlPreprocessor preprocessor = htmlFactory.getPreprocessor();
+		htmlFactory.parse("<html><body><p>a</p></body></html>");
+		Assert.assertSame(preprocessor, htmlFactory.getPreprocessor());
+		htmlFactory.addAttributeToDelete("style");
+		HtmlPreprocessor changed = htmlFactory.getPreprocessor();
+		Assert.assertNotSame(preprocessor, changed);
+		Assert.assertEquals("<p >x</p>", changed.preprocess("<p style=\"s\">x</p>"));
+		htmlFactory.setStripDoctype(false);
+		Assert.assertNotSame(changed, htmlFactory.getPreprocessor());
+	}
+
+	private HtmlFactory createFactory() {
+		HtmlFactory htmlFactory = new HtmlFactory();
+		htmlFactory.setContentList(Arrays.asList(new String[]{"script", "button"}));
+		htmlFactory.setNoContentList(Arrays.asList(new String[]{"font"}));
+		htmlFactory.addAttributeToDelete("onclick");
+		htmlFactory.addMissingNamespacePrefix("g");
+		return htmlFactory;
+	}
+}
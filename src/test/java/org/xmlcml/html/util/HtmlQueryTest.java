@@ -0,0 +1,46 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+
+import nu.xom.Nodes;
+
+public class HtmlQueryTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlQueryTest.class);
+
+	@Test
+	public void testNativeSameAsXOM() throws Exception {
+		HtmlElement root = new HtmlFactory().parse(new File(Fixtures.HTML_DIR, "312.html"));
+		HtmlElement body = (HtmlElement) root.getChildElements().get(1);
+		String[] xpaths = {".//*", "./*", "//*", ".//h:i", "./h:div", "//h:html", ".//*[local-name()='i']",
+				"./*[local-name()=\"div\"]", "//*[local-name()='table']", ".//h:nonexistent"};
+		for (String xpath : xpaths) {
+			HtmlQuery query = HtmlQuery.compile(xpath);
+			Assert.assertTrue(xpath, query.isNative());
+			Nodes expected = body.query(xpath, HtmlUtil.XHTML_XPATH);
+			Nodes nodes = query.query(body);
+			Assert.assertEquals(xpath, expected.size(), nodes.size());
+			for (int i = 0; i < nodes.size(); i++) {
+				Assert.assertSame(xpath+" "+i, expected.get(i), nodes.get(i));
+			}
+		}
+		Assert.assertEquals(221, HtmlUtil.getQueryHtmlElements(root, ".//*[local-name()='i']").size());
+	}
+
+	@Test
+	public void testFallbackAndCache() throws Exception {
+		HtmlElement root = new HtmlFactory().parse(new File(Fixtures.HTML_DIR, "312.html"));
+		HtmlQuery query = HtmlQuery.compile(".//h:i[1]");
+		Assert.assertFalse(query.isNative());
+		Assert.assertEquals(root.query(".//h:i[1]", HtmlUtil.XHTML_XPATH).size(), query.getHtmlElements(root).size());
+		Assert.assertSame(query, HtmlQuery.compile(".//h:i[1]"));
+		Assert.assertNotSame(query, HtmlQuery.compile(".//h:i[1]", null));
+		Assert.assertFalse(HtmlQuery.compile(".//x:i").isNative());
+	}
+}
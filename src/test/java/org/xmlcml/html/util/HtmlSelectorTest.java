@@ -0,0 +1,101 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+
+import nu.xom.Nodes;
+
+public class HtmlSelectorTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlSelectorTest.class);
+
+	@Test
+	public void testSameAsXPath() throws Exception {
+		String[][] pairs = {
+				{"i", ".//h:i"},
+				{"*", "descendant-or-self::*"},
+				{"table > tbody tr:has(th)", ".//h:table/h:tbody//h:tr[.//h:th]"},
+				{"tr > td:first-child", ".//h:tr/h:td[not(preceding-sibling::*)]"},
+				{"div p", ".//h:p[ancestor::h:div]"},
+				{"p, i", ".//h:p | .//h:i"},
+				{"[class]", "descendant-or-self::*[@class]"},
+				{"td:nth-child(2n+1)", ".//h:td[count(preceding-sibling::*) mod 2 = 0]"},
+				{"thead tr + tr > th:last-child", ".//h:thead/h:tr[preceding-sibling::*[1][self::h:tr]]/h:th[not(following-sibling::*)]"},
+		};
+		for (String filename : new String[]{"312.html", "colspan.html"}) {
+			HtmlElement root = new HtmlFactory().parse(new File(Fixtures.HTML_DIR, filename));
+			for (String[] pair : pairs) {
+				List<HtmlElement> selected = root.select(pair[0]);
+				Nodes expected = root.query(pair[1], HtmlUtil.XHTML_XPATH);
+				Assert.assertEquals(pair[0], expected.size(), selected.size());
+				for (int i = 0; i < selected.size(); i++) {
+					Assert.assertSame(pair[0]+" "+i, expected.get(i), selected.get(i));
+				}
+			}
+		}
+		HtmlElement table = new HtmlFactory().parse(new File(Fixtures.HTML_DIR, "colspan.html"));
+		Assert.assertEquals(2, table.select("table > tbody tr:has(td)").size());
+		Assert.assertEquals(2, table.select("table tr:has(th)").size());
+		Assert.assertEquals(4, table.select("tr:nth-child(even) > th").size());
+	}
+
+	@Test
+	public void testSimpleSelectors() throws Exception {
+		HtmlElement root = new HtmlFactory().parse(
+				"<html><body><div id=\"a\" class=\"x y\"><p class=\"y\">1</p><p lang=\"en-GB\">2</p><span/></div>"
+				+ "<div class=\"z\"><p>3</p></div></body></html>");
+		Assert.assertEquals(1, root.select("#a").size());
+		Assert.assertEquals(2, root.select(".y").size());
+		Assert.assertEquals(1, root.select("div.x.y > p.y").size());
+		Assert.assertEquals(1, root.select("p[lang|=en]").size());
+		Assert.assertEquals(1, root.select("p + p").size());
+		Assert.assertEquals(1, root.select("p ~ span").size());
+		Assert.assertEquals(2, root.select("div:not(.z) p").size());
+		Assert.assertEquals(1, root.select("div:has(> span)").size());
+		Assert.assertEquals(1, root.select("span:empty").size());
+		Assert.assertEquals("3", root.selectFirst("div.z p:only-child").getValue());
+		Assert.assertNull(root.selectFirst("table"));
+		Assert.assertSame(HtmlSelector.compile("div p"), HtmlSelector.compile("div p"));
+	}
+
+	@Test
+	public void testWithIndex() throws Exception {
+		HtmlElement root = new HtmlFactory().parse(new File(Fixtures.HTML_DIR, "312.html"));
+		int count = root.select("div i").size();
+		root.attachIndex();
+		Assert.assertEquals(count, root.select("div i").size());
+		root.detachIndex();
+		// duplicate ids give the same results with and without an index
+		root = new HtmlFactory().parse("<html><body><div id=\"x\"/><p id=\"x\"/><p id=\"y\"/></body></html>");
+		String[] selectors = {"#x", "p#x", "div#x", "#y", "#z"};
+		int[] counts = {2, 1, 1, 1, 0};
+		for (int i = 0; i < selectors.length; i++) {
+			Assert.assertEquals(selectors[i], counts[i], root.select(selectors[i]).size());
+		}
+		root.attachIndex();
+		for (int i = 0; i < selectors.length; i++) {
+			Assert.assertEquals(selectors[i], counts[i], root.select(selectors[i]).size());
+		}
+		Assert.assertEquals("p", root.select("p#x").get(0).getLocalName());
+		Assert.assertEquals(2, root.getDocumentIndex().getElementsById("x").size());
+		root.detachIndex();
+	}
+
+	@Test
+	public void testBadSelector() {
+		for (String bad : new String[]{"", "p >", "p[", "p:unknown", "p:has(i"}) {
+			try {
+				HtmlSelector.compile(bad);
+				Assert.fail("should throw: "+bad);
+			} catch (RuntimeException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HtmlStreamRewriterTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlStreamRewriterTest.class);
+
+	private static final String HTML = "<!DOCTYPE html>\n<html xml:lang = \"en\"><g:p>a<!-- <script> -->"
+			+ "<script>if (a<b) x = '<script>';</script>\r\n<it class=\"x>y\">b</it><b:x/></g:p></html>";
+
+	@Test
+	public void testStages() throws Exception {
+		assertSame(HTML, HTML.replaceFirst("<!DOCTYPE[^>]*>", ""), "doctype");
+		assertSame(HTML, HTML.replaceAll("xml\\:lang\\s*=\\s*\\\"([^\\\"]*)\\\"", ""), "xmllang");
+		assertSame(HTML, HTML.replaceAll("[\\r\\n]+", ""), "newline");
+		assertSame(HTML, HTML.replaceAll("(<[A-Za-z_][A-Za-z_0-9]*:)", "<_").replaceAll("(</[A-Za-z_][A-Za-z_0-9]*:)", "</_"), "prefix");
+		HTMLTagReplacer replacer = createReplacer();
+		Assert.assertEquals("<!DOCTYPE html>\n<html xml:lang = \"en\"><g:p>a<!-- <script> -->\r\n<i class=\"x>y\">b</i></g:p></html>",
+				replacer.replaceAll(HTML));
+		assertSame(HTML, replacer.replaceAll(HTML), "tags");
+	}
+
+	@Test
+	public void testTagsOnFiles() throws Exception {
+		HTMLTagReplacer replacer = createReplacer();
+		for (String filename : new String[]{"312.html", "badhtml1.html", "colspan.html"}) {
+			String html = FileUtils.readFileToString(new File(Fixtures.HTML_DIR, filename), "UTF-8");
+			String expected = replacer.replaceAll(html);
+			for (int chunk : new int[]{1, 7, 100, 100000}) {
+				Assert.assertEquals(filename+" "+chunk, expected, readThrough(html, "tags", chunk));
+			}
+		}
+	}
+
+	@Test
+	public void testChained() throws Exception {
+		List<String> stages = Arrays.asList("tags", "doctype", "xmllang", "newline", "prefix");
+		String expected = HTML;
+		for (String stage : stages) {
+			expected = readThrough(expected, stage, 100000);
+		}
+		StringWriter sw = new StringWriter();
+		HtmlStreamRewriter.RewritingWriter writer = null;
+		Writer w = sw;
+		for (int i = stages.size() - 1; i >= 0; i--) {
+			w = writer = createStage(stages.get(i)).filter(w);
+		}
+		for (char c : HTML.toCharArray()) {
+			writer.write(c);
+		}
+		writer.finish();
+		Assert.assertEquals(expected, sw.toString());
+		Assert.assertEquals("<html ><_p>a<!-- <script> --><i class=\"x>y\">b</i></_p></html>", expected);
+	}
+
+	@Test
+	public void testBadDoctype() throws Exception {
+		try {
+			readThrough("<html><!DOCTYPE html", "doctype", 3);
+			Assert.fail("should throw");
+		} catch (RuntimeException e) {
+			Assert.assertEquals("Bad DOCTYPE at: 6", e.getMessage());
+		}
+	}
+
+	/** the stage gives expected for every chunk size, through a Reader and through a Writer. */
+	private static void assertSame(String html, String expected, String stage) throws IOException {
+		for (int chunk = 1; chunk <= html.length(); chunk++) {
+			Assert.assertEquals(stage+" reader "+chunk, expected, readThrough(html, stage, chunk));
+			StringWriter sw = new StringWriter();
+			HtmlStreamRewriter.RewritingWriter writer = createStage(stage).filter(sw);
+			for (int i = 0; i < html.length(); i += chunk) {
+				writer.write(html, i, Math.min(chunk, html.length() - i));
+				writer.flush();
+			}
+			writer.close();
+			Assert.assertEquals(stage+" writer "+chunk, expected, sw.toString());
+		}
+	}
+
+	private static String readThrough(String html, String stage, final int chunk) throws IOException {
+		Reader reader = new StringReader(html) {
+			@Override
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				return super.read(cbuf, off, Math.min(len, chunk));
+			}
+		};
+		reader = createStage(stage).filter(reader);
+		StringBuilder sb = new StringBuilder();
+		char[] cbuf = new char[5];
+		int n;
+		while ((n = reader.read(cbuf, 0, cbuf.length)) != -1) {
+			sb.append(cbuf, 0, n);
+		}
+		reader.close();
+		return sb.toString();
+	}
+
+	private static HtmlStreamRewriter createStage(String stage) {
+		if ("doctype".equals(stage)) {
+			return HtmlStreamRewriter.createDoctypeStripper();
+		} else if ("xmllang".equals(stage)) {
+			return HtmlStreamRewriter.createXmlLangRemover();
+		} else if ("newline".equals(stage)) {
+			return HtmlStreamRewriter.createNewlineFlattener();
+		} else if ("prefix".equals(stage)) {
+			return HtmlStreamRewriter.createForeignPrefixRemover();
+		}
+		return createReplacer().createStreamRewriter();
+	}
+
+	private static HTMLTagReplacer createReplacer() {
+		HTMLTagReplacer replacer = new HTMLTagReplacer();
+		replacer.addReplacement(new HTMLTagReplacement("script"));
+		replacer.addReplacement(new HTMLTagReplacement("it", "i"));
+		replacer.addReplacement(new HTMLTagReplacement("b:x"));
+		replacer.addReplacement(new HTMLTagReplacement("span"));
+		replacer.addReplacement(new HTMLTagReplacement("div", "section"));
+		return replacer;
+	}
+}
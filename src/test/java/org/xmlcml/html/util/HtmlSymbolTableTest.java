@@ -0,0 +1,59 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+import org.xmlcml.html.HtmlSymbolTable;
+
+import nu.xom.Attribute;
+
+public class HtmlSymbolTableTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlSymbolTableTest.class);
+
+	@Test
+	public void testCanonicalize() {
+		HtmlSymbolTable symbolTable = new HtmlSymbolTable(64, 8);
+		String a = new String("colspan");
+		Assert.assertNotSame(a, symbolTable.canonicalizeName(a));
+		Assert.assertEquals(a, symbolTable.canonicalizeName(a));
+		String b = new String("abc");
+		Assert.assertSame(b, symbolTable.canonicalizeValue(b));
+		Assert.assertSame(b, symbolTable.canonicalizeValue(new String("abc")));
+		String longValue = new String("http://example.org/long");
+		Assert.assertSame(longValue, symbolTable.canonicalizeValue(longValue));
+		Assert.assertNotSame(longValue, symbolTable.canonicalizeValue(new String(longValue)));
+		for (int i = 0; i < 10000; i++) {
+			symbolTable.canonicalizeName("s"+i);
+		}
+		Assert.assertEquals(64, symbolTable.getCapacity());
+		Assert.assertTrue(symbolTable.size() <= 64);
+	}
+
+	@Test
+	public void testSharedAcrossDocuments() throws Exception {
+		File file = new File(Fixtures.HTML_DIR, "badhtml1.html");
+		for (boolean direct : new boolean[]{true, false}) {
+			HtmlFactory htmlFactory = HtmlFactory.builder().setUseDirectBuild(direct)
+					.setSymbolTable(new HtmlSymbolTable(1 << 14, HtmlSymbolTable.DEFAULT_MAX_VALUE_LENGTH)).build();
+			List<HtmlElement> elements1 = HtmlUtil.getQueryHtmlElements(htmlFactory.parse(file), ".//*[@class]");
+			List<HtmlElement> elements2 = HtmlUtil.getQueryHtmlElements(htmlFactory.parse(file), ".//*[@class]");
+			Assert.assertTrue(elements1.size() > 0);
+			for (int i = 0; i < elements1.size(); i++) {
+				Attribute class1 = elements1.get(i).getAttribute("class");
+				Attribute class2 = elements2.get(i).getAttribute("class");
+				Assert.assertSame(class1.getLocalName(), class2.getLocalName());
+				if (class1.getValue().length() <= HtmlSymbolTable.DEFAULT_MAX_VALUE_LENGTH) {
+					Assert.assertSame(class1.getValue(), class2.getValue());
+				}
+			}
+			HtmlFactory noTable = HtmlFactory.builder().setUseDirectBuild(direct).setSymbolTable(null).build();
+			Assert.assertEquals(htmlFactory.parse(file).toXML(), noTable.parse(file).toXML());
+		}
+	}
+}
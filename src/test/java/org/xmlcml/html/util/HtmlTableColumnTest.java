@@ -0,0 +1,82 @@
+package org.xmlcml.html.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlFactory;
+import org.xmlcml.html.HtmlTable;
+import org.xmlcml.html.HtmlTableColumn;
+import org.xmlcml.html.HtmlTableColumnFile;
+
+public class HtmlTableColumnTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlTableColumnTest.class);
+
+	@Test
+	public void testTypes() {
+		assertType(HtmlTableColumn.Type.INTEGER, "1", "-2", "1,024", "", "NA");
+		assertType(HtmlTableColumn.Type.DECIMAL, "1,234.5", "-12,345,678.25", "7");
+		assertType(HtmlTableColumn.Type.DECIMAL, "1", "2.5", "1.2e-3", "3.0 x 10-2", ".5");
+		assertType(HtmlTableColumn.Type.PERCENTAGE, "12%", "3.5 %", "-");
+		assertType(HtmlTableColumn.Type.VALUE_ERROR, "1.5 \u00b1 0.2", "2 +/- 1", "3");
+		assertType(HtmlTableColumn.Type.STRING, "1", "abc");
+		assertType(HtmlTableColumn.Type.STRING, "1 mg", "2 g");
+		assertType(HtmlTableColumn.Type.EMPTY, "", "nd");
+		assertType(HtmlTableColumn.Type.STRING, "1,5", "2,25", "3,0");
+		assertType(HtmlTableColumn.Type.STRING, "12,3456");
+		assertType(HtmlTableColumn.Type.STRING, "1/2", "3/2");
+		assertType(HtmlTableColumn.Type.DECIMAL, "1.5 mg/L", "2 mg/L");
+		assertType(HtmlTableColumn.Type.STRING, "1,", ",5");
+		assertType(HtmlTableColumn.Type.STRING, "1", "1e99999999999");
+		assertType(HtmlTableColumn.Type.STRING, "1", "5 x 10^99999999999");
+		HtmlTableColumn column = HtmlTableColumn.createColumn("dose", Arrays.asList("12 mg", "3.5mg", ""));
+		Assert.assertEquals(HtmlTableColumn.Type.DECIMAL, column.getType());
+		Assert.assertEquals("mg", column.getUnit());
+		Assert.assertEquals(3.5, column.getDoubles()[1], 0.0);
+		Assert.assertTrue(column.isNull(2));
+		Assert.assertTrue(Double.isNaN(column.getDoubles()[2]));
+		column = HtmlTableColumn.createColumn("count", Arrays.asList("1,024", "-12,345,678"));
+		Assert.assertArrayEquals(new long[]{1024, -12345678}, column.getLongs());
+	}
+
+	private void assertType(HtmlTableColumn.Type type, String... values) {
+		Assert.assertEquals(Arrays.toString(values), type, HtmlTableColumn.createColumn("c", Arrays.asList(values)).getType());
+	}
+
+	@Test
+	public void testTableColumnsAndFile() throws Exception {
+		HtmlTable table = HtmlTable.getFirstDescendantTable(new HtmlFactory().parse(
+				"<html><body><table><tr><th>id</th><th>mass</th><th>yield</th><th>note</th></tr>"
+				+ "<tr><td>1</td><td>1.5 &#177; 0.1 kDa</td><td>12%</td><td>ok</td></tr>"
+				+ "<tr><td>2</td><td>2.0 &#177; 0.3 kDa</td><td>n/a</td><td></td></tr>"
+				+ "<tr><td>-3</td><td>3 kDa</td><td>7.5%</td><td>see text</td></tr>"
+				+ "</table></body></html>"));
+		List<HtmlTableColumn> columns = table.getTypedColumns();
+		Assert.assertEquals(4, columns.size());
+		HtmlTableColumn id = columns.get(0);
+		Assert.assertEquals("id", id.getName());
+		Assert.assertArrayEquals(new long[]{1, 2, -3}, id.getLongs());
+		HtmlTableColumn mass = columns.get(1);
+		Assert.assertEquals(HtmlTableColumn.Type.VALUE_ERROR, mass.getType());
+		Assert.assertEquals("kDa", mass.getUnit());
+		Assert.assertEquals(0.3, mass.getErrors()[1], 0.0);
+		Assert.assertTrue(Double.isNaN(mass.getErrors()[2]));
+		Assert.assertEquals(HtmlTableColumn.Type.PERCENTAGE, columns.get(2).getType());
+		Assert.assertTrue(columns.get(2).isNull(1));
+		Assert.assertEquals(HtmlTableColumn.Type.STRING, columns.get(3).getType());
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HtmlTableColumnFile.write(columns, baos);
+		List<HtmlTableColumn> read = HtmlTableColumnFile.read(new ByteArrayInputStream(baos.toByteArray()));
+		Assert.assertEquals(columns.toString(), read.toString());
+		Assert.assertArrayEquals(id.getLongs(), read.get(0).getLongs());
+		Assert.assertArrayEquals(mass.getErrors(), read.get(1).getErrors(), 0.0);
+		Assert.assertEquals(columns.get(2).getNulls(), read.get(2).getNulls());
+		Assert.assertArrayEquals(columns.get(3).getStrings(), read.get(3).getStrings());
+	}
+}
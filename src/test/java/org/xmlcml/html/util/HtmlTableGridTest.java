@@ -0,0 +1,75 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+import org.xmlcml.html.HtmlTable;
+import org.xmlcml.html.HtmlTableGrid;
+
+public class HtmlTableGridTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlTableGridTest.class);
+
+	@Test
+	public void testColspan() throws Exception {
+		HtmlElement root = new HtmlFactory().parse(new File(Fixtures.HTML_DIR, "colspan.html"));
+		HtmlTableGrid grid = HtmlTable.getFirstDescendantTable(root).toGrid();
+		Assert.assertEquals(4, grid.getColumnCount());
+		Assert.assertEquals(2, grid.getHeaderRowCount());
+		Assert.assertEquals(2, grid.getRowCount());
+		Assert.assertEquals("A", grid.getHeaderValue(0, 1));
+		Assert.assertSame(grid.getHeaderCell(0, 2), grid.getHeaderCell(0, 3));
+		Assert.assertEquals("A A1", grid.getColumnHeader(0));
+		Assert.assertEquals("B B2", grid.getColumnHeader(3));
+		Assert.assertEquals("r23", grid.getValue(1, 2));
+		Assert.assertEquals("[r13, r23]", grid.getColumn(2).toString());
+		Assert.assertEquals("[r21, r22, r23, r24]", grid.getRow(1).toString());
+	}
+
+	@Test
+	public void testRowspanAndNumbers() throws Exception {
+		HtmlElement root = new HtmlFactory().parse(
+				"<html><body><table><tr><th>k</th><th>v</th><th>n</th></tr>"
+				+ "<tr><td rowspan=\"2\">a</td><td>1,000.5</td><td>1</td></tr>"
+				+ "<tr><td>&#8722;2</td><td>x</td></tr>"
+				+ "<tr><td colspan=\"2\">b</td></tr>"
+				+ "<tfoot><tr><td>sum</td></tr></tfoot></table></body></html>");
+		HtmlTableGrid grid = HtmlTable.getFirstDescendantTable(root).toGrid();
+		Assert.assertEquals(1, grid.getHeaderRowCount());
+		Assert.assertEquals(3, grid.getRowCount());
+		Assert.assertEquals(3, grid.getColumnCount());
+		Assert.assertEquals("[a, a, b]", grid.getColumn(0).toString());
+		Assert.assertTrue(grid.isSpanOrigin(0, 0));
+		Assert.assertFalse(grid.isSpanOrigin(1, 0));
+		Assert.assertEquals("[a, \u22122, x]", grid.getRow(1).toString());
+		Assert.assertNull(grid.getCell(2, 2));
+		double[] v = grid.getDoubleColumn(1);
+		Assert.assertEquals(1000.5, v[0], 0.0);
+		Assert.assertEquals(-2.0, v[1], 0.0);
+		Assert.assertEquals("b", grid.getValue(2, 1));
+		Assert.assertTrue(Double.isNaN(grid.getDoubleColumn(2)[1]));
+		Assert.assertArrayEquals(new int[]{1, -1, -1}, grid.getIntColumn(2, -1));
+		Assert.assertEquals("sum", grid.getFooterValue(0, 0));
+	}
+
+	@Test
+	public void testLargeTable() throws Exception {
+		StringBuilder sb = new StringBuilder("<html><body><table><thead><tr><th>i</th><th>sq</th></tr></thead><tbody>");
+		int rows = 10000;
+		for (int i = 0; i < rows; i++) {
+			sb.append("<tr><td>"+i+"</td><td>"+(i * i)+"</td></tr>");
+		}
+		sb.append("</tbody></table></body></html>");
+		HtmlFactory htmlFactory = new HtmlFactory();
+		htmlFactory.setUseDirectBuild(true);
+		HtmlTableGrid grid = HtmlTable.getFirstDescendantTable(htmlFactory.parse(sb.toString())).toGrid();
+		Assert.assertEquals(rows, grid.getRowCount());
+		int[] squares = grid.getIntColumn(1, -1);
+		Assert.assertEquals(9999 * 9999, squares[rows - 1]);
+		Assert.assertEquals("sq", grid.getColumnHeader(1));
+	}
+}
@@ -0,0 +1,109 @@
+package org.xmlcml.html.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlFactory;
+
+public class HtmlTableStreamerTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlTableStreamerTest.class);
+
+	private static final String TABLES = "<html><body>"
+			+ "<table><caption>Table 1</caption><tr><td>a</td></tr></table>"
+			+ "<table><caption>Supplementary data</caption>"
+			+ "<tr><th>x</th><th>y</th></tr>"
+			+ "<tr><td>1<script>alert('no')</script></td><td>in<br/>ner<table><tr><td>nested</td></tr></table></td></tr>"
+			+ "<tr><td><it>i</it> <blink>z</blink></td></tr>"
+			+ "</table></body></html>";
+
+	@Test
+	public void testColspan() throws Exception {
+		List<HtmlTableRow> rows = new ArrayList<HtmlTableRow>();
+		int count = new HtmlTableStreamer().stream(new File(Fixtures.HTML_DIR, "colspan.html"), rows::add);
+		Assert.assertEquals(4, count);
+		Assert.assertEquals("[A, B]", rows.get(0).getValues().toString());
+		Assert.assertEquals(2, rows.get(0).getCells().get(1).getColspan());
+		Assert.assertTrue(rows.get(1).isHeaderRow());
+		Assert.assertEquals(HtmlTableRow.Section.HEAD, rows.get(1).getSection());
+		Assert.assertEquals(HtmlTableRow.Section.BODY, rows.get(3).getSection());
+		Assert.assertEquals("[r21, r22, r23, r24]", rows.get(3).getValues().toString());
+	}
+
+	@Test
+	public void testSelection() throws Exception {
+		HtmlFactory htmlFactory = new HtmlFactory();
+		htmlFactory.addTagToDelete("blink");
+		HtmlTableStreamer streamer = new HtmlTableStreamer(htmlFactory);
+		List<HtmlTableRow> rows = new ArrayList<HtmlTableRow>();
+		streamer.stream(new StringReader(TABLES), rows::add);
+		Assert.assertEquals(5, rows.size());
+		Assert.assertEquals("2:0 [nested]", rows.get(2).toString());
+		Assert.assertEquals("[1, in ner]", rows.get(3).getValues().toString());
+		Assert.assertEquals("[i]", rows.get(4).getValues().toString());
+
+		streamer.setCaptionPattern(Pattern.compile("(?i)supplementary"));
+		rows.clear();
+		streamer.stream(new StringReader(TABLES), rows::add);
+		Assert.assertEquals(3, rows.size());
+		Assert.assertEquals("Supplementary data", rows.get(0).getCaption());
+		Assert.assertEquals(1, rows.get(2).getTableIndex());
+
+		streamer.setCaptionPattern(null);
+		streamer.setTableIndexes(0, 2);
+		rows.clear();
+		streamer.stream(new StringReader(TABLES), rows::add);
+		Assert.assertEquals("[0:0 [a], 2:0 [nested]]", rows.toString());
+	}
+
+	@Test
+	public void testFactoryCharset() throws Exception {
+		byte[] bytes = "<table><tr><td>caf\u00e9</td></tr></table>".getBytes("windows-1252");
+		HtmlFactory htmlFactory = new HtmlFactory();
+		htmlFactory.setDefaultCharset(Charset.forName("windows-1252"));
+		List<HtmlTableRow> rows = new ArrayList<HtmlTableRow>();
+		new HtmlTableStreamer(htmlFactory).stream(new ByteArrayInputStream(bytes), rows::add);
+		Assert.assertEquals("[caf\u00e9]", rows.get(0).getValues().toString());
+	}
+
+	@Test
+	public void testLargeStream() throws Exception {
+		final int nrows = 100000;
+		Reader reader = new Reader() {
+			private int row = -1;
+			private String chunk = "<html><body><table>";
+			private int pos;
+			@Override
+			public int read(char[] cbuf, int off, int len) {
+				if (pos == chunk.length()) {
+					if (row == nrows) {
+						return -1;
+					}
+					row++;
+					chunk = row < nrows ? "<tr><td>"+row+"</td><td>x</td></tr>" : "</table></body></html>";
+					pos = 0;
+				}
+				int n = Math.min(len, chunk.length() - pos);
+				chunk.getChars(pos, pos + n, cbuf, off);
+				pos += n;
+				return n;
+			}
+			@Override
+			public void close() {
+			}
+		};
+		final long[] sum = {0};
+		int count = new HtmlTableStreamer().stream(reader, row -> sum[0] += Integer.parseInt(row.getValues().get(0)));
+		Assert.assertEquals(nrows, count);
+		Assert.assertEquals((long) nrows * (nrows - 1) / 2, sum[0]);
+	}
+}
@@ -0,0 +1,54 @@
+package org.xmlcml.html.util;
+
+import java.io.File;
+import java.io.StringWriter;
+
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xmlcml.html.HtmlElement;
+import org.xmlcml.html.HtmlFactory;
+import org.xmlcml.html.HtmlTable;
+
+public class HtmlTableWriterTest {
+
+	private final static Logger LOG = Logger.getLogger(HtmlTableWriterTest.class);
+
+	@Test
+	public void testFormats() throws Exception {
+		HtmlTable table = HtmlTable.getFirstDescendantTable(new HtmlFactory().parse(new File(Fixtures.HTML_DIR, "colspan.html")));
+		Assert.assertEquals("A A1,A A2,B B1,B B2\nr11,r12,r13,r14\nr21,r22,r23,r24\n", write(table, HtmlTableWriter.Format.CSV));
+		Assert.assertEquals("A A1\tA A2\tB B1\tB B2\nr11\tr12\tr13\tr14\nr21\tr22\tr23\tr24\n", write(table, HtmlTableWriter.Format.TSV));
+		Assert.assertEquals("{\"table\":0,\"header\":[\"A A1\",\"A A2\",\"B B1\",\"B B2\"]}\n"
+				+ "{\"table\":0,\"row\":0,\"cells\":[\"r11\",\"r12\",\"r13\",\"r14\"]}\n"
+				+ "{\"table\":0,\"row\":1,\"cells\":[\"r21\",\"r22\",\"r23\",\"r24\"]}\n", write(table, HtmlTableWriter.Format.JSONL));
+	}
+
+	@Test
+	public void testEscapingAndAll() throws Exception {
+		HtmlElement root = new HtmlFactory().parse(
+				"<html><body><table><tr><td>a, \"b\"</td><td rowspan=\"2\">c\\d</td></tr><tr><td>e</td></tr></table>"
+				+ "<table><tr><td>f</td><td/></tr></table></body></html>");
+		StringWriter sw = new StringWriter();
+		HtmlTableWriter writer = new HtmlTableWriter(sw, HtmlTableWriter.Format.CSV);
+		Assert.assertEquals(2, writer.writeAll(root));
+		writer.close();
+		Assert.assertEquals("\"a, \"\"b\"\"\",c\\d\ne,c\\d\n\nf,\n", sw.toString());
+		Assert.assertEquals(3, writer.getRowCount());
+		sw = new StringWriter();
+		writer = new HtmlTableWriter(sw, HtmlTableWriter.Format.JSONL);
+		writer.writeAll(root);
+		writer.flush();
+		Assert.assertEquals("{\"table\":0,\"row\":0,\"cells\":[\"a, \\\"b\\\"\",\"c\\\\d\"]}\n"
+				+ "{\"table\":0,\"row\":1,\"cells\":[\"e\",\"c\\\\d\"]}\n"
+				+ "{\"table\":1,\"row\":0,\"cells\":[\"f\",\"\"]}\n", sw.toString());
+	}
+
+	private String write(HtmlTable table, HtmlTableWriter.Format format) throws Exception {
+		StringWriter sw = new StringWriter();
+		try (HtmlTableWriter writer = new HtmlTableWriter(sw, format)) {
+			writer.write(table);
+		}
+		return sw.toString();
+	}
+}
@@ -23,4 +23,27 @@ public class HtmlTagReplacementTest {
 		replace.replaceAll(sb);
 		Assert.assertEquals("<html><bar/> and  end</html>", sb.toString());
 	}
+
+	@Test
+	public void testManyTagsOnePass() {
+		HTMLTagReplacer replacer = new HTMLTagReplacer();
+		replacer.addReplacement(new HTMLTagReplacement("script"));
+		replacer.addReplacement(new HTMLTagReplacement("button"));
+		replacer.addReplacement(new HTMLTagReplacement("it", "i"));
+		String s = replacer.replaceAll(
+				"<p><SCRIPT type=\"x\">document.write('<script></scr'+'ipt>');</script>"
+				+ "<it class=\"a>b\">x</it><item>y</item><button><button>b</button></button>"
+				+ "<!-- <it> --></p>");
+		Assert.assertEquals("<p><i class=\"a>b\">x</i><item>y</item><!-- <it> --></p>", s);
+	}
+
+	@Test
+	public void testUnclosedDelete() {
+		try {
+			new HTMLTagReplacer(new HTMLTagReplacement("tag")).replaceAll("<html><tag>foo</html>");
+			Assert.fail("should throw");
+		} catch (RuntimeException e) {
+			Assert.assertEquals("badly formed tag: <tag at 6", e.getMessage());
+		}
+	}
 }
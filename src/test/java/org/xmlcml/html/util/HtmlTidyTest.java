@@ -3,12 +3,19 @@ package org.xmlcml.html.util;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.junit.Assert;
 import org.junit.Test;
 import org.w3c.tidy.Tidy;
+import org.xmlcml.xml.XMLUtil;
+
+import nu.xom.Document;
 
 
 public class HtmlTidyTest {
@@ -24,6 +31,30 @@ public class HtmlTidyTest {
 				"<html><head><title>t</title><meta name=\"x\" content=\"y\" /></head></html>", s);
 	}
 
+	/** a Tidy can be reused for successive documents (as HTMLTidy does per thread).
+	 */
+	@Test
+	public void testReuseTidy() throws IOException {
+		String html1 = "<html><title>t</title><meta name=\"x\" content=\"y\"/></html>";
+		String html2 = "<p>a<p>b";
+		Tidy tidy = makeTidy();
+		String s1 = HtmlTidyTest.createOuput(html1, tidy);
+		String s2 = HtmlTidyTest.createOuput(html2, tidy);
+		Assert.assertEquals(s1, HtmlTidyTest.createOuput(html1, tidy));
+		Assert.assertEquals(s2, HtmlTidyTest.createOuput(html2, makeTidy()));
+	}
+
+	@Test
+	public void testTidyAll() {
+		List<InputStream> inputStreams = Arrays.asList(new InputStream[]{IOUtils.toInputStream("<p>a</p>"), null});
+		List<Document> documents = HTMLTidy.tidyAll(inputStreams);
+		Assert.assertEquals(2, documents.size());
+		Assert.assertNotNull(documents.get(0));
+		Assert.assertEquals("html", documents.get(0).getRootElement().getLocalName());
+		Assert.assertEquals("a", XMLUtil.getSingleValue(documents.get(0).getRootElement(), "//*[local-name()='p']"));
+		Assert.assertNull(documents.get(1));
+	}
+
 	public void testNoEndTag() throws IOException {
 		String html = "<html><title>t</title><meta name=\"x\" content=\"y\"></html>";
 		Tidy tidy = makeTidy();
@@ -78,6 +109,23 @@ public class HtmlTidyTest {
 				"<html xmlns=\"http://www.w3.org/1999/xhtml\"><head><meta name=\"generator\" content=\"HTML Tidy, see www.w3.org\" /><title>t</title><meta name=\"x\" content=\"y is \" /></head><body><i>bad</i></body></html>", htmlTidy.getOutputString());
 	}
 	
+	@Test
+	public void testTidyReaderWriter() throws IOException {
+		String html = "<!DOCTYPE html>\n<html><title>t</title>\n<it>bad</it><script>x</script></html>";
+		HTMLTidy htmlTidy = new HTMLTidy();
+		htmlTidy.replacetag("it", "i");
+		htmlTidy.deleteTag("script");
+		String out = htmlTidy.tidy(IOUtils.toInputStream(html));
+		StringWriter writer = new StringWriter();
+		htmlTidy.tidy(new StringReader(html), writer);
+		Assert.assertEquals(out, writer.toString());
+		// output of the earlier tidy(InputStream) is not reported for this document
+		Assert.assertNull(htmlTidy.getOutputString());
+		Assert.assertNull(htmlTidy.getByteArrayOutputStream());
+		Assert.assertEquals("<html xmlns=\"http://www.w3.org/1999/xhtml\"><head><meta name=\"generator\" content=\"HTML Tidy, see www.w3.org\" />"
+				+ "<title>t</title></head><body><i>bad</i></body></html>", out);
+	}
+
 	@Test
 	public void testHTMLTidy() throws IOException {
 		InputStream is = IOUtils.toInputStream("<html><script> a = b</script><meta name=\"a\" content=\"b\"></html>");
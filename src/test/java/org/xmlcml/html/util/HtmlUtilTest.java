@@ -1,5 +1,7 @@
 package org.xmlcml.html.util;
 
+import java.util.Random;
+
 import org.apache.log4j.Logger;
 import org.junit.Assert;
 import org.junit.Test;
@@ -28,4 +30,21 @@ public class HtmlUtilTest {
 		Assert.assertEquals("after", 50, ss.length());
 		Assert.assertEquals("stripped", "<a  zub=\"foo\"/><c>zub</c><b xyzzy=\"plugh\"  q=\"p\"/>", ss);
 	}
+
+	@Test
+	public void testNormalizeWhitespace() {
+		String plain = "a b c";
+		Assert.assertSame(plain, HtmlUtil.normalizeWhitespace(plain));
+		Assert.assertEquals("a b c", HtmlUtil.normalizeWhitespace(new StringBuilder(" \u0001a \t\nb\rc  ")));
+		Random random = new Random(42);
+		char[] chars = {'a', 'b', ' ', '\t', '\n', '\r', '\f', '\u000B', '\u0001', '\u00a0'};
+		for (int n = 0; n < 2000; n++) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = random.nextInt(12); i > 0; i--) {
+				sb.append(chars[random.nextInt(chars.length)]);
+			}
+			String s = sb.toString();
+			Assert.assertEquals(s, s.trim().replaceAll("\\s+", " "), HtmlUtil.normalizeWhitespace(s));
+		}
+	}
 }